@@ -0,0 +1,399 @@
+package de.md.jsom;
+
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * One key of a ColumnarList: the values of all rows at that key.
+ *
+ * Like CompactList, values are kept in an int[], long[], double[] or
+ * boolean[] while they all have exactly that type, and in an Object[]
+ * otherwise. Rows without the key are tracked separately; they read as null
+ * through the List interface and as 0 in primitive streams.
+ *
+ * As a List, a column has a fixed size and supports get() and set() only.
+ *
+ * Not thread-safe.
+ */
+final class Column extends AbstractList<Object> implements PrimitiveList, RandomAccess {
+
+    /**
+     * Create a column with all rows missing.
+     *
+     * @param rows
+     */
+    Column(int rows) {
+        size = rows;
+        if (rows > 0) {
+            missing = new BitSet(rows);
+            missing.set(0, rows);
+        }
+    }
+
+    @Override
+    public Object get(int row) {
+        checkIndex(row);
+        if (!has(row)) {
+            return null;
+        }
+        switch (mode) {
+            case INTS:
+                return ints[row];
+            case LONGS:
+                return longs[row];
+            case DOUBLES:
+                return doubles[row];
+            case BOOLEANS:
+                return booleans[row];
+            default:
+                return objects[row];
+        }
+    }
+
+    @Override
+    public Object set(int row, Object value) {
+        Object previous = get(row);
+        store(row, value);
+        if (missing != null) {
+            missing.clear(row);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        return new IndexSpliterator<>(this);
+    }
+
+    /**
+     * @param row
+     * @return Whether the row has this key
+     */
+    boolean has(int row) {
+        return missing == null || !missing.get(row);
+    }
+
+    /**
+     * Remove the key from a row.
+     *
+     * @param row
+     */
+    void unset(int row) {
+        checkIndex(row);
+        clear(row);
+        if (missing == null) {
+            missing = new BitSet(size);
+        }
+        missing.set(row);
+    }
+
+    /**
+     * Insert a row.
+     *
+     * @param row
+     * @param value
+     * @param present Whether the row has this key
+     */
+    void insert(int row, Object value, boolean present) {
+        if (size == length()) {
+            resize(Math.max(size + (size >> 1) + 1, DEFAULT_CAPACITY));
+        }
+        Object array = array();
+        if (array != null && row < size) {
+            System.arraycopy(array, row, array, row + 1, size - row);
+        }
+        if (missing != null || !present) {
+            if (missing == null) {
+                missing = new BitSet(size + 1);
+            }
+            for (int i = size; i > row; --i) {
+                missing.set(i, missing.get(i - 1));
+            }
+            missing.set(row, !present);
+        }
+        ++size;
+        ++modCount;
+        if (present) {
+            store(row, value);
+        } else if (array != null) {
+            clear(row);
+        }
+    }
+
+    /**
+     * Reorder the rows.
+     *
+     * @param order The old index of each new row
+     */
+    void permute(int[] order) {
+        Object array = array();
+        if (array != null) {
+            Object source = Array.newInstance(array.getClass().getComponentType(), size);
+            System.arraycopy(array, 0, source, 0, size);
+            for (int i = 0; i < size; ++i) {
+                System.arraycopy(source, order[i], array, i, 1);
+            }
+        }
+        if (missing != null) {
+            BitSet source = (BitSet) missing.clone();
+            for (int i = 0; i < size; ++i) {
+                missing.set(i, source.get(order[i]));
+            }
+        }
+        ++modCount;
+    }
+
+    /**
+     * Delete a row.
+     *
+     * @param row
+     */
+    void delete(int row) {
+        checkIndex(row);
+        Object array = array();
+        if (array != null) {
+            System.arraycopy(array, row + 1, array, row, size - row - 1);
+        }
+        if (mode == OBJECTS) {
+            objects[size - 1] = null;
+        }
+        if (missing != null) {
+            for (int i = row; i < size - 1; ++i) {
+                missing.set(i, missing.get(i + 1));
+            }
+            missing.clear(size - 1);
+        }
+        --size;
+        ++modCount;
+    }
+
+    @Override
+    public LongStream longs() {
+        switch (mode) {
+            case INTS:
+                return ints().asLongStream();
+            case LONGS:
+                return Arrays.stream(longs, 0, size);
+            case DOUBLES:
+                return doubles().mapToLong(d -> (long) d);
+            case UNTYPED:
+                return LongStream.generate(() -> 0).limit(size);
+            default:
+                return stream().mapToLong(Jsom::longOf);
+        }
+    }
+
+    @Override
+    public IntStream ints() {
+        switch (mode) {
+            case INTS:
+                return Arrays.stream(ints, 0, size);
+            case LONGS:
+                return longs().mapToInt(l -> (int) l);
+            case DOUBLES:
+                return doubles().mapToInt(d -> (int) d);
+            case UNTYPED:
+                return IntStream.generate(() -> 0).limit(size);
+            default:
+                return stream().mapToInt(Jsom::intOf);
+        }
+    }
+
+    @Override
+    public DoubleStream doubles() {
+        switch (mode) {
+            case INTS:
+                return ints().asDoubleStream();
+            case LONGS:
+                return longs().asDoubleStream();
+            case DOUBLES:
+                return Arrays.stream(doubles, 0, size);
+            case UNTYPED:
+                return DoubleStream.generate(() -> 0).limit(size);
+            default:
+                return stream().mapToDouble(Jsom::doubleOf);
+        }
+    }
+
+    private void store(int row, Object value) {
+        if (mode == UNTYPED) {
+            int length = Math.max(capacity, DEFAULT_CAPACITY);
+            mode = modeOf(value);
+            resize(length);
+        } else if (mode != OBJECTS && mode != modeOf(value)) {
+            inflate();
+        }
+        switch (mode) {
+            case INTS:
+                ints[row] = (Integer) value;
+                break;
+            case LONGS:
+                longs[row] = (Long) value;
+                break;
+            case DOUBLES:
+                doubles[row] = (Double) value;
+                break;
+            case BOOLEANS:
+                booleans[row] = (Boolean) value;
+                break;
+            default:
+                objects[row] = value;
+        }
+    }
+
+    /**
+     * Reset a row to the zero value of the current representation, so
+     * primitive streams see 0 for missing rows.
+     *
+     * @param row
+     */
+    private void clear(int row) {
+        switch (mode) {
+            case INTS:
+                ints[row] = 0;
+                break;
+            case LONGS:
+                longs[row] = 0;
+                break;
+            case DOUBLES:
+                doubles[row] = 0;
+                break;
+            case BOOLEANS:
+                booleans[row] = false;
+                break;
+            case OBJECTS:
+                objects[row] = null;
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Switch to the Object[] representation, boxing all present values.
+     */
+    private void inflate() {
+        Object[] boxed = new Object[Math.max(size, DEFAULT_CAPACITY)];
+        for (int i = 0; i < size; ++i) {
+            boxed[i] = get(i);
+        }
+        ints = null;
+        longs = null;
+        doubles = null;
+        booleans = null;
+        objects = boxed;
+        mode = OBJECTS;
+    }
+
+    /**
+     * Resize the array of the current mode, allocating it if needed.
+     *
+     * @param length
+     */
+    private void resize(int length) {
+        length = Math.max(length, size);
+        switch (mode) {
+            case INTS:
+                ints = ints == null ? new int[length] : Arrays.copyOf(ints, length);
+                break;
+            case LONGS:
+                longs = longs == null ? new long[length] : Arrays.copyOf(longs, length);
+                break;
+            case DOUBLES:
+                doubles = doubles == null ? new double[length] : Arrays.copyOf(doubles, length);
+                break;
+            case BOOLEANS:
+                booleans = booleans == null ? new boolean[length] : Arrays.copyOf(booleans, length);
+                break;
+            case OBJECTS:
+                objects = objects == null ? new Object[length] : Arrays.copyOf(objects, length);
+                break;
+            default:
+                capacity = length;
+        }
+    }
+
+    private Object array() {
+        switch (mode) {
+            case INTS:
+                return ints;
+            case LONGS:
+                return longs;
+            case DOUBLES:
+                return doubles;
+            case BOOLEANS:
+                return booleans;
+            case OBJECTS:
+                return objects;
+            default:
+                return null;
+        }
+    }
+
+    private int length() {
+        switch (mode) {
+            case INTS:
+                return ints.length;
+            case LONGS:
+                return longs.length;
+            case DOUBLES:
+                return doubles.length;
+            case BOOLEANS:
+                return booleans.length;
+            case OBJECTS:
+                return objects.length;
+            default:
+                return capacity;
+        }
+    }
+
+    private void checkIndex(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + size);
+        }
+    }
+
+    private static byte modeOf(Object value) {
+        if (value instanceof Integer) {
+            return INTS;
+        } else if (value instanceof Long) {
+            return LONGS;
+        } else if (value instanceof Double) {
+            return DOUBLES;
+        } else if (value instanceof Boolean) {
+            return BOOLEANS;
+        }
+        return OBJECTS;
+    }
+
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private static final byte UNTYPED = 0;
+    private static final byte INTS = 1;
+    private static final byte LONGS = 2;
+    private static final byte DOUBLES = 3;
+    private static final byte BOOLEANS = 4;
+    private static final byte OBJECTS = 5;
+
+    private byte mode = UNTYPED;
+    private int size;
+    private int capacity;
+    private BitSet missing;
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private boolean[] booleans;
+    private Object[] objects;
+
+}
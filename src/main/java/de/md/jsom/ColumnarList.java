@@ -0,0 +1,322 @@
+package de.md.jsom;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+
+/**
+ * List of maps stored column by column.
+ *
+ * Each key is stored as a Column holding the values of all rows, so scans
+ * over one key touch a single (often primitive) array. Elements are
+ * presented as map views of their row. Row views are positional: after rows
+ * are inserted or removed before it, a view shows a different row.
+ *
+ * Only maps can be added. They are copied into the columns; nested values
+ * are shared.
+ *
+ * Rows list their keys in the order the columns were created, i.e. in the
+ * order the keys first appeared in any row, not in the order of the map
+ * that was added. Records with a common key order, the usual case, keep
+ * it; otherwise keys may come out (and be written as JSON) reordered.
+ *
+ * Not thread-safe.
+ *
+ * @see Jsom#columnar(Object)
+ */
+final class ColumnarList extends AbstractList<Object> implements RandomAccess {
+
+    /**
+     * Create a columnar copy of a list of maps.
+     *
+     * @param rows
+     */
+    ColumnarList(List<?> rows) {
+        for (Object row : rows) {
+            add(row);
+        }
+    }
+
+    /**
+     * Return the column of a key. Unknown keys yield a column without values.
+     *
+     * @param key
+     * @return
+     */
+    Column column(String key) {
+        Column column = columns.get(key);
+        return column != null ? column : new Column(size);
+    }
+
+    @Override
+    public Object get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Row(index);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        Map<?, ?> map = toMap(element);
+        Map<String, Object> previous = copy(index);
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            if (map.containsKey(entry.getKey())) {
+                entry.getValue().set(index, map.get(entry.getKey()));
+            } else if (entry.getValue().has(index)) {
+                entry.getValue().unset(index);
+            }
+        }
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!columns.containsKey(entry.getKey())) {
+                columnFor((String) entry.getKey()).set(index, entry.getValue());
+            }
+        }
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Map<?, ?> map = toMap(element);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            columnFor((String) entry.getKey());
+        }
+        for (Map.Entry<String, Column> entry : columns.entrySet()) {
+            String key = entry.getKey();
+            boolean present = map.containsKey(key);
+            entry.getValue().insert(index, present ? map.get(key) : null, present);
+        }
+        ++size;
+        ++modCount;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Map<String, Object> previous = copy(index);
+        for (Column column : columns.values()) {
+            column.delete(index);
+        }
+        --size;
+        ++modCount;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        columns.clear();
+        size = 0;
+        ++modCount;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sort the rows by comparing their views, then move the rows of all
+     * columns at once.
+     *
+     * @param comparator
+     */
+    @Override
+    public void sort(Comparator<? super Object> comparator) {
+        Object[] rows = new Object[size];
+        for (int i = 0; i < size; ++i) {
+            rows[i] = new Row(i);
+        }
+        Arrays.sort(rows, comparator);
+        int[] order = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = ((Row) rows[i]).index;
+        }
+        for (Column column : columns.values()) {
+            column.permute(order);
+        }
+        ++modCount;
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        return new IndexSpliterator<>(this);
+    }
+
+    /**
+     * Return a detached copy of a row.
+     *
+     * @param index
+     * @return
+     */
+    private Map<String, Object> copy(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Map<String, Object> copy = new CompactMap();
+        copy.putAll(new Row(index));
+        return copy;
+    }
+
+    private Column columnFor(String key) {
+        Column column = columns.get(Jsom.require(key, "Cannot put null key"));
+        if (column == null) {
+            column = new Column(size);
+            columns.put(key, column);
+        }
+        return column;
+    }
+
+    private static Map<?, ?> toMap(Object element) {
+        element = Jsom.valueOf(element);
+        if (!(element instanceof Map)) {
+            throw new ClassCastException("Cannot add " + Jsom.typeOf(element) + " to columnar list");
+        }
+        if (element instanceof Row) {
+            // a row view may move while it is being copied into the columns
+            Map<String, Object> copy = new CompactMap();
+            copy.putAll((Row) element);
+            return copy;
+        }
+        return (Map<?, ?>) element;
+    }
+
+    /**
+     * Map view of one row.
+     */
+    private final class Row extends AbstractMap<String, Object> {
+
+        Row(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Column column = columns.get(key);
+            return column == null ? null : column.get(index);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Column column = columns.get(key);
+            return column != null && column.has(index);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return columnFor(key).set(index, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            Column column = columns.get(key);
+            if (column == null || !column.has(index)) {
+                return null;
+            }
+            Object previous = column.get(index);
+            column.unset(index);
+            return previous;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new RowIterator(index);
+                }
+
+                @Override
+                public int size() {
+                    int count = 0;
+                    for (Column column : columns.values()) {
+                        if (column.has(index)) {
+                            ++count;
+                        }
+                    }
+                    return count;
+                }
+
+            };
+        }
+
+        private final int index;
+
+    }
+
+    private final class RowIterator implements Iterator<Map.Entry<String, Object>> {
+
+        RowIterator(int index) {
+            this.index = index;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            final Map.Entry<String, Column> entry = last;
+            return new AbstractMap.SimpleEntry<String, Object>(entry.getKey(), entry.getValue().get(index)) {
+
+                @Override
+                public Object setValue(Object value) {
+                    super.setValue(value);
+                    return entry.getValue().set(index, value);
+                }
+
+                private static final long serialVersionUID = 1L;
+
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            last.getValue().unset(index);
+            last = null;
+        }
+
+        private void advance() {
+            next = null;
+            while (columnIterator.hasNext()) {
+                Map.Entry<String, Column> candidate = columnIterator.next();
+                if (candidate.getValue().has(index)) {
+                    next = candidate;
+                    return;
+                }
+            }
+        }
+
+        private final int index;
+        private final Iterator<Map.Entry<String, Column>> columnIterator = columns.entrySet().iterator();
+        private Map.Entry<String, Column> next;
+        private Map.Entry<String, Column> last;
+
+    }
+
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private int size;
+
+}
@@ -0,0 +1,498 @@
+package de.md.jsom;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Array list that stores homogeneous Integer, Long or Double elements in a
+ * primitive array.
+ *
+ * The representation is chosen by the first element. As long as all
+ * elements have exactly that type, they are kept in an int[], long[] or
+ * double[] and only boxed when read through the List interface. The first
+ * element of any other type (including null) converts the list to a plain
+ * Object[] for good. Element types are never changed, so the list is
+ * indistinguishable from an ArrayList holding the same elements.
+ *
+ * The hash code is cached, see HashCached. Not thread-safe.
+ */
+final class CompactList extends AbstractList<Object>
+        implements PrimitiveList, HashCached, RandomAccess, Serializable {
+
+    /**
+     * Create an empty list.
+     */
+    CompactList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty list.
+     *
+     * @param capacity Expected number of elements
+     */
+    CompactList(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index);
+        switch (mode) {
+            case INTS:
+                return ints[index];
+            case LONGS:
+                return longs[index];
+            case DOUBLES:
+                return doubles[index];
+            default:
+                return objects[index];
+        }
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        Object previous = get(index);
+        if (!accepts(element)) {
+            inflate();
+        }
+        store(index, element);
+        HashCached.release(this, previous);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (mode == UNTYPED) {
+            allocate(modeOf(element), capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        } else if (!accepts(element)) {
+            inflate();
+        }
+        if (size == length()) {
+            resize(size + (size >> 1) + 1);
+        }
+        if (index < size) {
+            System.arraycopy(array(), index, array(), index + 1, size - index);
+        }
+        ++size;
+        ++modCount;
+        store(index, element);
+    }
+
+    @Override
+    public boolean addAll(Collection<?> elements) {
+        if (!(elements instanceof CompactList)) {
+            return super.addAll(elements);
+        }
+        CompactList other = (CompactList) elements;
+        int count = other.size;
+        if (count == 0) {
+            return false;
+        } else if (mode == UNTYPED) {
+            allocate(other.mode, Math.max(capacity, count));
+        } else if (mode != other.mode) {
+            return super.addAll(elements);
+        }
+        if (size + count > length()) {
+            resize(Math.max(size + (size >> 1) + 1, size + count));
+        }
+        System.arraycopy(other.array(), 0, array(), size, count);
+        if (mode == OBJECTS) {
+            for (int i = size; i < size + count; ++i) {
+                HashCached.adopt(this, objects[i]);
+            }
+        }
+        size += count;
+        ++modCount;
+        HashCached.invalidate(this);
+        return true;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object previous = get(index);
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(array(), index + 1, array(), index, moved);
+        }
+        if (mode == OBJECTS) {
+            objects[size - 1] = null;
+        }
+        --size;
+        ++modCount;
+        HashCached.invalidate(this);
+        HashCached.release(this, previous);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        ++modCount;
+        HashCached.invalidate(this);
+        for (int i = 0; mode == OBJECTS && i < size; ++i) {
+            HashCached.release(this, objects[i]);
+        }
+        size = 0;
+        mode = UNTYPED;
+        ints = null;
+        longs = null;
+        doubles = null;
+        objects = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        return new IndexSpliterator<>(this);
+    }
+
+    @Override
+    public int indexOf(Object element) {
+        for (int i = 0; i < size; ++i) {
+            if (matches(i, element)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object element) {
+        for (int i = size - 1; i >= 0; --i) {
+            if (matches(i, element)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return indexOf(element) >= 0;
+    }
+
+    /**
+     * Sort in place. Primitive arrays are sorted directly when sorting by
+     * natural order.
+     *
+     * @param comparator The comparator, or null for natural order
+     */
+    @Override
+    public void sort(Comparator<? super Object> comparator) {
+        if (comparator == null && mode == INTS) {
+            Arrays.sort(ints, 0, size);
+        } else if (comparator == null && mode == LONGS) {
+            Arrays.sort(longs, 0, size);
+        } else if (comparator == null && mode == DOUBLES) {
+            Arrays.sort(doubles, 0, size);
+        } else if (mode == OBJECTS) {
+            Arrays.sort(objects, 0, size, comparator);
+        } else {
+            super.sort(comparator);
+        }
+        ++modCount;
+        HashCached.invalidate(this);
+    }
+
+    /**
+     * Return the hash code, which is cached while every element is immutable
+     * or a HashCached container reporting its changes to this list.
+     * Primitive elements are hashed without boxing.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        if (hashed) {
+            return hash;
+        }
+        int result = 1;
+        boolean stable = true;
+        for (int i = 0; i < size; ++i) {
+            switch (mode) {
+                case INTS:
+                    result = 31 * result + Integer.hashCode(ints[i]);
+                    break;
+                case LONGS:
+                    result = 31 * result + Long.hashCode(longs[i]);
+                    break;
+                case DOUBLES:
+                    result = 31 * result + Double.hashCode(doubles[i]);
+                    break;
+                default:
+                    result = 31 * result + Objects.hashCode(objects[i]);
+                    stable &= HashCached.isStable(this, objects[i]);
+            }
+        }
+        hash = result;
+        hashed = stable;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof CompactList) {
+            CompactList that = (CompactList) other;
+            if (that.size != size || (hashed && that.hashed && hash != that.hash)) {
+                return false;
+            }
+        }
+        return super.equals(other);
+    }
+
+    @Override
+    public HashCached dropHash() {
+        if (!hashed) {
+            return null;
+        }
+        hashed = false;
+        return parent;
+    }
+
+    @Override
+    public void attach(HashCached parent) {
+        if (this.parent == parent) {
+            ++attachments;
+        } else if (this.parent == null && !shared) {
+            this.parent = parent;
+            attachments = 1;
+        } else {
+            // changes will no longer reach the first parent, so it must not keep its hash code
+            HashCached.invalidate(this.parent);
+            this.parent = null;
+            shared = true;
+        }
+    }
+
+    @Override
+    public void detach(HashCached parent) {
+        if (this.parent == parent && --attachments == 0) {
+            this.parent = null;
+        }
+    }
+
+    @Override
+    public boolean isHashedFor(HashCached parent) {
+        return hashed && this.parent == parent;
+    }
+
+    @Override
+    public LongStream longs() {
+        switch (mode) {
+            case INTS:
+                return ints().asLongStream();
+            case LONGS:
+                return Arrays.stream(longs, 0, size);
+            case DOUBLES:
+                return doubles().mapToLong(d -> (long) d);
+            default:
+                return stream().mapToLong(Jsom::longOf);
+        }
+    }
+
+    @Override
+    public IntStream ints() {
+        switch (mode) {
+            case INTS:
+                return Arrays.stream(ints, 0, size);
+            case LONGS:
+                return longs().mapToInt(l -> (int) l);
+            case DOUBLES:
+                return doubles().mapToInt(d -> (int) d);
+            default:
+                return stream().mapToInt(Jsom::intOf);
+        }
+    }
+
+    @Override
+    public DoubleStream doubles() {
+        switch (mode) {
+            case INTS:
+                return ints().asDoubleStream();
+            case LONGS:
+                return longs().asDoubleStream();
+            case DOUBLES:
+                return Arrays.stream(doubles, 0, size);
+            default:
+                return stream().mapToDouble(Jsom::doubleOf);
+        }
+    }
+
+    /**
+     * Compare the element at index with a value like equals() does, but
+     * without boxing.
+     *
+     * @param index
+     * @param element
+     * @return
+     */
+    private boolean matches(int index, Object element) {
+        switch (mode) {
+            case INTS:
+                return element instanceof Integer && ints[index] == (Integer) element;
+            case LONGS:
+                return element instanceof Long && longs[index] == (Long) element;
+            case DOUBLES:
+                return element instanceof Double
+                        && Double.doubleToLongBits(doubles[index]) == Double.doubleToLongBits((Double) element);
+            default:
+                return element == null ? objects[index] == null : element.equals(objects[index]);
+        }
+    }
+
+    private boolean accepts(Object element) {
+        return mode == OBJECTS || mode == modeOf(element);
+    }
+
+    private void store(int index, Object element) {
+        HashCached.invalidate(this);
+        HashCached.adopt(this, element);
+        switch (mode) {
+            case INTS:
+                ints[index] = (Integer) element;
+                break;
+            case LONGS:
+                longs[index] = (Long) element;
+                break;
+            case DOUBLES:
+                doubles[index] = (Double) element;
+                break;
+            default:
+                objects[index] = element;
+        }
+    }
+
+    /**
+     * Switch to the Object[] representation, boxing all elements.
+     */
+    private void inflate() {
+        Object[] boxed = new Object[Math.max(length(), DEFAULT_CAPACITY)];
+        for (int i = 0; i < size; ++i) {
+            boxed[i] = get(i);
+        }
+        ints = null;
+        longs = null;
+        doubles = null;
+        objects = boxed;
+        mode = OBJECTS;
+    }
+
+    private void allocate(byte mode, int length) {
+        this.mode = mode;
+        switch (mode) {
+            case INTS:
+                ints = new int[length];
+                break;
+            case LONGS:
+                longs = new long[length];
+                break;
+            case DOUBLES:
+                doubles = new double[length];
+                break;
+            default:
+                objects = new Object[length];
+        }
+    }
+
+    private void resize(int length) {
+        switch (mode) {
+            case INTS:
+                ints = Arrays.copyOf(ints, length);
+                break;
+            case LONGS:
+                longs = Arrays.copyOf(longs, length);
+                break;
+            case DOUBLES:
+                doubles = Arrays.copyOf(doubles, length);
+                break;
+            default:
+                objects = Arrays.copyOf(objects, length);
+        }
+    }
+
+    private Object array() {
+        switch (mode) {
+            case INTS:
+                return ints;
+            case LONGS:
+                return longs;
+            case DOUBLES:
+                return doubles;
+            default:
+                return objects;
+        }
+    }
+
+    private int length() {
+        switch (mode) {
+            case INTS:
+                return ints.length;
+            case LONGS:
+                return longs.length;
+            case DOUBLES:
+                return doubles.length;
+            default:
+                return objects.length;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static byte modeOf(Object element) {
+        if (element instanceof Integer) {
+            return INTS;
+        } else if (element instanceof Long) {
+            return LONGS;
+        } else if (element instanceof Double) {
+            return DOUBLES;
+        }
+        return OBJECTS;
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private static final byte UNTYPED = 0;
+    private static final byte INTS = 1;
+    private static final byte LONGS = 2;
+    private static final byte DOUBLES = 3;
+    private static final byte OBJECTS = 4;
+
+    private final int capacity;
+    private byte mode = UNTYPED;
+    private int size;
+    private transient int hash;
+    private transient boolean hashed;
+    private transient HashCached parent;
+    private transient int attachments;
+    private transient boolean shared;
+    private int[] ints;
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+
+}
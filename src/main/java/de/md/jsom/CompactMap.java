@@ -0,0 +1,400 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Array-backed map for small JSON objects.
+ *
+ * Keys live in a shared MapShape, values in an array at the matching
+ * indices, so maps with the same keys (e.g. the records of an array) only
+ * pay for their values. Iteration follows insertion order. Maps growing
+ * beyond MapShape.MAX_KEYS keys, or with keys that find no shape, switch to
+ * a LinkedHashMap for good.
+ *
+ * The hash code is cached, see HashCached. Keys must not be null. Not
+ * thread-safe.
+ */
+final class CompactMap extends AbstractMap<String, Object> implements HashCached, Serializable {
+
+    /**
+     * Create an empty map.
+     */
+    CompactMap() {
+    }
+
+    /**
+     * Create an empty map.
+     *
+     * @param capacity Expected number of entries
+     */
+    CompactMap(int capacity) {
+        if (capacity > MapShape.MAX_KEYS) {
+            overflow = new LinkedHashMap<>(capacity * 4 / 3 + 1);
+        } else if (capacity > 0) {
+            values = new Object[capacity];
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (overflow != null) {
+            return overflow.get(key);
+        }
+        int index = shape.indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overflow != null ? overflow.containsKey(key) : shape.indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Jsom.require(key, "Cannot put null key");
+        HashCached.invalidate(this);
+        HashCached.adopt(this, value);
+        if (overflow != null) {
+            Object previous = overflow.put(key, value);
+            HashCached.release(this, previous);
+            return previous;
+        }
+        int index = shape.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            HashCached.release(this, previous);
+            return previous;
+        }
+        int size = shape.size();
+        MapShape next = size == MapShape.MAX_KEYS ? null : shape.with(key);
+        if (next == null) {
+            spill();
+            return overflow.put(key, value);
+        }
+        if (values == null) {
+            values = new Object[DEFAULT_CAPACITY];
+        } else if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(size + (size >> 1) + 1, MapShape.MAX_KEYS));
+        }
+        shape = next;
+        values[size] = value;
+        ++modCount;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (overflow != null) {
+            Object previous = overflow.remove(key);
+            HashCached.release(this, previous);
+            return previous;
+        }
+        int index = shape.indexOf(key);
+        return index < 0 ? null : removeAt(index);
+    }
+
+    @Override
+    public void clear() {
+        HashCached.invalidate(this);
+        for (Object value : values()) {
+            HashCached.release(this, value);
+        }
+        if (overflow != null) {
+            overflow.clear();
+        } else if (values != null) {
+            Arrays.fill(values, 0, shape.size(), null);
+        }
+        shape = MapShape.EMPTY;
+        ++modCount;
+    }
+
+    @Override
+    public int size() {
+        return overflow != null ? overflow.size() : shape.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (overflow != null) {
+            return overflow.entrySet();
+        }
+        Set<Entry<String, Object>> entries = entrySet;
+        return entries != null ? entries : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Return the hash code, which is cached while every value is immutable or
+     * a HashCached container reporting its changes to this map.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        if (overflow != null) {
+            return overflow.hashCode();
+        } else if (hashed) {
+            return hash;
+        }
+        int result = 0;
+        boolean stable = true;
+        for (int i = 0; i < shape.size(); ++i) {
+            result += shape.key(i).hashCode() ^ Objects.hashCode(values[i]);
+            stable &= HashCached.isStable(this, values[i]);
+        }
+        hash = result;
+        hashed = stable;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof CompactMap) {
+            CompactMap that = (CompactMap) other;
+            if (hashed && that.hashed && overflow == null && that.overflow == null && hash != that.hash) {
+                return false;
+            }
+        }
+        return super.equals(other);
+    }
+
+    @Override
+    public HashCached dropHash() {
+        if (!hashed) {
+            return null;
+        }
+        hashed = false;
+        return parent;
+    }
+
+    @Override
+    public void attach(HashCached parent) {
+        if (this.parent == parent) {
+            ++attachments;
+        } else if (this.parent == null && !shared) {
+            this.parent = parent;
+            attachments = 1;
+        } else {
+            // changes will no longer reach the first parent, so it must not keep its hash code
+            HashCached.invalidate(this.parent);
+            this.parent = null;
+            shared = true;
+        }
+    }
+
+    @Override
+    public void detach(HashCached parent) {
+        if (this.parent == parent && --attachments == 0) {
+            this.parent = null;
+        }
+    }
+
+    @Override
+    public boolean isHashedFor(HashCached parent) {
+        return hashed && this.parent == parent;
+    }
+
+    private Object removeAt(int index) {
+        HashCached.invalidate(this);
+        MapShape smaller = shape.without(index);
+        if (smaller == null) {
+            String key = shape.key(index);
+            spill();
+            Object previous = overflow.remove(key);
+            HashCached.release(this, previous);
+            return previous;
+        }
+        int size = shape.size();
+        Object previous = values[index];
+        HashCached.release(this, previous);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[size - 1] = null;
+        shape = smaller;
+        ++modCount;
+        return previous;
+    }
+
+    /**
+     * Move all entries to a LinkedHashMap for good.
+     */
+    private void spill() {
+        int size = shape.size();
+        overflow = new LinkedHashMap<>(size * 2 + 2);
+        for (int i = 0; i < size; ++i) {
+            overflow.put(shape.key(i), values[i]);
+        }
+        shape = MapShape.EMPTY;
+        values = null;
+        ++modCount;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return overflow != null ? overflow.entrySet().iterator() : new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            CompactMap.this.clear();
+        }
+
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+        @Override
+        public boolean hasNext() {
+            return next < size();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            checkForComodification();
+            if (next >= shape.size()) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Node(shape.key(last), last, expectedModCount);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount || overflow != null) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+    }
+
+    /**
+     * Entry writing through to the map while the map is structurally
+     * unchanged.
+     */
+    private final class Node implements Entry<String, Object> {
+
+        Node(String key, int index, int expectedModCount) {
+            this.key = key;
+            this.index = index;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return modCount == expectedModCount ? values[index] : get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (modCount == expectedModCount) {
+                HashCached.invalidate(CompactMap.this);
+                HashCached.adopt(CompactMap.this, value);
+                Object previous = values[index];
+                values[index] = value;
+                HashCached.release(CompactMap.this, previous);
+                return previous;
+            }
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) other;
+            return key.equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+
+        private final String key;
+        private final int index;
+        private final int expectedModCount;
+
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (Entry<String, Object> entry : entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        shape = MapShape.EMPTY;
+        int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            put((String) in.readObject(), in.readObject());
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private transient MapShape shape = MapShape.EMPTY;
+    private transient Object[] values;
+    private transient Map<String, Object> overflow;
+    private transient Set<Entry<String, Object>> entrySet;
+    private transient int modCount;
+    private transient int hash;
+    private transient boolean hashed;
+    private transient HashCached parent;
+    private transient int attachments;
+    private transient boolean shared;
+
+}
@@ -0,0 +1,222 @@
+package de.md.jsom;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * ConcurrentHashMap that accepts null values.
+ *
+ * JSON null is stored as a private sentinel, so lookups, updates and the
+ * atomic compound operations (compute, merge etc.) keep the guarantees of
+ * ConcurrentHashMap. As with any Map, a remapping function returning null
+ * removes the entry, and a key mapped to null counts as absent for
+ * putIfAbsent, computeIfAbsent and merge.
+ *
+ * Keys must not be null. Thread-safe.
+ *
+ * @see Jsom#concurrentMap()
+ */
+final class ConcurrentJsonMap extends AbstractMap<String, Object>
+        implements ConcurrentMap<String, Object>, Serializable {
+
+    /**
+     * Create an empty map.
+     */
+    ConcurrentJsonMap() {
+        map = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Create an empty map.
+     *
+     * @param capacity Expected number of entries
+     */
+    ConcurrentJsonMap(int capacity) {
+        map = new ConcurrentHashMap<>(capacity);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return unmask(map.get(key));
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        Object value = map.get(key);
+        return value == null ? defaultValue : unmask(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return map.containsValue(mask(value));
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return unmask(map.put(Jsom.require(key, "Cannot put null key"), mask(value)));
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        Object masked = mask(value);
+        Object previous = map.putIfAbsent(Jsom.require(key, "Cannot put null key"), masked);
+        while (previous == NULL && !map.replace(key, NULL, masked)) {
+            previous = map.putIfAbsent(key, masked);
+        }
+        return unmask(previous);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return unmask(map.remove(key));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return map.remove(key, mask(value));
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        return unmask(map.replace(key, mask(value)));
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        return map.replace(key, mask(oldValue), mask(newValue));
+    }
+
+    @Override
+    public Object compute(String key,
+            BiFunction<? super String, ? super Object, ? extends Object> function) {
+        return map.compute(Jsom.require(key, "Cannot put null key"),
+                (k, previous) -> function.apply(k, unmask(previous)));
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> function) {
+        return unmask(map.compute(Jsom.require(key, "Cannot put null key"), (k, previous) -> {
+            if (previous != null && previous != NULL) {
+                return previous;
+            }
+            Object computed = function.apply(k);
+            return computed != null ? computed : previous;
+        }));
+    }
+
+    @Override
+    public Object computeIfPresent(String key,
+            BiFunction<? super String, ? super Object, ? extends Object> function) {
+        return unmask(map.computeIfPresent(key,
+                (k, previous) -> previous == NULL ? previous : function.apply(k, previous)));
+    }
+
+    @Override
+    public Object merge(String key, Object value,
+            BiFunction<? super Object, ? super Object, ? extends Object> function) {
+        Jsom.require(value, "Cannot merge null");
+        return map.merge(Jsom.require(key, "Cannot put null key"), value,
+                (previous, given) -> previous == NULL ? given : function.apply(previous, given));
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<Entry<String, Object>> entries = map.entrySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        final Entry<String, Object> entry = entries.next();
+                        return new SimpleEntry<String, Object>(entry.getKey(), unmask(entry.getValue())) {
+
+                            @Override
+                            public Object setValue(Object value) {
+                                super.setValue(value);
+                                return unmask(entry.setValue(mask(value)));
+                            }
+
+                            private static final long serialVersionUID = 1L;
+
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public void clear() {
+                map.clear();
+            }
+
+        };
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL ? null : value;
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Stands in for null values. An enum keeps its identity through
+     * serialization.
+     */
+    private enum Null {
+        VALUE
+    }
+
+    private static final Object NULL = Null.VALUE;
+
+    private final ConcurrentHashMap<String, Object> map;
+
+}
@@ -0,0 +1,107 @@
+package de.md.jsom;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+
+/**
+ * Copy-on-write clone of a list.
+ *
+ * Reads go to the shared source list until this level is copied, which
+ * happens on the first mutation or when a child map or list is accessed.
+ * Copying wraps child containers in new copy-on-write clones, so deeper
+ * levels stay shared until they are reached themselves.
+ *
+ * The source must not be modified while this clone is in use. Not
+ * thread-safe.
+ *
+ * @see Jsom#lazyClone(Object)
+ */
+final class CowList extends AbstractList<Object> implements RandomAccess {
+
+    /**
+     * @param source
+     */
+    CowList(List<Object> source) {
+        this.source = source;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (copy == null) {
+            Object value = source.get(index);
+            if (!(value instanceof Map || value instanceof List)) {
+                return value;
+            }
+        }
+        return target().get(index);
+    }
+
+    @Override
+    public int size() {
+        return copy != null ? copy.size() : source.size();
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        return new IndexSpliterator<>(this);
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return target().set(index, element);
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        target().add(index, element);
+        ++modCount;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object previous = target().remove(index);
+        ++modCount;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        copy = new CompactList();
+        source = null;
+        ++modCount;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this || (copy != null ? copy.equals(other) : source.equals(other));
+    }
+
+    @Override
+    public int hashCode() {
+        return copy != null ? copy.hashCode() : source.hashCode();
+    }
+
+    /**
+     * Copy this level if not done yet.
+     *
+     * @return The copy
+     */
+    List<Object> target() {
+        if (copy == null) {
+            List<Object> target = new CompactList(source.size());
+            for (Object element : source) {
+                target.add(JsomCloner.lazyClone(element));
+            }
+            copy = target;
+            source = null;
+        }
+        return copy;
+    }
+
+    private List<Object> source;
+    private List<Object> copy;
+
+}
@@ -0,0 +1,107 @@
+package de.md.jsom;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copy-on-write clone of a map.
+ *
+ * Reads go to the shared source map until this level is copied, which
+ * happens on the first mutation or when a child map or list is accessed.
+ * Copying wraps child containers in new copy-on-write clones, so deeper
+ * levels stay shared until they are reached themselves.
+ *
+ * The source must not be modified while this clone is in use. Not
+ * thread-safe.
+ *
+ * @see Jsom#lazyClone(Object)
+ */
+final class CowMap extends AbstractMap<String, Object> {
+
+    /**
+     * @param source
+     */
+    CowMap(Map<String, Object> source) {
+        this.source = source;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (copy == null) {
+            Object value = source.get(key);
+            if (!(value instanceof Map || value instanceof List)) {
+                return value;
+            }
+        }
+        return target().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return copy != null ? copy.containsKey(key) : source.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return copy != null ? copy.size() : source.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return target().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return target().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        copy = new CompactMap();
+        source = null;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return target().entrySet();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this || (copy != null ? copy.equals(other) : source.equals(other));
+    }
+
+    @Override
+    public int hashCode() {
+        return copy != null ? copy.hashCode() : source.hashCode();
+    }
+
+    /**
+     * Copy this level if not done yet.
+     *
+     * @return The copy
+     */
+    Map<String, Object> target() {
+        if (copy == null) {
+            Map<String, Object> target = new CompactMap(source.size());
+            for (Entry<String, Object> entry : source.entrySet()) {
+                target.put(entry.getKey(), JsomCloner.lazyClone(entry.getValue()));
+            }
+            copy = target;
+            source = null;
+        }
+        return copy;
+    }
+
+    private Map<String, Object> source;
+    private Map<String, Object> copy;
+
+}
@@ -0,0 +1,87 @@
+package de.md.jsom;
+
+/**
+ * Container that caches its hash code, including when it holds other
+ * containers.
+ *
+ * A container put into a caching container remembers it as its parent, and
+ * clears the parent's cached hash code (and so on upwards) whenever it
+ * changes. Until it is removed again, a container thus keeps its parent and
+ * ancestors reachable. A container held by more than one parent is shared:
+ * it no longer reports changes, and its parents do not cache their hash
+ * codes. Since a cached hash code implies cached hash codes all the way down,
+ * invalidation stops at the first container without one.
+ */
+interface HashCached {
+
+    /**
+     * Drop the cached hash code.
+     *
+     * @return The parent to invalidate next, or null if there is none or
+     * nothing was cached
+     */
+    HashCached dropHash();
+
+    /**
+     * Record that this container has been put into parent once more.
+     *
+     * @param parent
+     */
+    void attach(HashCached parent);
+
+    /**
+     * Record that this container has been removed from parent once.
+     *
+     * @param parent
+     */
+    void detach(HashCached parent);
+
+    /**
+     * @param parent
+     * @return Whether the hash code is cached and changes are reported to
+     * parent
+     */
+    boolean isHashedFor(HashCached parent);
+
+    /**
+     * Drop the cached hash codes of a container and its ancestors.
+     *
+     * @param container
+     */
+    static void invalidate(HashCached container) {
+        while (container != null) {
+            container = container.dropHash();
+        }
+    }
+
+    /**
+     * @param parent
+     * @param value A value put into parent
+     */
+    static void adopt(HashCached parent, Object value) {
+        if (value instanceof HashCached) {
+            ((HashCached) value).attach(parent);
+        }
+    }
+
+    /**
+     * @param parent
+     * @param value A value removed from parent
+     */
+    static void release(HashCached parent, Object value) {
+        if (value instanceof HashCached) {
+            ((HashCached) value).detach(parent);
+        }
+    }
+
+    /**
+     * @param parent
+     * @param value A value of parent whose hash code has just been taken
+     * @return Whether parent may cache a hash code depending on value
+     */
+    static boolean isStable(HashCached parent, Object value) {
+        return value instanceof HashCached ? ((HashCached) value).isHashedFor(parent)
+                : !JsomCloner.isMutable(value);
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.md.jsom;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Transient hash set over a snapshot of a collection, used for bulk
+ * membership tests and deduplication.
+ *
+ * Every element is hashed once; lookups compare full values only on equal
+ * hashes. Keeps the first of equal elements. Elements are compared as by
+ * List.contains(), so Integer 1 and Long 1 are distinct.
+ */
+final class HashIndex {
+
+    /**
+     * Index a snapshot of elements.
+     *
+     * @param elements
+     */
+    HashIndex(Collection<?> elements) {
+        this.elements = elements.toArray();
+        int length = this.elements.length;
+        hashes = new int[length];
+        firsts = new int[length];
+        table = new int[Math.max(Integer.highestOneBit(length) << 2, MIN_CAPACITY)];
+        for (int i = 0; i < length; ++i) {
+            Object element = this.elements[i];
+            int hash = Objects.hashCode(element);
+            hashes[i] = hash;
+            int slot = slot(hash);
+            while (table[slot] != 0 && !matches(table[slot] - 1, element, hash)) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (table[slot] == 0) {
+                table[slot] = i + 1;
+                firsts[size++] = i;
+            }
+        }
+    }
+
+    /**
+     * @param element
+     * @return Whether an equal element is indexed
+     */
+    boolean contains(Object element) {
+        int hash = Objects.hashCode(element);
+        for (int slot = slot(hash); table[slot] != 0; slot = (slot + 1) & (table.length - 1)) {
+            if (matches(table[slot] - 1, element, hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The first of each group of equal elements, in order
+     */
+    List<Object> distinct() {
+        List<Object> distinct = new CompactList(size);
+        for (int i = 0; i < size; ++i) {
+            distinct.add(elements[firsts[i]]);
+        }
+        return distinct;
+    }
+
+    private boolean matches(int index, Object element, int hash) {
+        return hashes[index] == hash && Objects.equals(elements[index], element);
+    }
+
+    private int slot(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return (mixed ^ (mixed >>> 16)) & (table.length - 1);
+    }
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final Object[] elements;
+    private final int[] hashes;
+    private final int[] firsts;
+    private final int[] table;
+    private int size;
+
+}
@@ -0,0 +1,105 @@
+package de.md.jsom;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a random access list that splits by halving its index
+ * range, so splits are exactly sized and balanced.
+ *
+ * The size is bound at the first split or traversal. Not fail-fast: the list
+ * must not be structurally modified while the spliterator is in use.
+ */
+final class IndexSpliterator<T> implements Spliterator<T> {
+
+    /**
+     * @param list A random access list
+     */
+    IndexSpliterator(List<T> list) {
+        this(list, 0, -1);
+    }
+
+    private IndexSpliterator(List<T> list, int index, int fence) {
+        this.list = list;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    /**
+     * Return a spliterator over a collection that splits well for parallel
+     * streams: an IndexSpliterator for random access lists, or one over a
+     * snapshot array for everything else. Lists keep their own spliterator
+     * only if it is known to split evenly: IndexSpliterators, and the
+     * snapshot spliterators of CopyOnWriteArrayLists, which must not be
+     * read by index while they change. SUBSIZED alone does not tell, as
+     * LinkedList shows: it splits off a fixed batch at a time.
+     *
+     * @param collection
+     * @return
+     */
+    static <T> Spliterator<T> parallel(Collection<T> collection) {
+        Spliterator<T> spliterator = collection.spliterator();
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            return spliterator instanceof IndexSpliterator || collection instanceof CopyOnWriteArrayList
+                    ? spliterator : new IndexSpliterator<>((List<T>) collection);
+        }
+        int characteristics = spliterator.characteristics() & (ORDERED | DISTINCT | NONNULL | SORTED);
+        return Spliterators.spliterator(collection.toArray(), characteristics);
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int high = fence();
+        int low = index;
+        int middle = (low + high) >>> 1;
+        return low >= middle ? null : new IndexSpliterator<>(list, low, index = middle);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        if (index >= fence()) {
+            return false;
+        }
+        action.accept(list.get(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        int high = fence();
+        for (int i = index; i < high; ++i) {
+            action.accept(list.get(i));
+        }
+        index = high;
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence() - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED;
+    }
+
+    private int fence() {
+        if (fence < 0) {
+            fence = list.size();
+        }
+        return fence;
+    }
+
+    private final List<T> list;
+    private int index;
+    private int fence;
+
+}
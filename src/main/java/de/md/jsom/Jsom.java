@@ -1,9 +1,15 @@
 package de.md.jsom;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,10 +18,16 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.stream.Collector;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -33,8 +45,9 @@ import java.util.function.Supplier;
  * NullPointerExceptions. If any of these are thrown, assumptions about the
  * given JSON structure were wrong.
  *
- * Not thread-safe.
+ * Not thread-safe, except for frozen values.
  *
+ * @see #freeze()
  * @see Map
  * @see List
  * @see Stream
@@ -120,24 +133,107 @@ public class Jsom {
     }
 
     /**
+     * Return this value as a JSON string.
+     *
+     * Non-finite doubles are written as null.
+     *
+     * @return
+     */
+    public String toJson() {
+        return JsomWriter.toJson(value);
+    }
+
+    /**
+     * Write this value as JSON.
+     *
+     * @see #toJson()
+     * @param out
+     * @return self
+     * @throws java.io.UncheckedIOException If writing fails
+     */
+    public Jsom writeTo(Appendable out) {
+        JsomWriter.write(value, out);
+        return this;
+    }
+
+    /**
+     * Write this value as UTF-8 encoded JSON. The stream is neither flushed
+     * nor closed.
+     *
+     * @see #toJson()
+     * @param out
+     * @return self
+     * @throws java.io.UncheckedIOException If writing fails
+     */
+    public Jsom writeTo(OutputStream out) {
+        JsomWriter.write(value, out);
+        return this;
+    }
+
+    /**
+     * Write this value as CBOR (RFC 8949). Number types are kept, see
+     * readCbor(). The stream is neither flushed nor closed.
+     *
+     * @param out
+     * @return self
+     * @throws java.io.UncheckedIOException If writing fails
+     */
+    public Jsom writeCbor(OutputStream out) {
+        return writeCbor(out, false);
+    }
+
+    /**
+     * Write this value as CBOR, optionally writing repeated strings such as
+     * map keys only once (stringref extension, tags 256 and 25).
+     *
+     * @param out
+     * @param stringRefs Whether to reference repeated strings
+     * @return self
+     * @throws java.io.UncheckedIOException If writing fails
+     */
+    public Jsom writeCbor(OutputStream out, boolean stringRefs) {
+        JsomCbor.write(value, out, stringRefs);
+        return this;
+    }
+
+    /**
+     * @param stringRefs Whether to reference repeated strings
+     * @return This value as CBOR
+     */
+    public byte[] toCbor(boolean stringRefs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsomCbor.write(value, out, stringRefs);
+        return out.toByteArray();
+    }
+
+    /**
+     * Convert any Number, e.g. Integer, Long or BigDecimal, to long.
+     *
+     * @see Number#longValue()
      * @return
      */
     public long toLong() {
-        return value == null ? 0 : (long) value;
+        return longOf(value);
     }
 
     /**
+     * Convert any Number, e.g. Integer, Long or BigDecimal, to int.
+     *
+     * @see Number#intValue()
      * @return
      */
     public int toInt() {
-        return value == null ? 0 : (int) value;
+        return intOf(value);
     }
 
     /**
+     * Convert any Number, e.g. Integer, Long or BigDecimal, to double.
+     *
+     * @see Number#doubleValue()
      * @return
      */
     public double toDouble() {
-        return value == null ? 0.0 : (double) value;
+        return doubleOf(value);
     }
 
     /**
@@ -152,7 +248,9 @@ public class Jsom {
      * @return
      */
     public Jsom add(Object element) {
-        toList().add(valueOf(element));
+        Object unwrapped = valueOf(element);
+        toList().add(unwrapped);
+        indexAdded(unwrapped);
         return this;
     }
 
@@ -162,7 +260,9 @@ public class Jsom {
      * @return
      */
     public Jsom add(int index, Object element) {
-        toList().add(index, valueOf(element));
+        Object unwrapped = valueOf(element);
+        toList().add(index, unwrapped);
+        indexAdded(unwrapped);
         return this;
     }
 
@@ -173,7 +273,9 @@ public class Jsom {
     public Jsom addAll(Collection<Object> elements) {
         List<Object> asList = toList();
         elements.forEach((element) -> {
-            asList.add(valueOf(element));
+            Object unwrapped = valueOf(element);
+            asList.add(unwrapped);
+            indexAdded(unwrapped);
         });
         return this;
     }
@@ -194,7 +296,9 @@ public class Jsom {
     public Jsom addAll(int index, Collection<Object> elements) {
         List<Object> asList = toList();
         for (Object element : elements) {
-            asList.add(index++, valueOf(element));
+            Object unwrapped = valueOf(element);
+            asList.add(index++, unwrapped);
+            indexAdded(unwrapped);
         }
         return this;
     }
@@ -216,6 +320,9 @@ public class Jsom {
             toMap().clear();
         } else if (value instanceof List) {
             toList().clear();
+            if (indexes != null) {
+                indexes.forEach(JsomIndex::cleared);
+            }
         } else {
             throw new ClassCastException("Cannot clear() " + typeOf(value));
         }
@@ -231,11 +338,19 @@ public class Jsom {
     }
 
     /**
+     * Check whether all elements of a collection are contained. Larger
+     * checks hash each element once instead of comparing all pairs.
+     *
      * @param collection
      * @return
      */
     public boolean containsAll(Collection<Object> collection) {
-        return collection.stream().noneMatch((element) -> (!toList().contains(valueOf(element))));
+        List<Object> list = toList();
+        if (collection.size() < 2 || (long) list.size() * collection.size() < HASH_INDEX_THRESHOLD) {
+            return collection.stream().noneMatch((element) -> (!list.contains(valueOf(element))));
+        }
+        HashIndex index = new HashIndex(list);
+        return collection.stream().allMatch(element -> index.contains(valueOf(element)));
     }
 
     /**
@@ -276,6 +391,89 @@ public class Jsom {
         return $(toList().get(index));
     }
 
+    /**
+     * Get value at a JSON Pointer (RFC 6901), or null if it does not exist.
+     *
+     * Pointers are compiled once and cached.
+     *
+     * @see JsomPath
+     * @param pointer A JSON Pointer, e.g. "/orders/0/total"
+     * @return
+     */
+    public Jsom at(String pointer) {
+        return JsomPath.cached(pointer).get(value);
+    }
+
+    /**
+     * Put value at a JSON Pointer (RFC 6901), creating missing intermediate
+     * maps and lists.
+     *
+     * @see JsomPath#put(Object, Object)
+     * @param pointer A JSON Pointer, e.g. "/orders/0/total"
+     * @param value
+     * @return self
+     */
+    public Jsom putAt(String pointer, Object value) {
+        JsomPath.cached(pointer).put(this.value, value);
+        return this;
+    }
+
+    /**
+     * Evaluate a JSONPath query against this value.
+     *
+     * Queries are compiled once and cached.
+     *
+     * @see JsomQuery
+     * @param query A JSONPath query, e.g. "$.orders[?(@.total &gt; 100)].id"
+     * @return A stream of the matching values
+     */
+    public Stream<Jsom> query(String query) {
+        return JsomQuery.cached(query).stream(value);
+    }
+
+    /**
+     * Apply a JSON Merge Patch (RFC 7396) in place: null values remove
+     * entries, maps are merged recursively, other values replace.
+     *
+     * @param patch
+     * @return The result; a new instance if the patch replaces this value
+     * as a whole
+     */
+    public Jsom mergePatch(Object patch) {
+        Object result = JsomPatch.mergePatch(value, patch);
+        return result == value ? this : $(result);
+    }
+
+    /**
+     * Apply a JSON Patch (RFC 6902) in place. The patch is atomic: if any
+     * operation fails, all preceding ones are rolled back.
+     *
+     * @param operations A list of operations, e.g. parsed from JSON
+     * @return The result; a new instance if the patch replaces this value
+     * as a whole
+     * @throws IllegalArgumentException If the patch is invalid or an
+     * operation fails
+     */
+    public Jsom applyPatch(Object operations) {
+        Object result = JsomPatch.applyPatch(value, operations);
+        if (indexes != null) {
+            indexes.forEach(JsomIndex::rebuild);
+        }
+        return result == value ? this : $(result);
+    }
+
+    /**
+     * Create a cursor positioned at this value.
+     *
+     * Navigating with a cursor does not create a Jsom instance per step.
+     *
+     * @see JsomCursor
+     * @return
+     */
+    public JsomCursor cursor() {
+        return new JsomCursor(value);
+    }
+
     /**
      * Search for element and return first index if found, or -1 otherwise.
      *
@@ -412,7 +610,7 @@ public class Jsom {
         if (value instanceof Map) {
             toMap().remove(key);
         } else if (value instanceof List) {
-            toList().remove(key);
+            removeElement(key);
         } else {
             throw new ClassCastException("Cannot remove from " + typeOf(value));
         }
@@ -427,7 +625,7 @@ public class Jsom {
      * @return
      */
     public Jsom remove(int index) {
-        toList().remove(index);
+        indexRemoved(toList().remove(index));
         return this;
     }
 
@@ -439,10 +637,22 @@ public class Jsom {
      * @return
      */
     public Jsom remove(Object element) {
-        toList().remove(valueOf(element));
+        removeElement(valueOf(element));
         return this;
     }
 
+    private void removeElement(Object element) {
+        List<Object> list = toList();
+        if (indexes == null) {
+            list.remove(element);
+        } else {
+            int index = list.indexOf(element);
+            if (index >= 0) {
+                indexRemoved(list.remove(index));
+            }
+        }
+    }
+
     /**
      * Replace the entry at key with value.
      *
@@ -469,6 +679,52 @@ public class Jsom {
         return this;
     }
 
+    /**
+     * Atomically recompute the entry at key if this is a concurrent map.
+     *
+     * The function receives the key and the current value (null if absent).
+     * If it returns null, the entry is removed.
+     *
+     * @see Map#compute(Object, BiFunction)
+     * @param key
+     * @param function
+     * @return The new value
+     */
+    public Jsom compute(String key, BiFunction<String, Jsom, Object> function) {
+        return $(toMap().compute(key, (k, previous) -> valueOf(function.apply(k, $(previous)))));
+    }
+
+    /**
+     * Atomically merge a value into the entry at key if this is a concurrent
+     * map.
+     *
+     * If the key is absent or null, value is inserted. Otherwise, the
+     * function receives the current and the given value. If it returns null,
+     * the entry is removed.
+     *
+     * @see Map#merge(Object, Object, BiFunction)
+     * @param key
+     * @param value
+     * @param function
+     * @return The new value
+     */
+    public Jsom merge(String key, Object value, BiFunction<Jsom, Jsom, Object> function) {
+        return $(toMap().merge(key, valueOf(value),
+                (previous, given) -> valueOf(function.apply($(previous), $(given)))));
+    }
+
+    /**
+     * Atomically add delta to the number at key if this is a concurrent map.
+     * Absent and null entries count as 0. The result is stored as Long.
+     *
+     * @param key
+     * @param delta
+     * @return The new value
+     */
+    public long increment(String key, long delta) {
+        return (Long) toMap().merge(key, delta, (previous, given) -> longOf(previous) + (Long) given);
+    }
+
     /**
      * Throw NullPointerException if this value is null.
      *
@@ -488,7 +744,9 @@ public class Jsom {
      * @return
      */
     public Jsom set(int index, Object element) {
-        toList().set(index, valueOf(element));
+        Object unwrapped = valueOf(element);
+        indexRemoved(toList().set(index, unwrapped));
+        indexAdded(unwrapped);
         return this;
     }
 
@@ -521,6 +779,76 @@ public class Jsom {
         return this;
     }
 
+    /**
+     * Return a new list with the first of each group of equal elements, in
+     * order. Each element is hashed once.
+     *
+     * @return
+     */
+    public Jsom distinct() {
+        return $(new HashIndex(toList()).distinct());
+    }
+
+    /**
+     * Index the map elements of this list by the value at key.
+     *
+     * The index is kept up to date by the element mutators of this Jsom
+     * instance; see JsomIndex for details. There is at most one index per
+     * key: if key is indexed already, that index is rebuilt and returned.
+     *
+     * @see JsomIndex
+     * @see #dropIndex(String)
+     * @param key
+     * @return The index
+     */
+    public JsomIndex indexBy(String key) {
+        require(key, "Cannot index by null key");
+        if (indexes == null) {
+            indexes = new ArrayList<>(1);
+        }
+        for (JsomIndex index : indexes) {
+            if (index.key().equals(key)) {
+                return index.rebuild();
+            }
+        }
+        JsomIndex index = new JsomIndex(key, toList());
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Stop maintaining the index by key, if any. The dropped index keeps
+     * its contents but no longer sees mutations.
+     *
+     * @param key
+     * @return self
+     */
+    public Jsom dropIndex(String key) {
+        if (indexes != null) {
+            indexes.removeIf(index -> index.key().equals(key));
+            if (indexes.isEmpty()) {
+                indexes = null;
+            }
+        }
+        return this;
+    }
+
+    private void indexAdded(Object element) {
+        if (indexes != null) {
+            for (JsomIndex index : indexes) {
+                index.added(element);
+            }
+        }
+    }
+
+    private void indexRemoved(Object element) {
+        if (indexes != null) {
+            for (JsomIndex index : indexes) {
+                index.removed(element);
+            }
+        }
+    }
+
     /**
      * Return a sub list.
      *
@@ -561,6 +889,125 @@ public class Jsom {
         return $(Arrays.asList(toMap().values().toArray()));
     }
 
+    /**
+     * Return a deep copy of this value that can be modified by many threads.
+     *
+     * Maps are copied as by concurrentMap() and lists as by concurrentList().
+     *
+     * @return
+     */
+    public Jsom toConcurrent() {
+        return $(JsomCloner.toConcurrent(value));
+    }
+
+    /**
+     * Return an immutable deep copy of this value.
+     *
+     * Maps and lists of a frozen value are persistent: they cannot be
+     * modified, but with() and related methods derive new versions that share
+     * all unchanged parts. Frozen values can be read by any number of threads
+     * without synchronization. Frozen parts of this value are reused, so
+     * freezing a frozen value is free.
+     *
+     * @return
+     */
+    public Jsom freeze() {
+        return $(JsomCloner.freeze(value));
+    }
+
+    /**
+     * Encode this value into an off-heap tape and return a read-only view of
+     * it.
+     *
+     * The tape is a single direct buffer, so large long-lived documents
+     * stored this way add nothing for the garbage collector to trace. Maps,
+     * lists and scalars are decoded from the tape on access. Mutators throw
+     * UnsupportedOperationException; use materialize() to copy a part that
+     * needs to be modified. Tapes are limited to 2 GB and can be read by any
+     * number of threads.
+     *
+     * @return
+     * @throws ClassCastException If this value contains non-JSON types
+     */
+    public Jsom toTape() {
+        return $(JsomTape.encode(value));
+    }
+
+    /**
+     * Copy this value into maps and lists as created by map() and list(),
+     * e.g. to modify part of a tape or a memory-mapped file.
+     *
+     * @see #toTape()
+     * @see #mmap(Path)
+     * @return
+     */
+    public Jsom materialize() {
+        return deepClone(value);
+    }
+
+    /**
+     * @return Whether this is a frozen map or list
+     */
+    public boolean isFrozen() {
+        return JsomCloner.isFrozen(value);
+    }
+
+    /**
+     * Return a frozen version of this map with a key set to a value. This
+     * map remains unchanged. Costs O(log n) if this map is frozen; otherwise,
+     * it is frozen first.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public Jsom with(String key, Object value) {
+        return $(frozenMap().with(key, JsomCloner.freeze(value)));
+    }
+
+    /**
+     * Return a frozen version of this map without a key. This map remains
+     * unchanged.
+     *
+     * @param key
+     * @return
+     */
+    public Jsom without(String key) {
+        return $(frozenMap().without(key));
+    }
+
+    /**
+     * Return a frozen version of this list with an element replaced. This
+     * list remains unchanged. Costs O(log n) if this list is frozen;
+     * otherwise, it is frozen first.
+     *
+     * @param index
+     * @param element
+     * @return
+     */
+    public Jsom with(int index, Object element) {
+        return $(frozenList().with(index, JsomCloner.freeze(element)));
+    }
+
+    /**
+     * Return a frozen version of this list with an element appended. This
+     * list remains unchanged.
+     *
+     * @param element
+     * @return
+     */
+    public Jsom withAdded(Object element) {
+        return $(frozenList().withAdded(JsomCloner.freeze(element)));
+    }
+
+    private PersistentMap frozenMap() {
+        return (PersistentMap) JsomCloner.freeze(toMap());
+    }
+
+    private PersistentList frozenList() {
+        return (PersistentList) JsomCloner.freeze(toList());
+    }
+
     /**
      * Create an element stream.
      *
@@ -576,32 +1023,182 @@ public class Jsom {
      * @return
      */
     public Stream<Jsom> parallelStream() {
-        return toList().parallelStream().map(Jsom::$);
+        return rawParallelStream().map(Jsom::$);
+    }
+
+    /**
+     * Create a stream of the raw (unwrapped) elements.
+     *
+     * @return
+     */
+    public Stream<Object> rawStream() {
+        return toList().stream();
+    }
+
+    /**
+     * Create a parallel stream of the raw (unwrapped) elements. Splits evenly
+     * for all kinds of lists; lists without random access (e.g. LinkedList)
+     * are copied to an array first.
+     *
+     * @return
+     */
+    public Stream<Object> rawParallelStream() {
+        return StreamSupport.stream(IndexSpliterator.parallel(toList()), true);
+    }
+
+    /**
+     * Create a stream of the numeric elements as longs.
+     *
+     * @see #toLong()
+     * @return
+     */
+    public LongStream longs() {
+        if (value instanceof PrimitiveList) {
+            return ((PrimitiveList) value).longs();
+        }
+        return toList().stream().mapToLong(Jsom::longOf);
+    }
+
+    /**
+     * Create a stream of the numeric elements as ints.
+     *
+     * @see #toInt()
+     * @return
+     */
+    public IntStream ints() {
+        if (value instanceof PrimitiveList) {
+            return ((PrimitiveList) value).ints();
+        }
+        return toList().stream().mapToInt(Jsom::intOf);
+    }
+
+    /**
+     * Create a stream of the numeric elements as doubles.
+     *
+     * @see #toDouble()
+     * @return
+     */
+    public DoubleStream doubles() {
+        if (value instanceof PrimitiveList) {
+            return ((PrimitiveList) value).doubles();
+        }
+        return toList().stream().mapToDouble(Jsom::doubleOf);
+    }
+
+    /**
+     * Create a stream of the numeric values at key of each map element as
+     * longs, without creating Jsom instances. Missing values become 0.
+     *
+     * @see #toLong()
+     * @param key
+     * @return
+     */
+    public LongStream longs(String key) {
+        return toList().stream().mapToLong(element -> longOf(field(element, key)));
+    }
+
+    /**
+     * Create a stream of the numeric values at key of each map element as
+     * ints, without creating Jsom instances. Missing values become 0.
+     *
+     * @see #toInt()
+     * @param key
+     * @return
+     */
+    public IntStream ints(String key) {
+        return toList().stream().mapToInt(element -> intOf(field(element, key)));
+    }
+
+    /**
+     * Create a stream of the numeric values at key of each map element as
+     * doubles, without creating Jsom instances. Missing values become 0.
+     *
+     * @see #toDouble()
+     * @param key
+     * @return
+     */
+    public DoubleStream doubles(String key) {
+        return toList().stream().mapToDouble(element -> doubleOf(field(element, key)));
+    }
+
+    /**
+     * Return the values at key of each map element.
+     *
+     * For lists created by columnar(), this is a live view of the stored
+     * column whose primitive streams (longs() etc.) read the column array
+     * directly. For other lists, it is a new list. Missing values are null.
+     *
+     * @see #columnar(Object)
+     * @param key
+     * @return
+     */
+    public Jsom column(String key) {
+        if (value instanceof ColumnarList) {
+            return $(((ColumnarList) value).column(key));
+        }
+        List<Object> list = toList();
+        List<Object> column = new CompactList(list.size());
+        for (Object element : list) {
+            column.add(field(element, key));
+        }
+        return $(column);
     }
 
     /**
-     * Create a stream of map entries.
+     * Create a stream of map entries. Values are wrapped on first access;
+     * setValue() writes through to this map.
      *
      * @return
      */
     public Stream<Entry<String, Jsom>> entryStream() {
-        return toMap().entrySet().stream().map(e -> new SimpleEntry<>(e.getKey(), $(e.getValue())));
+        return rawEntryStream().map(LazyEntry::new);
     }
 
     /**
-     * Create a parallel stream of map entries.
+     * Create a parallel stream of map entries. Values are wrapped on first
+     * access; setValue() writes through to this map.
      *
      * @return
      */
     public Stream<Entry<String, Jsom>> parallelEntryStream() {
-        return toMap().entrySet().parallelStream().map(e -> new SimpleEntry<>(e.getKey(), $(e.getValue())));
+        return rawParallelEntryStream().map(LazyEntry::new);
+    }
+
+    /**
+     * Create a stream of the raw map entries.
+     *
+     * @return
+     */
+    public Stream<Entry<String, Object>> rawEntryStream() {
+        return toMap().entrySet().stream();
+    }
+
+    /**
+     * Create a parallel stream of the raw map entries. Entries of maps whose
+     * entry sets do not split evenly are copied to an array first.
+     *
+     * @return
+     */
+    public Stream<Entry<String, Object>> rawParallelEntryStream() {
+        return StreamSupport.stream(IndexSpliterator.parallel(toMap().entrySet()), true);
     }
 
+    /**
+     * Minimum number of element pairs for which containsAll() builds a hash
+     * index.
+     */
+    private static final int HASH_INDEX_THRESHOLD = 256;
+
     /**
      * The wrapped value.
      */
     protected final Object value;
 
+    /**
+     * Indexes maintained by the element mutators.
+     */
+    private List<JsomIndex> indexes;
+
     /**
      * Create a new Jsom instance from any value.
      *
@@ -613,51 +1210,321 @@ public class Jsom {
     }
 
     /**
-     * Create a new Map (HashMap).
+     * Create a new Map.
+     *
+     * The map behaves like a LinkedHashMap but shares its key layout with
+     * other maps that received the same keys in the same order, which makes
+     * small objects and uniform records much cheaper.
      *
      * @return
      */
     public static Jsom map() {
-        return $(new HashMap<>());
+        return $(new CompactMap());
     }
 
     /**
-     * Create a new List (ArrayList).
+     * Create a new List.
+     *
+     * The list behaves like an ArrayList but keeps elements in a primitive
+     * array while they are all Integers, all Longs or all Doubles.
      *
      * @param elements Initial elements
      * @return
      */
     public static Jsom list(Object... elements) {
         // manual copying here because of value unwrapping
-        Jsom list = $(new ArrayList<>(elements.length));
+        Jsom list = $(new CompactList(elements.length));
         for (Object element : elements) {
             list.add(element);
         }
         return list;
     }
 
+    /**
+     * Create a new thread-safe Map.
+     *
+     * The map is backed by a ConcurrentHashMap but accepts null values.
+     * compute(), merge(), increment() and all other single-key operations
+     * are atomic.
+     *
+     * @return
+     */
+    public static Jsom concurrentMap() {
+        return $(new ConcurrentJsonMap());
+    }
+
+    /**
+     * Create a new thread-safe List.
+     *
+     * The list is a CopyOnWriteArrayList: reads and iteration never block,
+     * while every modification copies the list. Best suited for lists that
+     * are read far more often than modified.
+     *
+     * @param elements Initial elements
+     * @return
+     */
+    public static Jsom concurrentList(Object... elements) {
+        Object[] values = new Object[elements.length];
+        for (int i = 0; i < elements.length; ++i) {
+            values[i] = valueOf(elements[i]);
+        }
+        return $(new CopyOnWriteArrayList<>(values));
+    }
+
+    /**
+     * Copy a list of maps into columnar storage.
+     *
+     * Each key is stored as a column, in a primitive array if all its values
+     * are Integers, Longs, Doubles or Booleans. The result is a list of map
+     * views that supports the usual list and map operations, while column()
+     * scans are much faster than iterating the maps. Nested values are
+     * shared, not copied. Rows list their keys in column order, so a row
+     * whose keys are ordered differently than in earlier rows does not keep
+     * its own key order.
+     *
+     * @see #column(String)
+     * @param list A list of maps
+     * @return
+     */
+    public static Jsom columnar(Object list) {
+        return $(new ColumnarList($(list).toList()));
+    }
+
+    /**
+     * Parse a JSON text.
+     *
+     * Objects become Maps (as created by map()), arrays become Lists (as
+     * created by list()), integral numbers become Integer, Long or
+     * BigInteger, other numbers become Double.
+     *
+     * @param json
+     * @return
+     * @throws IllegalArgumentException If the input is not valid JSON
+     */
+    public static Jsom parse(CharSequence json) {
+        return $(JsomParser.parse(json));
+    }
+
+    /**
+     * Parse a JSON text from a reader. The reader is not closed.
+     *
+     * @see #parse(CharSequence)
+     * @param reader
+     * @return
+     * @throws IllegalArgumentException If the input is not valid JSON
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Jsom parse(Reader reader) {
+        return $(JsomParser.parse(reader));
+    }
+
+    /**
+     * Parse only the selected parts of a JSON text.
+     *
+     * Unselected values are skipped without building them; they are only
+     * checked for closed strings and balanced brackets. Maps keep the
+     * selected keys, lists keep their length with null in place of
+     * unselected elements, so the selected pointers resolve in the result as
+     * they would in the full document.
+     *
+     * <pre>
+     * Jsom order = parse(json, select("/id", "/items/*&#47;price"));
+     * </pre>
+     *
+     * @see #parse(CharSequence)
+     * @see #select(String...)
+     * @param json
+     * @param selection
+     * @return The sparse value, null if the root is not selected
+     * @throws IllegalArgumentException If the input is not valid JSON
+     */
+    public static Jsom parse(CharSequence json, JsomSelection selection) {
+        return $(JsomParser.parse(json, selection));
+    }
+
+    /**
+     * Parse only the selected parts of a JSON text from a reader. The reader
+     * is not closed.
+     *
+     * @see #parse(CharSequence, JsomSelection)
+     * @param reader
+     * @param selection
+     * @return
+     * @throws IllegalArgumentException If the input is not valid JSON
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Jsom parse(Reader reader, JsomSelection selection) {
+        return $(JsomParser.parse(reader, selection));
+    }
+
+    /**
+     * Compile JSON Pointers into a selection for parsing. A "*" token
+     * matches every key and index.
+     *
+     * @see JsomSelection#compile(String...)
+     * @param pointers
+     * @return
+     */
+    public static JsomSelection select(String... pointers) {
+        return JsomSelection.compile(pointers);
+    }
+
+    /**
+     * Parse a UTF-8 encoded JSON text.
+     *
+     * The bytes are not decoded to chars first: a first pass finds quotes,
+     * escapes and structural characters eight bytes at a time, and a second
+     * pass builds the value from the positions found. Error offsets are byte
+     * offsets.
+     *
+     * @see #parse(CharSequence)
+     * @param utf8
+     * @return
+     * @throws IllegalArgumentException If the input is not valid JSON
+     */
+    public static Jsom parse(byte[] utf8) {
+        return $(JsomByteParser.parse(utf8));
+    }
+
+    /**
+     * Parse a UTF-8 encoded JSON text from a stream. The stream is not
+     * closed.
+     *
+     * @see #parse(CharSequence)
+     * @param in
+     * @return
+     * @throws IllegalArgumentException If the input is not valid JSON
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Jsom parse(InputStream in) {
+        return parse(new InputStreamReader(require(in, "Cannot parse null"), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lazily stream the records of a newline delimited JSON file (NDJSON,
+     * JSON Lines), parsing one line at a time. Blank lines are skipped.
+     *
+     * Parallel streams split the file into chunks on newline boundaries
+     * and parse them on the fork/join pool. The stream must be closed to
+     * close the file, e.g. with try-with-resources.
+     *
+     * @param path
+     * @return
+     * @throws IllegalArgumentException If a line is malformed
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Stream<Jsom> lines(Path path) {
+        return JsomLines.lines(path);
+    }
+
+    /**
+     * Lazily stream the records of UTF-8 encoded newline delimited JSON,
+     * parsing one line at a time. Blank lines are skipped. The input is read
+     * sequentially and not closed.
+     *
+     * @param in
+     * @return
+     * @throws IllegalArgumentException If a line is malformed
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Stream<Jsom> lines(InputStream in) {
+        return JsomLines.lines(in);
+    }
+
+    /**
+     * Memory-map a JSON file and view it lazily.
+     *
+     * Maps and lists are indexed and materialized level by level when they
+     * are first reached, so startup time and heap stay proportional to the
+     * parts that are read, even for files of many gigabytes. The result is
+     * read-only: mutators throw UnsupportedOperationException. It can be
+     * read by any number of threads. Use deepClone() to copy parts into
+     * regular maps and lists. The file must not be modified while the view
+     * is in use.
+     *
+     * @param path
+     * @return
+     * @throws IllegalArgumentException If a part that is reached is not
+     * valid JSON
+     * @throws java.io.UncheckedIOException If mapping fails
+     */
+    public static Jsom mmap(Path path) {
+        return $(JsomMapped.map(path));
+    }
+
+    /**
+     * Read one CBOR (RFC 8949) data item.
+     *
+     * Maps and lists are created as by map() and list(). Integer, Long,
+     * Double, BigInteger and BigDecimal values written by writeCbor() are
+     * read back with their types. If the stream supports mark and reset, it
+     * is left right after the item, so several items can be read in turn.
+     *
+     * @param in
+     * @return
+     * @throws IllegalArgumentException If the input is malformed
+     * @throws java.io.UncheckedIOException If reading fails
+     */
+    public static Jsom readCbor(InputStream in) {
+        return $(JsomCbor.read(in));
+    }
+
+    /**
+     * Read a CBOR data item spanning the whole array.
+     *
+     * @param cbor
+     * @return
+     * @throws IllegalArgumentException If the input is malformed
+     */
+    public static Jsom readCbor(byte[] cbor) {
+        return $(JsomCbor.read(cbor));
+    }
+
     /**
      * Deep clones an arbitrary value (Jsom or otherwise) as a new Jsom
      * instance.
      *
      * Only Maps and Lists are actually copied. Object arrays are transformed
-     * into ArrayList.
+     * into Lists. Cloning is iterative, so arbitrarily deep values can be
+     * cloned; large lists are cloned in parallel.
      *
      * @param value
      * @return
      */
     public static Jsom deepClone(Object value) {
-        value = valueOf(value);
-        if (value instanceof Object[]) {
-            value = Arrays.asList((Object[]) value);
-        }
-        Jsom json = $(value);
-        if (json.isList()) {
-            return $(json.stream().map(Jsom::deepClone).collect(TO_LIST));
-        } else if (json.isMap()) {
-            return $(json.entryStream().map(Jsom::deepCloneEntry).collect(TO_MAP));
-        }
-        return json;
+        return $(JsomCloner.deepClone(value));
+    }
+
+    /**
+     * Lazily clones an arbitrary value (Jsom or otherwise) as a new Jsom
+     * instance.
+     *
+     * Maps and Lists are copied level by level when they are first modified
+     * or descended into, so parts of the clone that are never touched stay
+     * shared with the original. Useful to fill in a copy of a large template.
+     * The original must not be modified while the clone is in use.
+     *
+     * @param value
+     * @return
+     */
+    public static Jsom lazyClone(Object value) {
+        return $(JsomCloner.lazyClone(value));
+    }
+
+    /**
+     * Compute a JSON Patch (RFC 6902) that turns source into target.
+     *
+     * Subtrees shared by reference are skipped, so diffing frozen versions
+     * derived from each other costs in proportion to the change. Lists are
+     * aligned by longest common subsequence.
+     *
+     * @see #applyPatch(Object)
+     * @param source
+     * @param target
+     * @return A list of operations; values refer to parts of target
+     */
+    public static Jsom diff(Object source, Object target) {
+        return $(JsomDiff.diff(source, target));
     }
 
     /**
@@ -705,6 +1572,71 @@ public class Jsom {
         return value instanceof Jsom ? ((Jsom) value).value : value;
     }
 
+    /**
+     * Convert a Number (or null, to 0) to long without boxing.
+     *
+     * @see Number#longValue()
+     * @param value
+     * @return
+     */
+    public static long longOf(Object value) {
+        value = valueOf(value);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        requireNumberOrNull(value);
+        return 0;
+    }
+
+    /**
+     * Convert a Number (or null, to 0) to int without boxing.
+     *
+     * @see Number#intValue()
+     * @param value
+     * @return
+     */
+    public static int intOf(Object value) {
+        value = valueOf(value);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        requireNumberOrNull(value);
+        return 0;
+    }
+
+    /**
+     * Convert a Number (or null, to 0) to double without boxing.
+     *
+     * @see Number#doubleValue()
+     * @param value
+     * @return
+     */
+    public static double doubleOf(Object value) {
+        value = valueOf(value);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        requireNumberOrNull(value);
+        return 0;
+    }
+
+    private static void requireNumberOrNull(Object value) {
+        if (value != null) {
+            throw new ClassCastException("Cannot cast " + typeOf(value) + " to number");
+        }
+    }
+
+    /**
+     * Get the value at key of a map element.
+     *
+     * @param element
+     * @param key
+     * @return
+     */
+    static Object field(Object element, String key) {
+        return ((Map<?, ?>) require(element, "Cannot get " + key + " of null")).get(key);
+    }
+
     /**
      * Throw a custom NullPointerException if the specified value is null.
      *
@@ -732,17 +1664,26 @@ public class Jsom {
     }
 
     /**
-     * A collector that generates Maps (HashMap) from entry streams.
+     * A collector that generates Maps (as created by map()) from entry streams.
+     *
+     * @see JsomCollectors#toMap()
      */
     public final static Collector<Entry<String, Object>, ?, Jsom> TO_MAP
-            = new MapCollector();
+            = JsomCollectors.toMap();
 
     /**
-     * A collector that generates Lists (ArrayList) from object streams.
+     * A collector that generates Lists (as created by list()) from object streams.
+     *
+     * @see JsomCollectors#toList()
      */
     public final static Collector<Object, ?, Jsom> TO_LIST
-            = new ListCollector();
+            = JsomCollectors.toList();
 
+    /**
+     * @deprecated Accumulates through Jsom instances; use
+     *             JsomCollectors.toMap() instead.
+     */
+    @Deprecated
     protected static class MapCollector implements Collector<Entry<String, Object>, Jsom, Jsom> {
 
         @Override
@@ -775,6 +1716,11 @@ public class Jsom {
 
     }
 
+    /**
+     * @deprecated Accumulates through Jsom instances; use
+     *             JsomCollectors.toList() instead.
+     */
+    @Deprecated
     protected static class ListCollector implements Collector<Object, Jsom, Jsom> {
 
         @Override
@@ -0,0 +1,437 @@
+package de.md.jsom;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-stage parser for UTF-8 JSON text in a byte array.
+ *
+ * The first stage (JsomScanner) finds all structural positions word by
+ * word. This second stage walks those positions instead of the bytes,
+ * validating the grammar and building the same structures as JsomParser:
+ * CompactMaps, CompactLists, the smallest of Integer, Long and BigInteger
+ * for integral numbers, and Doubles. Strings without escapes are decoded in
+ * one piece. Parsing is iterative.
+ *
+ * Malformed input results in an IllegalArgumentException with a byte
+ * offset.
+ *
+ * @see JsomScanner
+ */
+final class JsomByteParser {
+
+    /**
+     * Parse a complete JSON text.
+     *
+     * @param input
+     * @return The parsed value
+     */
+    static Object parse(byte[] input) {
+        Jsom.require(input, "Cannot parse null");
+        return new JsomByteParser(input, new JsomScanner(input, 0, input.length)).parseDocument();
+    }
+
+    private JsomByteParser(byte[] input, JsomScanner scanner) {
+        this.input = input;
+        this.scanner = scanner;
+        this.positions = scanner.positions();
+    }
+
+    private Object parseDocument() {
+        Object value = parseValue();
+        if (token < size || refill()) {
+            throw unexpected(positions[token]);
+        }
+        return value;
+    }
+
+    /**
+     * Parse a value iteratively, keeping open containers on an explicit stack.
+     *
+     * @return
+     */
+    private Object parseValue() {
+        Object[] containers = new Object[16];
+        String[] keys = new String[16];
+        int depth = 0;
+
+        while (true) {
+            Object value;
+            int position = next();
+            switch (input[position]) {
+                case '{':
+                    Map<String, Object> map = new CompactMap();
+                    if (peek() == '}') {
+                        ++token;
+                        value = map;
+                        break;
+                    }
+                    if (depth == containers.length) {
+                        containers = Arrays.copyOf(containers, depth * 2);
+                        keys = Arrays.copyOf(keys, depth * 2);
+                    }
+                    containers[depth] = map;
+                    keys[depth++] = readKey();
+                    continue;
+                case '[':
+                    List<Object> list = new CompactList();
+                    if (peek() == ']') {
+                        ++token;
+                        value = list;
+                        break;
+                    }
+                    if (depth == containers.length) {
+                        containers = Arrays.copyOf(containers, depth * 2);
+                        keys = Arrays.copyOf(keys, depth * 2);
+                    }
+                    containers[depth++] = list;
+                    continue;
+                case '"':
+                    value = readString(position, false);
+                    break;
+                case 't':
+                    value = readLiteral(position, TRUE, Boolean.TRUE);
+                    break;
+                case 'f':
+                    value = readLiteral(position, FALSE, Boolean.FALSE);
+                    break;
+                case 'n':
+                    value = readLiteral(position, NULL, null);
+                    break;
+                default:
+                    value = readNumber(position);
+                    break;
+            }
+
+            // attach completed values to their containers, closing as needed
+            while (true) {
+                if (depth == 0) {
+                    return value;
+                }
+                Object container = containers[depth - 1];
+                boolean isMap = container instanceof Map;
+                if (isMap) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) container;
+                    map.put(keys[depth - 1], value);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Object> list = (List<Object>) container;
+                    list.add(value);
+                }
+                position = next();
+                byte c = input[position];
+                if (c == ',') {
+                    if (isMap) {
+                        keys[depth - 1] = readKey();
+                    }
+                    break;
+                } else if (c == (isMap ? '}' : ']')) {
+                    value = container;
+                    containers[--depth] = null;
+                } else {
+                    throw unexpected(position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an object key including the following colon.
+     *
+     * @return
+     */
+    private String readKey() {
+        int position = next();
+        if (input[position] != '"') {
+            throw unexpected(position);
+        }
+        String key = readString(position, true);
+        position = next();
+        if (input[position] != ':') {
+            throw unexpected(position);
+        }
+        return key;
+    }
+
+    /**
+     * Read a string from its opening quote. The next position is the
+     * closing quote unless the string has escapes or control characters.
+     * Short keys without escapes are cached.
+     *
+     * @param open
+     * @param key
+     * @return
+     */
+    private String readString(int open, boolean key) {
+        int close = next();
+        if (input[close] != '"') {
+            int escape = close;
+            while (input[close] != '"') {
+                close = next();
+            }
+            return readEscaped(open + 1, escape, close);
+        }
+        int length = close - open - 1;
+        if (!key || length > MAX_CACHED_KEY) {
+            return new String(input, open + 1, length, StandardCharsets.UTF_8);
+        }
+        int hash = length;
+        for (int i = open + 1; i < close; ++i) {
+            hash = 31 * hash + input[i];
+        }
+        int slot = (hash ^ hash >>> 16) & (KEY_CACHE_SIZE - 1);
+        byte[] bytes = keyBytes[slot];
+        if (bytes != null && bytes.length == length) {
+            int i = 0;
+            while (i < length && bytes[i] == input[open + 1 + i]) {
+                ++i;
+            }
+            if (i == length) {
+                return keys[slot];
+            }
+        }
+        keyBytes[slot] = Arrays.copyOfRange(input, open + 1, close);
+        keys[slot] = new String(input, open + 1, length, StandardCharsets.UTF_8);
+        return keys[slot];
+    }
+
+    /**
+     * Read a string with escapes, decoding the unescaped runs in one piece.
+     *
+     * @param start
+     * @param escape The first backslash or control character
+     * @param close
+     * @return
+     */
+    private String readEscaped(int start, int escape, int close) {
+        StringBuilder builder = new StringBuilder(close - start);
+        int run = start;
+        int i = escape;
+        while (i < close) {
+            byte b = input[i];
+            if (b >= 0 && b < 0x20) {
+                throw unexpected(i);
+            } else if (b != '\\') {
+                ++i;
+                continue;
+            }
+            builder.append(new String(input, run, i - run, StandardCharsets.UTF_8));
+            byte c = input[++i];
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append((char) c);
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    int code = 0;
+                    for (int k = 1; k <= 4; ++k) {
+                        int digit = i + k < close ? hex(input[i + k]) : -1;
+                        if (digit < 0) {
+                            throw unexpected(i + k);
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    builder.append((char) code);
+                    i += 4;
+                    break;
+                default:
+                    throw unexpected(i);
+            }
+            run = ++i;
+        }
+        builder.append(new String(input, run, close - run, StandardCharsets.UTF_8));
+        return builder.toString();
+    }
+
+    private Object readLiteral(int position, byte[] literal, Object value) {
+        for (int i = 0; i < literal.length; ++i) {
+            if (position + i == input.length || input[position + i] != literal[i]) {
+                throw unexpected(position + i);
+            }
+        }
+        expectEnd(position + literal.length);
+        return value;
+    }
+
+    /**
+     * Read a number. Integers with up to 18 digits are accumulated directly,
+     * everything else is parsed from its text.
+     *
+     * @param start
+     * @return
+     */
+    private Number readNumber(int start) {
+        int position = start;
+        boolean negative = byteAt(position) == '-';
+        if (negative) {
+            ++position;
+        }
+
+        long accumulator = 0;
+        int digits = 0;
+        int c = byteAt(position);
+        if (c == '0') {
+            ++position;
+            digits = 1;
+        } else {
+            while (c >= '0' && c <= '9') {
+                accumulator = accumulator * 10 + (c - '0');
+                ++digits;
+                c = byteAt(++position);
+            }
+        }
+        if (digits == 0) {
+            throw unexpected(position);
+        }
+
+        c = byteAt(position);
+        boolean integral = true;
+        if (c == '.') {
+            integral = false;
+            position = readDigits(position + 1);
+            c = byteAt(position);
+        }
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            c = byteAt(++position);
+            if (c == '+' || c == '-') {
+                ++position;
+            }
+            position = readDigits(position);
+        }
+        expectEnd(position);
+
+        if (!integral) {
+            return Double.parseDouble(new String(input, start, position - start, StandardCharsets.ISO_8859_1));
+        } else if (digits <= 18) {
+            return JsomParser.narrow(negative ? -accumulator : accumulator);
+        } else {
+            return JsomParser.narrow(new BigInteger(
+                    new String(input, start, position - start, StandardCharsets.ISO_8859_1)));
+        }
+    }
+
+    /**
+     * @param position
+     * @return The position after at least one digit
+     */
+    private int readDigits(int position) {
+        int c = byteAt(position);
+        if (c < '0' || c > '9') {
+            throw unexpected(position);
+        }
+        do {
+            c = byteAt(++position);
+        } while (c >= '0' && c <= '9');
+        return position;
+    }
+
+    /**
+     * Check that only whitespace follows a scalar up to the next structural
+     * position.
+     *
+     * @param position
+     */
+    private void expectEnd(int position) {
+        int end = token < size || refill() ? positions[token] : input.length;
+        for (; position < end; ++position) {
+            byte c = input[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                throw unexpected(position);
+            }
+        }
+    }
+
+    /**
+     * @return The next structural position
+     */
+    private int next() {
+        if (token == size && !refill()) {
+            throw unexpected(input.length);
+        }
+        return positions[token++];
+    }
+
+    /**
+     * @return The byte at the next structural position, or 0
+     */
+    private byte peek() {
+        return token < size || refill() ? input[positions[token]] : 0;
+    }
+
+    /**
+     * Let the scanner replace the consumed positions with the next chunk.
+     *
+     * @return False if the end of input has been reached
+     */
+    private boolean refill() {
+        token = 0;
+        size = scanner.scan() ? scanner.size() : 0;
+        return size > 0;
+    }
+
+    private int byteAt(int position) {
+        return position < input.length ? input[position] : 0;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Create an exception for the byte at a position.
+     *
+     * @param position
+     * @return
+     */
+    private IllegalArgumentException unexpected(int position) {
+        if (position < input.length) {
+            return new IllegalArgumentException("Unexpected character '" + (char) (input[position] & 0xff)
+                    + "' at offset " + position);
+        }
+        return new IllegalArgumentException("Unexpected end of input at offset " + position);
+    }
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final int KEY_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_KEY = 32;
+
+    private final byte[] input;
+    private final JsomScanner scanner;
+    private final int[] positions;
+    private int size;
+    private int token;
+    private final byte[][] keyBytes = new byte[KEY_CACHE_SIZE][];
+    private final String[] keys = new String[KEY_CACHE_SIZE];
+
+}
@@ -0,0 +1,823 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * CBOR (RFC 8949) encoder and decoder working directly on the raw
+ * structures.
+ *
+ * Numbers keep their types: Integer is written with the shortest argument
+ * of at most four bytes, Long always with an eight byte argument, Double as
+ * a double precision float, BigInteger as a bignum (tags 2 and 3) and
+ * BigDecimal as a decimal fraction (tag 4). Reading maps these back to the
+ * same types, and uint32 values outside the int range to Long.
+ *
+ * Optionally, repeated strings (most of all map keys) are written once and
+ * referenced by index afterwards, as defined by the stringref extension
+ * (tags 256 and 25). As the extension requires, the byte strings of bignum
+ * magnitudes count towards the string indices, and repeated ones are
+ * referenced too. Decoding supports references in namespaces at the top
+ * level only.
+ *
+ * Both directions stream through a byte buffer and walk containers
+ * iteratively. Malformed input results in an IllegalArgumentException, I/O
+ * errors in an UncheckedIOException.
+ */
+final class JsomCbor {
+
+    /**
+     * Write a value as CBOR. The stream is neither flushed nor closed.
+     *
+     * @param value
+     * @param out
+     * @param stringRefs Whether to reference repeated strings
+     */
+    static void write(Object value, OutputStream out, boolean stringRefs) {
+        Encoder encoder = new Encoder(Jsom.require(out, "Cannot write to null"), stringRefs);
+        encoder.writeValue(value);
+        encoder.flush();
+    }
+
+    /**
+     * Read one CBOR data item. If the stream supports mark and reset, it is
+     * left right after the item; otherwise, bytes after the item may have
+     * been consumed.
+     *
+     * @param in
+     * @return
+     */
+    static Object read(InputStream in) {
+        return new Decoder(Jsom.require(in, "Cannot read from null"), new byte[BUFFER_SIZE], 0).readDocument();
+    }
+
+    /**
+     * Read one CBOR data item spanning the whole array.
+     *
+     * @param bytes
+     * @return
+     */
+    static Object read(byte[] bytes) {
+        Decoder decoder = new Decoder(null, Jsom.require(bytes, "Cannot read from null"), bytes.length);
+        Object value = decoder.readDocument();
+        if (decoder.position < bytes.length) {
+            throw decoder.malformed("Trailing bytes");
+        }
+        return value;
+    }
+
+    /**
+     * Minimum UTF-8 length of a string to be registered for references,
+     * given the number of strings registered so far, so that a reference is
+     * always shorter than the string.
+     */
+    private static int minRefLength(int count) {
+        return count < 24 ? 3 : count < 256 ? 4 : count < 65536 ? 5 : 7;
+    }
+
+    private static final class Encoder {
+
+        Encoder(OutputStream out, boolean stringRefs) {
+            this.out = out;
+            this.refs = stringRefs ? new HashMap<>() : null;
+        }
+
+        /**
+         * Write any value, walking containers with an explicit stack of
+         * iterators.
+         */
+        void writeValue(Object root) {
+            if (refs != null) {
+                writeHead(MAJOR_TAG, TAG_STRINGREF_NAMESPACE);
+            }
+            Object value = root;
+            while (true) {
+                value = Jsom.valueOf(value);
+                if (value instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) value;
+                    writeHead(MAJOR_MAP, map.size());
+                    if (!map.isEmpty()) {
+                        value = push(map.entrySet().iterator(), true);
+                        continue;
+                    }
+                } else if (value instanceof List) {
+                    List<?> list = (List<?>) value;
+                    writeHead(MAJOR_LIST, list.size());
+                    if (!list.isEmpty()) {
+                        value = push(list.iterator(), false);
+                        continue;
+                    }
+                } else {
+                    writeLeaf(value);
+                }
+
+                while (depth > 0 && !iterators[depth - 1].hasNext()) {
+                    iterators[--depth] = null;
+                }
+                if (depth == 0) {
+                    return;
+                }
+                value = next();
+            }
+        }
+
+        private Object push(Iterator<?> iterator, boolean map) {
+            if (depth == iterators.length) {
+                iterators = Arrays.copyOf(iterators, depth * 2);
+                maps = Arrays.copyOf(maps, depth * 2);
+            }
+            iterators[depth] = iterator;
+            maps[depth++] = map;
+            return next();
+        }
+
+        /**
+         * Advance the innermost iterator, writing the key for map entries.
+         *
+         * @return The next value to write
+         */
+        private Object next() {
+            Object next = iterators[depth - 1].next();
+            if (!maps[depth - 1]) {
+                return next;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) next;
+            writeString(String.valueOf(entry.getKey()));
+            return entry.getValue();
+        }
+
+        private void writeLeaf(Object value) {
+            if (value == null) {
+                writeByte(SIMPLE_NULL);
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? SIMPLE_TRUE : SIMPLE_FALSE);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                int i = ((Number) value).intValue();
+                writeHead(i < 0 ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, i < 0 ? -1L - i : i);
+            } else if (value instanceof Long) {
+                long l = (Long) value;
+                writeLongHead(l < 0 ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, l < 0 ? -1 - l : l);
+            } else if (value instanceof Double) {
+                writeByte(FLOAT_64);
+                writeBits(Double.doubleToLongBits((Double) value), 8);
+            } else if (value instanceof Float) {
+                writeByte(FLOAT_32);
+                writeBits(Float.floatToIntBits((Float) value), 4);
+            } else if (value instanceof BigInteger) {
+                writeBignum((BigInteger) value);
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) value;
+                writeHead(MAJOR_TAG, TAG_DECIMAL_FRACTION);
+                writeHead(MAJOR_LIST, 2);
+                int exponent = -decimal.scale();
+                writeHead(exponent < 0 ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, exponent < 0 ? -1L - exponent : exponent);
+                writeInteger(decimal.unscaledValue());
+            } else {
+                throw new ClassCastException("Cannot write " + Jsom.typeOf(value) + " as CBOR");
+            }
+        }
+
+        /**
+         * Write an integer with the shortest argument, or as a bignum.
+         */
+        private void writeInteger(BigInteger value) {
+            if (value.bitLength() < Long.SIZE) {
+                long l = value.longValue();
+                writeHead(l < 0 ? MAJOR_NEGATIVE : MAJOR_UNSIGNED, l < 0 ? -1 - l : l);
+            } else {
+                writeBignum(value);
+            }
+        }
+
+        private void writeBignum(BigInteger value) {
+            boolean negative = value.signum() < 0;
+            byte[] magnitude = (negative ? BigInteger.ONE.negate().subtract(value) : value).toByteArray();
+            int offset = magnitude[0] == 0 ? 1 : 0;
+            int length = magnitude.length - offset;
+            writeHead(MAJOR_TAG, negative ? TAG_NEGATIVE_BIGNUM : TAG_POSITIVE_BIGNUM);
+            if (refs != null) {
+                // byte strings share the table with text strings
+                ByteBuffer bytes = ByteBuffer.wrap(magnitude, offset, length);
+                Integer index = refs.get(bytes);
+                if (index != null) {
+                    writeHead(MAJOR_TAG, TAG_STRINGREF);
+                    writeHead(MAJOR_UNSIGNED, index);
+                    return;
+                } else if (length >= minRefLength(refs.size())) {
+                    refs.put(bytes, refs.size());
+                }
+            }
+            writeHead(MAJOR_BYTES, length);
+            for (int i = offset; i < magnitude.length; ++i) {
+                writeByte(magnitude[i]);
+            }
+        }
+
+        /**
+         * Write a string, or a reference to an equal string written before.
+         */
+        private void writeString(String string) {
+            if (refs != null) {
+                Integer index = refs.get(string);
+                if (index != null) {
+                    writeHead(MAJOR_TAG, TAG_STRINGREF);
+                    writeHead(MAJOR_UNSIGNED, index);
+                    return;
+                }
+            }
+            int length = string.length();
+            int encoded = length;
+            for (int i = 0; i < length; ++i) {
+                char c = string.charAt(i);
+                if (c < 0x80) {
+                    continue;
+                } else if (c < 0x800) {
+                    encoded += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    // four bytes for two chars
+                    encoded += 2;
+                    ++i;
+                } else {
+                    encoded += 2;
+                }
+            }
+            writeHead(MAJOR_STRING, encoded);
+            for (int i = 0; i < length; ++i) {
+                if (position + 4 > buffer.length) {
+                    flush();
+                }
+                char c = string.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xc0 | c >> 6);
+                    buffer[position++] = (byte) (0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int code = Character.toCodePoint(c, string.charAt(++i));
+                    buffer[position++] = (byte) (0xf0 | code >> 18);
+                    buffer[position++] = (byte) (0x80 | code >> 12 & 0x3f);
+                    buffer[position++] = (byte) (0x80 | code >> 6 & 0x3f);
+                    buffer[position++] = (byte) (0x80 | code & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    // lone surrogates become replacement characters
+                    buffer[position++] = (byte) 0xef;
+                    buffer[position++] = (byte) 0xbf;
+                    buffer[position++] = (byte) 0xbd;
+                } else {
+                    buffer[position++] = (byte) (0xe0 | c >> 12);
+                    buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    buffer[position++] = (byte) (0x80 | c & 0x3f);
+                }
+            }
+            if (refs != null && encoded >= minRefLength(refs.size())) {
+                refs.put(string, refs.size());
+            }
+        }
+
+        /**
+         * Write an initial byte with the shortest argument.
+         */
+        private void writeHead(int major, long argument) {
+            if (argument < 24) {
+                writeByte(major << 5 | (int) argument);
+            } else if (argument < 0x100) {
+                writeByte(major << 5 | 24);
+                writeBits(argument, 1);
+            } else if (argument < 0x10000) {
+                writeByte(major << 5 | 25);
+                writeBits(argument, 2);
+            } else if (argument < 0x100000000L) {
+                writeByte(major << 5 | 26);
+                writeBits(argument, 4);
+            } else {
+                writeLongHead(major, argument);
+            }
+        }
+
+        /**
+         * Write an initial byte with an eight byte argument.
+         */
+        private void writeLongHead(int major, long argument) {
+            writeByte(major << 5 | 27);
+            writeBits(argument, 8);
+        }
+
+        private void writeBits(long bits, int bytes) {
+            if (position + bytes > buffer.length) {
+                flush();
+            }
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void writeByte(int b) {
+            if (position == buffer.length) {
+                flush();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        void flush() {
+            try {
+                out.write(buffer, 0, position);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            position = 0;
+        }
+
+        private final OutputStream out;
+        /**
+         * Indices of referenced Strings, and of byte strings as ByteBuffers.
+         */
+        private final Map<Object, Integer> refs;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private Iterator<?>[] iterators = new Iterator<?>[16];
+        private boolean[] maps = new boolean[16];
+        private int depth;
+
+    }
+
+    private static final class Decoder {
+
+        Decoder(InputStream in, byte[] buffer, int limit) {
+            this.in = in;
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            if (marked) {
+                try {
+                    in.reset();
+                    long skip = position - markedAt;
+                    while (skip > 0) {
+                        skip -= in.skip(skip);
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Read a value iteratively, keeping open containers on an explicit
+         * stack.
+         */
+        private Object readValue() {
+            Object[] containers = new Object[16];
+            String[] keys = new String[16];
+            long[] remaining = new long[16];
+            int depth = 0;
+
+            while (true) {
+                Object value;
+                if (depth > 0 && remaining[depth - 1] < 0 && peek() == BREAK) {
+                    ++position;
+                    value = containers[--depth];
+                    containers[depth] = null;
+                } else {
+                    if (depth > 0 && containers[depth - 1] instanceof Map) {
+                        keys[depth - 1] = readKey();
+                    }
+                    int initial = read();
+                    long tag = -1;
+                    while (initial >>> 5 == MAJOR_TAG) {
+                        tag = readArgument(initial & 0x1f);
+                        if (tag == TAG_STRINGREF_NAMESPACE) {
+                            if (depth > 0 || refs != null) {
+                                throw malformed("Nested stringref namespaces are not supported");
+                            }
+                            refs = new ArrayList<>();
+                        } else if (isKnown(tag)) {
+                            break;
+                        }
+                        // other tags are ignored
+                        initial = read();
+                    }
+                    int major = initial >>> 5;
+                    int info = initial & 0x1f;
+                    if (major == MAJOR_TAG) {
+                        value = readTagged(tag);
+                    } else if (major == MAJOR_LIST || major == MAJOR_MAP) {
+                        long size = info == INDEFINITE ? -1 : readArgument(info);
+                        int capacity = (int) Math.min(size < 0 ? 0 : size, MAX_PRESIZE);
+                        Object container = major == MAJOR_LIST ? new CompactList(capacity) : new CompactMap(capacity);
+                        if (size == 0) {
+                            value = container;
+                        } else {
+                            if (depth == containers.length) {
+                                containers = Arrays.copyOf(containers, depth * 2);
+                                keys = Arrays.copyOf(keys, depth * 2);
+                                remaining = Arrays.copyOf(remaining, depth * 2);
+                            }
+                            remaining[depth] = size;
+                            containers[depth++] = container;
+                            continue;
+                        }
+                    } else {
+                        value = readScalar(initial);
+                    }
+                }
+
+                // attach completed values to their containers, closing as needed
+                while (true) {
+                    if (depth == 0) {
+                        return value;
+                    }
+                    Object container = containers[depth - 1];
+                    if (container instanceof Map) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) container;
+                        map.put(keys[depth - 1], value);
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        List<Object> list = (List<Object>) container;
+                        list.add(value);
+                    }
+                    if (remaining[depth - 1] < 0 || --remaining[depth - 1] > 0) {
+                        break;
+                    }
+                    value = container;
+                    containers[--depth] = null;
+                }
+            }
+        }
+
+        /**
+         * Read a map key, which must be a string or string reference.
+         */
+        private String readKey() {
+            int initial = read();
+            if (initial >>> 5 == MAJOR_STRING) {
+                return readString(initial & 0x1f, true);
+            } else if (initial == (MAJOR_TAG << 5 | 24) && peek() == TAG_STRINGREF) {
+                ++position;
+                Object key = readRef();
+                if (key instanceof String) {
+                    return (String) key;
+                }
+            } else {
+                --position;
+            }
+            throw malformed("Map key is not a string");
+        }
+
+        /**
+         * Read a data item other than a list, map or namespace, whose
+         * initial byte has been read. Tags are read after their argument.
+         */
+        private Object readScalar(int initial) {
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+            switch (major) {
+                case MAJOR_UNSIGNED:
+                case MAJOR_NEGATIVE:
+                    return readInteger(major, info);
+                case MAJOR_STRING:
+                    return readString(info, false);
+                case MAJOR_TAG:
+                    return readTagged(readArgument(info));
+                case MAJOR_SIMPLE:
+                    switch (info) {
+                        case 20:
+                            return Boolean.FALSE;
+                        case 21:
+                            return Boolean.TRUE;
+                        case 22:
+                        case 23:
+                            return null;
+                        case 25:
+                            return (double) halfToFloat((int) readBits(2));
+                        case 26:
+                            return Float.intBitsToFloat((int) readBits(4));
+                        case 27:
+                            return Double.longBitsToDouble(readBits(8));
+                        default:
+                            break;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            --position;
+            throw malformed("Unsupported data item");
+        }
+
+        private Object readTagged(long tag) {
+            if (tag == TAG_STRINGREF) {
+                Object string = readRef();
+                if (!(string instanceof String)) {
+                    throw malformed("Unsupported data item");
+                }
+                return string;
+            } else if (tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM) {
+                int initial = read();
+                Object bytes = null;
+                if (initial >>> 5 == MAJOR_BYTES) {
+                    int length = readLength(initial & 0x1f);
+                    bytes = readBytes(length);
+                    if (refs != null && length >= minRefLength(refs.size())) {
+                        refs.add(bytes);
+                    }
+                } else if (initial == (MAJOR_TAG << 5 | 24) && peek() == TAG_STRINGREF) {
+                    ++position;
+                    bytes = readRef();
+                }
+                if (!(bytes instanceof byte[])) {
+                    throw malformed("Bignum is not a byte string");
+                }
+                BigInteger magnitude = new BigInteger(1, (byte[]) bytes);
+                return tag == TAG_POSITIVE_BIGNUM ? magnitude : BigInteger.ONE.negate().subtract(magnitude);
+            } else if (tag == TAG_DECIMAL_FRACTION) {
+                if (read() != (MAJOR_LIST << 5 | 2)) {
+                    throw malformed("Decimal fraction is not a pair");
+                }
+                Object exponent = readScalar(read());
+                Object mantissa = readScalar(read());
+                if (!(exponent instanceof Integer) || mantissa instanceof Double || !(mantissa instanceof Number)) {
+                    throw malformed("Invalid decimal fraction");
+                }
+                BigInteger unscaled = mantissa instanceof BigInteger ? (BigInteger) mantissa
+                        : BigInteger.valueOf(((Number) mantissa).longValue());
+                return new BigDecimal(unscaled, -(Integer) exponent);
+            }
+            // other tags are ignored
+            return readScalar(read());
+        }
+
+        private static boolean isKnown(long tag) {
+            return tag == TAG_STRINGREF || tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM
+                    || tag == TAG_DECIMAL_FRACTION;
+        }
+
+        /**
+         * @return A String, or the byte[] of a byte string
+         */
+        private Object readRef() {
+            long index = readArgument(read(), MAJOR_UNSIGNED);
+            if (refs == null || index >= refs.size()) {
+                throw malformed("Invalid string reference " + index);
+            }
+            return refs.get((int) index);
+        }
+
+        /**
+         * Read an integer as Integer if its argument has at most four bytes
+         * and it fits, as Long if it fits, and as BigInteger otherwise.
+         */
+        private Number readInteger(int major, int info) {
+            long argument = readArgument(info);
+            boolean negative = major == MAJOR_NEGATIVE;
+            if (info < 27) {
+                long value = negative ? -1 - argument : argument;
+                return value == (int) value ? (Number) (int) value : (Number) value;
+            } else if (argument >= 0) {
+                return negative ? -1 - argument : argument;
+            }
+            BigInteger unsigned = new BigInteger(Long.toUnsignedString(argument));
+            return negative ? BigInteger.ONE.negate().subtract(unsigned) : unsigned;
+        }
+
+        private String readString(int info, boolean key) {
+            int length = readLength(info);
+            String string;
+            if (length > buffer.length) {
+                string = new String(readBytes(length), StandardCharsets.UTF_8);
+            } else {
+                ensure(length);
+                string = key ? cachedKey(length) : new String(buffer, position, length, StandardCharsets.UTF_8);
+                position += length;
+            }
+            if (refs != null && length >= minRefLength(refs.size())) {
+                refs.add(string);
+            }
+            return string;
+        }
+
+        /**
+         * Return a previously decoded key with the same bytes, or decode it.
+         */
+        private String cachedKey(int length) {
+            if (length > MAX_CACHED_KEY) {
+                return new String(buffer, position, length, StandardCharsets.UTF_8);
+            }
+            int hash = length;
+            for (int i = position; i < position + length; ++i) {
+                hash = 31 * hash + buffer[i];
+            }
+            int slot = (hash ^ hash >>> 16) & (KEY_CACHE_SIZE - 1);
+            byte[] bytes = keyBytes[slot];
+            if (bytes != null && bytes.length == length) {
+                int i = 0;
+                while (i < length && bytes[i] == buffer[position + i]) {
+                    ++i;
+                }
+                if (i == length) {
+                    return keys[slot];
+                }
+            }
+            keyBytes[slot] = Arrays.copyOfRange(buffer, position, position + length);
+            keys[slot] = new String(buffer, position, length, StandardCharsets.UTF_8);
+            return keys[slot];
+        }
+
+        private int readLength(int info) {
+            long length = readArgument(info);
+            if (length < 0 || length > Integer.MAX_VALUE - 8) {
+                throw malformed("Unsupported length " + Long.toUnsignedString(length));
+            }
+            return (int) length;
+        }
+
+        private long readArgument(int initial, int major) {
+            if (initial >>> 5 != major) {
+                --position;
+                throw malformed("Unexpected major type " + (initial >>> 5));
+            }
+            return readArgument(initial & 0x1f);
+        }
+
+        /**
+         * Read the argument following an initial byte. Eight byte
+         * arguments beyond Long.MAX_VALUE are returned as negative values.
+         */
+        private long readArgument(int info) {
+            if (info < 24) {
+                return info;
+            } else if (info <= 27) {
+                return readBits(1 << (info - 24));
+            }
+            --position;
+            throw malformed("Invalid argument");
+        }
+
+        private long readBits(int bytes) {
+            ensure(bytes);
+            long bits = 0;
+            for (int i = 0; i < bytes; ++i) {
+                bits = bits << 8 | buffer[position++] & 0xff;
+            }
+            return bits;
+        }
+
+        private byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            int count = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, 0, count);
+            position += count;
+            if (count < length) {
+                if (in == null) {
+                    throw malformed("Unexpected end of input");
+                }
+                // read the rest directly, leaving the buffer empty
+                offset += position;
+                position = limit = 0;
+                marked = false;
+                try {
+                    while (count < length) {
+                        int read = in.read(bytes, count, length - count);
+                        if (read < 0) {
+                            throw malformed("Unexpected end of input");
+                        }
+                        count += read;
+                        offset += read;
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return bytes;
+        }
+
+        private int peek() {
+            ensure(1);
+            return buffer[position] & 0xff;
+        }
+
+        private int read() {
+            ensure(1);
+            return buffer[position++] & 0xff;
+        }
+
+        /**
+         * Make sure count bytes are buffered, reading more if needed.
+         */
+        private void ensure(int count) {
+            if (limit - position >= count) {
+                return;
+            }
+            if (in == null) {
+                throw malformed("Unexpected end of input");
+            }
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            offset += position;
+            limit -= position;
+            position = 0;
+            try {
+                if (in.markSupported()) {
+                    in.mark(buffer.length);
+                    marked = true;
+                    markedAt = limit;
+                }
+                while (limit < count) {
+                    int read = in.read(buffer, limit, buffer.length - limit);
+                    if (read < 0) {
+                        throw malformed("Unexpected end of input");
+                    }
+                    limit += read;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        IllegalArgumentException malformed(String message) {
+            return new IllegalArgumentException(message + " in CBOR at offset " + (offset + position));
+        }
+
+        private static float halfToFloat(int half) {
+            int exponent = half >> 10 & 0x1f;
+            int mantissa = half & 0x3ff;
+            float value;
+            if (exponent == 0) {
+                value = mantissa * 0x1p-24f;
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+            } else {
+                value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) == 0 ? value : -value;
+        }
+
+        private final InputStream in;
+        private final byte[] buffer;
+        private int position;
+        private int limit;
+        private long offset;
+        private boolean marked;
+        private int markedAt;
+        private List<Object> refs;
+        private final byte[][] keyBytes = new byte[KEY_CACHE_SIZE][];
+        private final String[] keys = new String[KEY_CACHE_SIZE];
+
+    }
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_STRING = 3;
+    private static final int MAJOR_LIST = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 0xf4;
+    private static final int SIMPLE_TRUE = 0xf5;
+    private static final int SIMPLE_NULL = 0xf6;
+    private static final int FLOAT_32 = 0xfa;
+    private static final int FLOAT_64 = 0xfb;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    private static final int TAG_POSITIVE_BIGNUM = 2;
+    private static final int TAG_NEGATIVE_BIGNUM = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+    private static final int TAG_STRINGREF = 25;
+    private static final int TAG_STRINGREF_NAMESPACE = 256;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Upper bound for presizing containers from untrusted lengths.
+     */
+    private static final int MAX_PRESIZE = 1 << 16;
+
+    private static final int KEY_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_KEY = 32;
+
+    private JsomCbor() {
+    }
+
+}
@@ -0,0 +1,299 @@
+package de.md.jsom;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deep clone engine.
+ *
+ * Copies are made iteratively with an explicit stack, so deeply nested
+ * values cannot overflow the stack. Target containers are presized. Lists
+ * with at least PARALLEL_THRESHOLD elements are cloned in parallel on the
+ * common fork/join pool.
+ *
+ * Only Maps and Lists are copied: into maps and lists as created by map()
+ * and list(), into concurrent ones, or into persistent ones when freezing.
+ * Object arrays are transformed into lists.
+ */
+final class JsomCloner {
+
+    /**
+     * Deep clone a value.
+     *
+     * @param value
+     * @return
+     */
+    static Object deepClone(Object value) {
+        return copy(value, false);
+    }
+
+    /**
+     * Deep clone a value into concurrent maps and lists.
+     *
+     * @param value
+     * @return
+     */
+    static Object toConcurrent(Object value) {
+        return copy(value, true);
+    }
+
+    private static Object copy(Object value, boolean concurrent) {
+        Deque<Object> stack = new ArrayDeque<>();
+        Object root = shell(value, concurrent, stack);
+        fill(stack, concurrent);
+        return root;
+    }
+
+    /**
+     * Fill the shells on a stack, and the shells of their children in turn.
+     *
+     * @param stack Pairs of source and shell
+     * @param concurrent
+     */
+    private static void fill(Deque<Object> stack, boolean concurrent) {
+        while (!stack.isEmpty()) {
+            Object target = stack.pop();
+            Object source = stack.pop();
+            if (source instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) target;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) source).entrySet()) {
+                    map.put((String) entry.getKey(), shell(entry.getValue(), concurrent, stack));
+                }
+            } else {
+                @SuppressWarnings("unchecked")
+                List<Object> list = (List<Object>) target;
+                Object[] elements = ((List<?>) source).toArray();
+                if (elements.length >= PARALLEL_THRESHOLD) {
+                    parallelClone(elements, concurrent);
+                } else {
+                    for (int i = 0; i < elements.length; ++i) {
+                        elements[i] = shell(elements[i], concurrent, stack);
+                    }
+                }
+                list.addAll(Arrays.asList(elements));
+            }
+        }
+    }
+
+    /**
+     * Create a copy-on-write clone of a value.
+     *
+     * Maps and lists are wrapped, not copied. A wrapper copies its own level
+     * (wrapping the children) on its first mutation or when a child
+     * container is accessed; untouched subtrees stay shared with the
+     * original. The original must not be modified while such clones are in
+     * use.
+     *
+     * @param value
+     * @return
+     */
+    static Object lazyClone(Object value) {
+        value = normalize(value);
+        if (value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return new CowMap(map);
+        } else if (value instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Object> list = (List<Object>) value;
+            return new CowList(list);
+        }
+        return value;
+    }
+
+    /**
+     * Create an immutable deep copy of a value.
+     *
+     * Maps and lists become PersistentMaps and PersistentLists; parts that
+     * are already frozen are shared, not copied.
+     *
+     * @param value
+     * @return
+     */
+    static Object freeze(Object value) {
+        value = normalize(value);
+        if (!isMutable(value)) {
+            return value;
+        }
+        Deque<Freezer> stack = new ArrayDeque<>();
+        stack.push(new Freezer(value));
+        while (true) {
+            Freezer freezer = stack.peek();
+            if (freezer.hasNext()) {
+                Object child = normalize(freezer.next());
+                if (isMutable(child)) {
+                    stack.push(new Freezer(child));
+                } else {
+                    freezer.accept(child);
+                }
+            } else {
+                stack.pop();
+                Object frozen = freezer.result();
+                if (stack.isEmpty()) {
+                    return frozen;
+                }
+                stack.peek().accept(frozen);
+            }
+        }
+    }
+
+    /**
+     * @param value
+     * @return Whether value is a frozen map or list
+     */
+    static boolean isFrozen(Object value) {
+        return value instanceof PersistentMap || value instanceof PersistentList;
+    }
+
+    /**
+     * @param value
+     * @return Whether value is a map or list that is not frozen
+     */
+    static boolean isMutable(Object value) {
+        return (value instanceof Map || value instanceof List) && !isFrozen(value);
+    }
+
+    /**
+     * Return a value itself or, for containers, an empty presized copy that
+     * is scheduled for filling.
+     *
+     * @param value
+     * @param concurrent
+     * @param stack
+     * @return
+     */
+    private static Object shell(Object value, boolean concurrent, Deque<Object> stack) {
+        value = normalize(value);
+        Object shell;
+        if (value instanceof Map) {
+            int size = ((Map<?, ?>) value).size();
+            shell = concurrent ? new ConcurrentJsonMap(size) : new CompactMap(size);
+        } else if (value instanceof List) {
+            int size = ((List<?>) value).size();
+            shell = concurrent ? new CopyOnWriteArrayList<>() : new CompactList(size);
+        } else {
+            return value;
+        }
+        stack.push(value);
+        stack.push(shell);
+        return shell;
+    }
+
+    private static Object normalize(Object value) {
+        value = Jsom.valueOf(value);
+        return value instanceof Object[] ? Arrays.asList((Object[]) value) : value;
+    }
+
+    /**
+     * Clone the elements of a large list in parallel, in place.
+     *
+     * @param elements
+     * @param concurrent
+     */
+    private static void parallelClone(Object[] elements, boolean concurrent) {
+        CloneTask task = new CloneTask(elements, concurrent, 0, elements.length);
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    private static final class CloneTask extends RecursiveAction {
+
+        CloneTask(Object[] elements, boolean concurrent, int from, int to) {
+            this.elements = elements;
+            this.concurrent = concurrent;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                // scalars are kept, containers share one stack per batch
+                Deque<Object> stack = new ArrayDeque<>();
+                for (int i = from; i < to; ++i) {
+                    elements[i] = shell(elements[i], concurrent, stack);
+                }
+                fill(stack, concurrent);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CloneTask(elements, concurrent, from, middle),
+                        new CloneTask(elements, concurrent, middle, to));
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] elements;
+        private final boolean concurrent;
+        private final int from;
+        private final int to;
+
+    }
+
+    /**
+     * Frozen copy of one map or list under construction.
+     */
+    private static final class Freezer {
+
+        Freezer(Object source) {
+            if (source instanceof Map) {
+                entries = ((Map<?, ?>) source).entrySet().iterator();
+                map = PersistentMap.EMPTY;
+            } else {
+                elements = ((List<?>) source).toArray();
+            }
+        }
+
+        boolean hasNext() {
+            return entries != null ? entries.hasNext() : index < elements.length;
+        }
+
+        Object next() {
+            if (entries != null) {
+                Map.Entry<?, ?> entry = entries.next();
+                key = (String) entry.getKey();
+                return entry.getValue();
+            }
+            return elements[index];
+        }
+
+        void accept(Object frozen) {
+            if (entries != null) {
+                map = map.with(key, frozen);
+            } else {
+                elements[index++] = frozen;
+            }
+        }
+
+        Object result() {
+            return entries != null ? map : PersistentList.of(elements);
+        }
+
+        private Iterator<? extends Map.Entry<?, ?>> entries;
+        private PersistentMap map;
+        private String key;
+        private Object[] elements;
+        private int index;
+
+    }
+
+    static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    private static final int BATCH_SIZE = 1 << 10;
+
+    private JsomCloner() {
+    }
+
+}
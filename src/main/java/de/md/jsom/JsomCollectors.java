@@ -0,0 +1,190 @@
+package de.md.jsom;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * Collectors producing Jsom maps and lists.
+ *
+ * Elements are accumulated into the raw maps and lists (Jsom elements are
+ * unwrapped), so no Jsom instance is created per element, and partial
+ * results of parallel streams are merged in bulk. The concurrent variants
+ * let parallel streams accumulate into a single shared map instead.
+ *
+ * @see Jsom#TO_MAP
+ * @see Jsom#TO_LIST
+ */
+public final class JsomCollectors {
+
+    /**
+     * Collect elements into a list as created by list().
+     *
+     * @return
+     */
+    public static Collector<Object, ?, Jsom> toList() {
+        return Collector.of(CompactList::new, JsomCollectors::add, JsomCollectors::addAll, Jsom::$);
+    }
+
+    /**
+     * Collect elements into a list as created by list(), presized for the
+     * expected number of elements. Meant for sequential streams: with
+     * parallel streams, every partial result is presized alike.
+     *
+     * @param expectedSize
+     * @return
+     */
+    public static Collector<Object, ?, Jsom> toList(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        return Collector.of(() -> new CompactList(expectedSize), JsomCollectors::add, JsomCollectors::addAll,
+                Jsom::$);
+    }
+
+    /**
+     * Collect entries into a map as created by map(). Later entries replace
+     * earlier ones with the same key.
+     *
+     * @param <T>
+     * @return
+     */
+    public static <T extends Entry<String, ?>> Collector<T, ?, Jsom> toMap() {
+        return Collector.of(CompactMap::new, JsomCollectors::put, JsomCollectors::putAll, Jsom::$);
+    }
+
+    /**
+     * Collect entries into a single map as created by concurrentMap(),
+     * shared by all threads of a parallel stream. Entry order is not kept;
+     * of several entries with the same key, any one may win.
+     *
+     * @param <T>
+     * @return
+     */
+    public static <T extends Entry<String, ?>> Collector<T, ?, Jsom> toConcurrentMap() {
+        return Collector.of(ConcurrentJsonMap::new, JsomCollectors::put, JsomCollectors::putAll, Jsom::$,
+                Collector.Characteristics.CONCURRENT, Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Group elements into a map from the classifier result to lists of
+     * elements, preserving encounter order within each list.
+     *
+     * @param <T>
+     * @param classifier
+     * @return
+     */
+    public static <T> Collector<T, ?, Jsom> groupingBy(Function<? super T, String> classifier) {
+        return Collector.<T, Map<String, Object>, Jsom> of(CompactMap::new,
+                (map, element) -> group(map, classifier.apply(element), element),
+                JsomCollectors::merge, Jsom::$);
+    }
+
+    /**
+     * Group map elements by the value at a key.
+     *
+     * @param key
+     * @return
+     * @see #groupingBy(Function)
+     */
+    public static Collector<Object, ?, Jsom> groupingBy(String key) {
+        return groupingBy(element -> keyOf(element, key));
+    }
+
+    /**
+     * Group elements into a single map as created by concurrentMap(), shared
+     * by all threads of a parallel stream. Lists are in no particular order.
+     *
+     * @param <T>
+     * @param classifier
+     * @return
+     */
+    public static <T> Collector<T, ?, Jsom> groupingByConcurrent(Function<? super T, String> classifier) {
+        return Collector.<T, Map<String, Object>, Jsom> of(ConcurrentJsonMap::new,
+                (map, element) -> {
+                    String key = Jsom.require(classifier.apply(element), "Cannot group by null key");
+                    List<Object> list = asList(map.computeIfAbsent(key, k -> new CompactList()));
+                    // lock the plain list itself, so no wrapper ends up in the result
+                    synchronized (list) {
+                        list.add(Jsom.valueOf(element));
+                    }
+                },
+                JsomCollectors::merge, Jsom::$,
+                Collector.Characteristics.CONCURRENT, Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Index map elements by the value at a key. Later elements replace
+     * earlier ones with the same key value.
+     *
+     * @param key
+     * @return
+     */
+    public static Collector<Object, ?, Jsom> toIndex(String key) {
+        return Collector.<Object, Map<String, Object>, Jsom> of(CompactMap::new,
+                (map, element) -> map.put(keyOf(element, key), Jsom.valueOf(element)),
+                JsomCollectors::putAll, Jsom::$);
+    }
+
+    private static void add(CompactList list, Object element) {
+        list.add(Jsom.valueOf(element));
+    }
+
+    private static CompactList addAll(CompactList a, CompactList b) {
+        a.addAll(b);
+        return a;
+    }
+
+    private static void put(Map<String, Object> map, Entry<String, ?> entry) {
+        map.put(entry.getKey(), Jsom.valueOf(entry.getValue()));
+    }
+
+    private static <M extends Map<String, Object>> M putAll(M a, M b) {
+        a.putAll(b);
+        return a;
+    }
+
+    private static void group(Map<String, Object> map, String key, Object element) {
+        Object list = map.get(Jsom.require(key, "Cannot group by null key"));
+        if (list == null) {
+            list = new CompactList();
+            map.put(key, list);
+        }
+        asList(list).add(Jsom.valueOf(element));
+    }
+
+    private static Map<String, Object> merge(Map<String, Object> a, Map<String, Object> b) {
+        for (Entry<String, Object> entry : b.entrySet()) {
+            Object list = a.get(entry.getKey());
+            if (list == null) {
+                a.put(entry.getKey(), entry.getValue());
+            } else {
+                asList(list).addAll(asList(entry.getValue()));
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Return the value at key of a map element as String.
+     *
+     * @param element
+     * @param key
+     * @return
+     */
+    private static String keyOf(Object element, String key) {
+        Object value = Jsom.field(Jsom.valueOf(element), key);
+        return Jsom.require(value, "Cannot use null " + key + " as key").toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object list) {
+        return (List<Object>) list;
+    }
+
+    private JsomCollectors() {
+    }
+
+}
@@ -0,0 +1,222 @@
+package de.md.jsom;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutable, reusable cursor moving through a JSON structure in place.
+ *
+ * Unlike Jsom, navigating with get() does not allocate: the cursor itself
+ * moves to the child and is returned. Accessors behave like their Jsom
+ * counterparts. Use toJsom() to leave the cursor world, e.g. for mutation.
+ *
+ * <pre>
+ * JsomCursor cursor = doc.cursor();
+ * double price = cursor.get("a").get("items").get(3).get("price").toDouble();
+ * cursor.reset().get("b")...
+ * </pre>
+ *
+ * Not thread-safe.
+ *
+ * @see Jsom#cursor()
+ */
+public class JsomCursor {
+
+    /**
+     * Create a cursor positioned at the root value.
+     *
+     * @param root Any value.
+     */
+    public JsomCursor(Object root) {
+        reset(root);
+    }
+
+    /**
+     * Move back to the root value.
+     *
+     * @return self
+     */
+    public JsomCursor reset() {
+        current = root;
+        return this;
+    }
+
+    /**
+     * Move to a new root value.
+     *
+     * @param root
+     * @return self
+     */
+    public JsomCursor reset(Object root) {
+        this.root = Jsom.valueOf(root);
+        current = this.root;
+        return this;
+    }
+
+    /**
+     * Move to the value at key.
+     *
+     * @see Map#get(Object)
+     * @param key
+     * @return self
+     */
+    public JsomCursor get(String key) {
+        current = toMap().get(key);
+        return this;
+    }
+
+    /**
+     * Move to the element at index.
+     *
+     * @see List#get(int)
+     * @param index
+     * @return self
+     */
+    public JsomCursor get(int index) {
+        current = toList().get(index);
+        return this;
+    }
+
+    /**
+     * @return The raw value at the cursor position
+     */
+    public Object value() {
+        return current;
+    }
+
+    /**
+     * @return A new Jsom instance for the value at the cursor position
+     */
+    public Jsom toJsom() {
+        return Jsom.$(current);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isMap() {
+        return current instanceof Map;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isList() {
+        return current instanceof List;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isString() {
+        return current instanceof String;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isNumber() {
+        return current instanceof Number;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isBoolean() {
+        return current instanceof Boolean;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isNull() {
+        return current == null;
+    }
+
+    /**
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> toMap() {
+        return (Map<String, Object>) Jsom.require(current, "Cannot cast null to map");
+    }
+
+    /**
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> toList() {
+        return (List<Object>) Jsom.require(current, "Cannot cast null to list");
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @return
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return current == null ? "null" : current.toString();
+    }
+
+    /**
+     * @see Jsom#toLong()
+     * @return
+     */
+    public long toLong() {
+        return Jsom.longOf(current);
+    }
+
+    /**
+     * @see Jsom#toInt()
+     * @return
+     */
+    public int toInt() {
+        return Jsom.intOf(current);
+    }
+
+    /**
+     * @see Jsom#toDouble()
+     * @return
+     */
+    public double toDouble() {
+        return Jsom.doubleOf(current);
+    }
+
+    /**
+     * @return
+     */
+    public boolean toBoolean() {
+        return current == null ? false : (boolean) current;
+    }
+
+    /**
+     * Return size of map or list.
+     *
+     * @see Map#size()
+     * @see List#size()
+     * @return
+     */
+    public int size() {
+        if (current instanceof Map) {
+            return toMap().size();
+        } else if (current instanceof List) {
+            return toList().size();
+        } else {
+            throw new ClassCastException("Cannot get size of " + Jsom.typeOf(current));
+        }
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    public boolean containsKey(String key) {
+        return toMap().containsKey(key);
+    }
+
+    private Object root;
+    private Object current;
+
+}
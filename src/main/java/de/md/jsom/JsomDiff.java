@@ -0,0 +1,223 @@
+package de.md.jsom;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Structural diff producing JSON Patch (RFC 6902) operations.
+ *
+ * Both values are walked together. Identical subtrees are skipped by
+ * reference first, so diffing versions derived from each other with
+ * with()/without() costs in proportion to the change rather than to the
+ * document. Maps are diffed key by key. Lists are trimmed by their common
+ * prefix and suffix, and the rest is aligned by a shortest edit script
+ * (Myers' O(ND) algorithm), so the cost grows with the number of changed
+ * elements. Elements are compared with equals(), which rejects maps and
+ * lists early where both have cached hash codes (see HashCached, frozen
+ * values). Sections with more than MAX_DIFFERENCES insertions and
+ * deletions are edited position by position. Unmatched elements at the
+ * same position are diffed recursively, others removed or added.
+ *
+ * Numbers are compared by value. Operation values refer to parts of the
+ * target value, they are not copied.
+ */
+final class JsomDiff {
+
+    /**
+     * Create the operations turning source into target.
+     *
+     * @param source
+     * @param target
+     * @return A list of operations as created by list()
+     */
+    static List<Object> diff(Object source, Object target) {
+        JsomDiff diff = new JsomDiff();
+        diff.diff("", Jsom.valueOf(source), Jsom.valueOf(target));
+        return diff.operations;
+    }
+
+    private void diff(String path, Object source, Object target) {
+        if (source == target) {
+            return;
+        } else if (source instanceof Map && target instanceof Map) {
+            diffMaps(path, (Map<?, ?>) source, (Map<?, ?>) target);
+        } else if (source instanceof List && target instanceof List) {
+            diffLists(path, (List<?>) source, (List<?>) target);
+        } else if (!JsomPatch.equal(source, target)) {
+            add("replace", path, target);
+        }
+    }
+
+    private void diffMaps(String path, Map<?, ?> source, Map<?, ?> target) {
+        for (Entry<?, ?> entry : source.entrySet()) {
+            Object key = entry.getKey();
+            String child = path + "/" + JsomPath.escape((String) key);
+            Object value = target.get(key);
+            if (value == null && !target.containsKey(key)) {
+                add("remove", child, null);
+            } else {
+                diff(child, entry.getValue(), value);
+            }
+        }
+        for (Entry<?, ?> entry : target.entrySet()) {
+            if (!source.containsKey(entry.getKey())) {
+                add("add", path + "/" + JsomPath.escape((String) entry.getKey()), entry.getValue());
+            }
+        }
+    }
+
+    private void diffLists(String path, List<?> source, List<?> target) {
+        Object[] a = source.toArray();
+        Object[] b = target.toArray();
+        int start = 0;
+        while (start < a.length && start < b.length && same(a[start], b[start])) {
+            ++start;
+        }
+        int endA = a.length;
+        int endB = b.length;
+        while (endA > start && endB > start && same(a[endA - 1], b[endB - 1])) {
+            --endA;
+            --endB;
+        }
+        int n = endA - start;
+        int m = endB - start;
+        if (n == 0 && m == 0) {
+            return;
+        } else if (n > 0 && m > 0) {
+            align(path, a, b, start, n, m);
+        } else {
+            edit(path, a, b, start, start, n, start, m);
+        }
+    }
+
+    /**
+     * Align the middle sections of two lists by a shortest edit script
+     * (Myers' O(ND) algorithm) and emit the differences between matches.
+     * Sections with too many differences are edited position by position.
+     */
+    private void align(String path, Object[] a, Object[] b, int start, int n, int m) {
+        int max = (int) Math.min(Math.min(n + m, MAX_DIFFERENCES), WORK_LIMIT / (n + m));
+        int offset = max + 1;
+        // furthest x reached on each diagonal k = x - y, at offset + k
+        int[] furthest = new int[2 * max + 3];
+        // trace[d][d + k]: furthest x on diagonal k after d differences
+        int[][] trace = new int[max + 1][];
+        for (int d = 0; d <= max; ++d) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && furthest[offset + k - 1] < furthest[offset + k + 1])
+                        ? furthest[offset + k + 1] : furthest[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && same(a[start + x], b[start + y])) {
+                    ++x;
+                    ++y;
+                }
+                furthest[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace[d] = Arrays.copyOfRange(furthest, offset - d, offset + d + 1);
+                    emit(path, a, b, start, n, m, trace, d);
+                    return;
+                }
+            }
+            trace[d] = Arrays.copyOfRange(furthest, offset - d, offset + d + 1);
+        }
+        edit(path, a, b, start, start, n, start, m);
+    }
+
+    /**
+     * Backtrack through the trace of an edit script with differences
+     * changes, then edit the sections between matching elements.
+     */
+    private void emit(String path, Object[] a, Object[] b, int start, int n, int m, int[][] trace,
+            int differences) {
+        int[] matchesA = new int[Math.min(n, m)];
+        int[] matchesB = new int[matchesA.length];
+        int matches = 0;
+        int x = n;
+        int y = m;
+        for (int d = differences; d >= 0; --d) {
+            int k = x - y;
+            int previousX = 0;
+            int previousY = 0;
+            int snake = 0;
+            if (d > 0) {
+                int[] previous = trace[d - 1];
+                boolean down = k == -d || (k != d && previous[d - 1 + k - 1] < previous[d - 1 + k + 1]);
+                int previousK = down ? k + 1 : k - 1;
+                previousX = previous[d - 1 + previousK];
+                previousY = previousX - previousK;
+                snake = down ? previousX : previousX + 1;
+            }
+            // the diagonal run of matches ending at (x, y)
+            while (x > snake) {
+                --x;
+                --y;
+                matchesA[matches] = x;
+                matchesB[matches++] = y;
+            }
+            x = previousX;
+            y = previousY;
+        }
+
+        int index = start;
+        int i = 0;
+        int j = 0;
+        for (int match = matches - 1; match >= -1; --match) {
+            int toI = match >= 0 ? matchesA[match] : n;
+            int toJ = match >= 0 ? matchesB[match] : m;
+            index = edit(path, a, b, index, start + i, toI - i, start + j, toJ - j) + 1;
+            i = toI + 1;
+            j = toJ + 1;
+        }
+    }
+
+    /**
+     * Turn count elements of a starting at fromA into countB elements of b
+     * starting at fromB, at index of the list being patched.
+     *
+     * @return The index after the edited section
+     */
+    private int edit(String path, Object[] a, Object[] b, int index, int fromA, int countA, int fromB,
+            int countB) {
+        int changed = Math.min(countA, countB);
+        for (int k = 0; k < changed; ++k) {
+            diff(path + "/" + index++, a[fromA + k], b[fromB + k]);
+        }
+        for (int k = changed; k < countA; ++k) {
+            add("remove", path + "/" + index, null);
+        }
+        for (int k = changed; k < countB; ++k) {
+            add("add", path + "/" + index++, b[fromB + k]);
+        }
+        return index;
+    }
+
+    private static boolean same(Object a, Object b) {
+        return a == b || a != null && a.equals(b);
+    }
+
+    private void add(String op, String path, Object value) {
+        Map<String, Object> operation = new CompactMap();
+        operation.put("op", op);
+        operation.put("path", path);
+        if (!op.equals("remove")) {
+            operation.put("value", value);
+        }
+        operations.add(operation);
+    }
+
+    /**
+     * Maximum number of insertions and deletions aligning a section.
+     */
+    private static final int MAX_DIFFERENCES = 1024;
+
+    /**
+     * Maximum number of differences times section length aligning a
+     * section, bounding the element comparisons.
+     */
+    private static final long WORK_LIMIT = 1 << 24;
+
+    private final List<Object> operations = new CompactList();
+
+}
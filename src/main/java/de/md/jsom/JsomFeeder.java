@@ -0,0 +1,665 @@
+package de.md.jsom;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Non-blocking push parser for UTF-8 JSON arriving in chunks.
+ *
+ * Chunks are fed as they arrive, split anywhere, even inside strings,
+ * numbers or multi-byte characters. The parser keeps its state between
+ * calls and never waits for input, so it can run on I/O threads. Chunks are
+ * consumed completely and not retained; only the bytes of a token that
+ * spans chunks are buffered. Heap buffers are read in place, direct buffers
+ * through a small staging array.
+ *
+ * A feeder created with new JsomFeeder() takes any number of top-level
+ * values; completed values are available from next() as soon as their last
+ * byte has arrived. Objects and arrays may follow each other directly, but
+ * a string, number or literal must be followed by whitespace before the
+ * next value. A top-level number is only complete once a following byte or
+ * finish() shows that it has ended.
+ *
+ * A feeder created with document() takes exactly one top-level value, like
+ * a request body, and rejects anything but whitespace after it.
+ *
+ * <pre>
+ * JsomFeeder feeder = JsomFeeder.document();
+ * feeder.feed(chunk1).feed(chunk2);
+ * Jsom body = feeder.finish().next();
+ * </pre>
+ *
+ * Values are built like parse() does. Malformed input results in an
+ * IllegalArgumentException with a byte offset; the feeder then rejects
+ * further input with the same exception.
+ *
+ * Not thread-safe.
+ */
+public final class JsomFeeder {
+
+    /**
+     * Create a feeder for any number of top-level values.
+     */
+    public JsomFeeder() {
+        this(false);
+    }
+
+    private JsomFeeder(boolean document) {
+        this.document = document;
+    }
+
+    /**
+     * Create a feeder for a single top-level value.
+     *
+     * @return
+     */
+    public static JsomFeeder document() {
+        return new JsomFeeder(true);
+    }
+
+    /**
+     * Consume all remaining bytes of a chunk.
+     *
+     * @param chunk
+     * @return self
+     * @throws IllegalArgumentException If the input is not valid JSON
+     */
+    public JsomFeeder feed(ByteBuffer chunk) {
+        Jsom.require(chunk, "Cannot feed null");
+        checkOpen();
+        try {
+            if (chunk.hasArray()) {
+                int from = chunk.arrayOffset() + chunk.position();
+                consume(chunk.array(), from, from + chunk.remaining());
+                chunk.position(chunk.limit());
+            } else {
+                if (staging == null) {
+                    staging = new byte[STAGING_SIZE];
+                }
+                while (chunk.hasRemaining()) {
+                    int length = Math.min(staging.length, chunk.remaining());
+                    chunk.get(staging, 0, length);
+                    consume(staging, 0, length);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            failure = ex;
+            throw ex;
+        }
+        return this;
+    }
+
+    /**
+     * Signal the end of input, completing a pending top-level number.
+     *
+     * @return self
+     * @throws IllegalArgumentException If a value is incomplete, or if a
+     * feeder for a single document got no value
+     */
+    public JsomFeeder finish() {
+        checkOpen();
+        try {
+            if (state == NUMBER && depth == 0) {
+                complete(number());
+            }
+            if (state != VALUE || depth > 0 || (document && !started)) {
+                throw new IllegalArgumentException("Unexpected end of input at offset " + offset);
+            }
+        } catch (IllegalArgumentException ex) {
+            failure = ex;
+            throw ex;
+        }
+        finished = true;
+        return this;
+    }
+
+    /**
+     * @return Whether a completed top-level value is available
+     */
+    public boolean hasNext() {
+        return !values.isEmpty();
+    }
+
+    /**
+     * Take the next completed top-level value.
+     *
+     * @return
+     * @throws NoSuchElementException If no value is complete
+     */
+    public Jsom next() {
+        if (values.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Object value = values.poll();
+        return Jsom.$(value == NULL ? null : value);
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw failure;
+        } else if (finished) {
+            throw new IllegalArgumentException("Input already finished");
+        }
+    }
+
+    /**
+     * Run the state machine over a part of an array.
+     */
+    private void consume(byte[] input, int from, int to) {
+        chunkOffset = offset - from;
+        int i = from;
+        try {
+            while (i < to) {
+                switch (state) {
+                    case VALUE:
+                        int start = i;
+                        i = skipWhitespace(input, i, to);
+                        if (i > start) {
+                            separate = false;
+                        }
+                        if (i < to) {
+                            i = startValue(input, i);
+                        }
+                        break;
+                    case STRING:
+                        i = readString(input, i, to);
+                        break;
+                    case ESCAPE:
+                        readEscape(input[i], i);
+                        ++i;
+                        break;
+                    case UNICODE:
+                        readUnicode(input[i], i);
+                        ++i;
+                        break;
+                    case NUMBER:
+                        i = readNumber(input, i, to);
+                        break;
+                    case LITERAL:
+                        if (input[i] != literal[literalIndex]) {
+                            throw unexpected(input[i], i);
+                        }
+                        ++i;
+                        if (++literalIndex == literal.length) {
+                            state = VALUE;
+                            complete(literalValue);
+                        }
+                        break;
+                    case KEY:
+                        i = skipWhitespace(input, i, to);
+                        if (i < to) {
+                            byte c = input[i++];
+                            if (c == '"') {
+                                startString(true);
+                            } else if (c == '}' && emptyAllowed) {
+                                state = VALUE;
+                                close();
+                            } else {
+                                throw unexpected(c, i - 1);
+                            }
+                        }
+                        break;
+                    case COLON:
+                        i = skipWhitespace(input, i, to);
+                        if (i < to) {
+                            byte c = input[i++];
+                            if (c != ':') {
+                                throw unexpected(c, i - 1);
+                            }
+                            state = VALUE;
+                            emptyAllowed = false;
+                        }
+                        break;
+                    default:
+                        i = skipWhitespace(input, i, to);
+                        if (i < to) {
+                            afterValue(input[i++], i - 1);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            offset += i - from;
+        }
+    }
+
+    /**
+     * Start the value at a position.
+     *
+     * @return The position after the consumed byte
+     */
+    private int startValue(byte[] input, int i) {
+        byte c = input[i];
+        if (depth == 0) {
+            if (separate || (document && started)) {
+                throw unexpected(c, i);
+            }
+            started = true;
+        }
+        switch (c) {
+            case '{':
+                push(new CompactMap());
+                state = KEY;
+                emptyAllowed = true;
+                return i + 1;
+            case '[':
+                push(new CompactList());
+                state = VALUE;
+                emptyAllowed = true;
+                return i + 1;
+            case ']':
+                if (emptyAllowed && depth > 0 && !(containers[depth - 1] instanceof Map)) {
+                    close();
+                    return i + 1;
+                }
+                throw unexpected(c, i);
+            case '"':
+                startString(false);
+                return i + 1;
+            case 't':
+                return startLiteral(TRUE, Boolean.TRUE, i);
+            case 'f':
+                return startLiteral(FALSE, Boolean.FALSE, i);
+            case 'n':
+                return startLiteral(NULL_LITERAL, null, i);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    state = NUMBER;
+                    numberState = c == '-' ? N_SIGN : c == '0' ? N_ZERO : N_INTEGER;
+                    accumulator = c == '-' || c == '0' ? 0 : c - '0';
+                    digits = c == '-' ? 0 : 1;
+                    negative = c == '-';
+                    integral = true;
+                    scratchLength = 0;
+                    append(c);
+                    return i + 1;
+                }
+                throw unexpected(c, i);
+        }
+    }
+
+    private int startLiteral(byte[] bytes, Object value, int i) {
+        state = LITERAL;
+        literal = bytes;
+        literalIndex = 1;
+        literalValue = value;
+        return i + 1;
+    }
+
+    /**
+     * Handle the byte after a value inside a container.
+     */
+    private void afterValue(byte c, int i) {
+        boolean isMap = containers[depth - 1] instanceof Map;
+        if (c == ',') {
+            state = isMap ? KEY : VALUE;
+            emptyAllowed = false;
+        } else if (c == (isMap ? '}' : ']')) {
+            close();
+        } else {
+            throw unexpected(c, i);
+        }
+    }
+
+    private void startString(boolean key) {
+        state = STRING;
+        stringIsKey = key;
+        scratchLength = 0;
+        builder = null;
+    }
+
+    /**
+     * Read string bytes up to the closing quote or the end of the chunk.
+     * Strings that start and end within one chunk are decoded in place.
+     *
+     * @return The position after the consumed bytes
+     */
+    private int readString(byte[] input, int i, int to) {
+        int start = i;
+        while (i < to) {
+            byte b = input[i];
+            if (b == '"') {
+                String string;
+                if (scratchLength == 0 && builder == null) {
+                    string = new String(input, start, i - start, StandardCharsets.UTF_8);
+                } else {
+                    append(input, start, i);
+                    string = flushString().toString();
+                }
+                completeString(string);
+                return i + 1;
+            } else if (b == '\\') {
+                append(input, start, i);
+                flushString();
+                state = ESCAPE;
+                return i + 1;
+            } else if (b >= 0 && b < 0x20) {
+                throw unexpected(b, i);
+            }
+            ++i;
+        }
+        append(input, start, i);
+        return i;
+    }
+
+    /**
+     * Move the buffered UTF-8 bytes of a string into its builder. Escapes
+     * are ASCII, so the bytes before one are complete characters.
+     *
+     * @return The builder
+     */
+    private StringBuilder flushString() {
+        if (builder == null) {
+            builder = new StringBuilder();
+        }
+        builder.append(new String(scratch, 0, scratchLength, StandardCharsets.UTF_8));
+        scratchLength = 0;
+        return builder;
+    }
+
+    private void completeString(String string) {
+        builder = null;
+        scratchLength = 0;
+        if (stringIsKey) {
+            keys[depth - 1] = string;
+            state = COLON;
+        } else {
+            state = VALUE;
+            complete(string);
+        }
+    }
+
+    private void readEscape(byte c, int i) {
+        state = STRING;
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                builder.append((char) c);
+                break;
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                state = UNICODE;
+                unicode = 0;
+                unicodeDigits = 0;
+                break;
+            default:
+                throw unexpected(c, i);
+        }
+    }
+
+    private void readUnicode(byte c, int i) {
+        int digit = c >= '0' && c <= '9' ? c - '0'
+                : c >= 'a' && c <= 'f' ? c - 'a' + 10
+                : c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+        if (digit < 0) {
+            throw unexpected(c, i);
+        }
+        unicode = unicode << 4 | digit;
+        if (++unicodeDigits == 4) {
+            builder.append((char) unicode);
+            state = STRING;
+        }
+    }
+
+    /**
+     * Read number bytes, validating the grammar as they arrive.
+     *
+     * @return The position after the consumed bytes
+     */
+    private int readNumber(byte[] input, int i, int to) {
+        while (i < to) {
+            byte c = input[i];
+            boolean digit = c >= '0' && c <= '9';
+            switch (numberState) {
+                case N_SIGN:
+                    if (!digit) {
+                        throw unexpected(c, i);
+                    }
+                    numberState = c == '0' ? N_ZERO : N_INTEGER;
+                    break;
+                case N_INTEGER:
+                case N_ZERO:
+                    if (digit && numberState == N_INTEGER) {
+                        break;
+                    } else if (c == '.') {
+                        numberState = N_POINT;
+                    } else if (c == 'e' || c == 'E') {
+                        numberState = N_EXPONENT;
+                    } else if (digit) {
+                        throw unexpected(c, i);
+                    } else {
+                        return endNumber(i);
+                    }
+                    integral = false;
+                    break;
+                case N_POINT:
+                case N_FRACTION:
+                    if (digit) {
+                        numberState = N_FRACTION;
+                    } else if (numberState == N_FRACTION && (c == 'e' || c == 'E')) {
+                        numberState = N_EXPONENT;
+                    } else if (numberState == N_FRACTION) {
+                        return endNumber(i);
+                    } else {
+                        throw unexpected(c, i);
+                    }
+                    break;
+                case N_EXPONENT:
+                case N_EXPONENT_SIGN:
+                    if (numberState == N_EXPONENT && (c == '+' || c == '-')) {
+                        numberState = N_EXPONENT_SIGN;
+                    } else if (!digit) {
+                        throw unexpected(c, i);
+                    } else {
+                        numberState = N_EXPONENT_DIGITS;
+                    }
+                    break;
+                default:
+                    if (!digit) {
+                        return endNumber(i);
+                    }
+                    break;
+            }
+            if (digit && integral) {
+                accumulator = accumulator * 10 + (c - '0');
+                ++digits;
+            }
+            append(c);
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Complete a number at the byte after it, which is left unconsumed.
+     */
+    private int endNumber(int i) {
+        complete(number());
+        return i;
+    }
+
+    /**
+     * @return The buffered number
+     */
+    private Number number() {
+        if (numberState == N_SIGN || numberState == N_POINT || numberState == N_EXPONENT
+                || numberState == N_EXPONENT_SIGN) {
+            throw new IllegalArgumentException("Unexpected end of input at offset " + offset);
+        }
+        String text = new String(scratch, 0, scratchLength, StandardCharsets.ISO_8859_1);
+        if (!integral) {
+            return Double.parseDouble(text);
+        } else if (digits <= 18) {
+            return JsomParser.narrow(negative ? -accumulator : accumulator);
+        } else {
+            return JsomParser.narrow(new BigInteger(text));
+        }
+    }
+
+    private int skipWhitespace(byte[] input, int i, int to) {
+        while (i < to) {
+            byte c = input[i];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    private void push(Object container) {
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, depth * 2);
+            keys = Arrays.copyOf(keys, depth * 2);
+        }
+        containers[depth++] = container;
+    }
+
+    /**
+     * Close the innermost container and complete it as a value.
+     */
+    private void close() {
+        Object container = containers[--depth];
+        containers[depth] = null;
+        keys[depth] = null;
+        complete(container);
+    }
+
+    /**
+     * Attach a completed value to its container, or queue it at top level.
+     */
+    private void complete(Object value) {
+        if (depth == 0) {
+            values.add(value == null ? NULL : value);
+            state = VALUE;
+            // scalars do not end themselves, e.g. truefalse
+            separate = !(value instanceof Map || value instanceof List);
+            return;
+        }
+        Object container = containers[depth - 1];
+        if (container instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) container;
+            map.put(keys[depth - 1], value);
+        } else {
+            @SuppressWarnings("unchecked")
+            List<Object> list = (List<Object>) container;
+            list.add(value);
+        }
+        state = AFTER_VALUE;
+    }
+
+    private void append(byte b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratchLength * 2);
+        }
+        scratch[scratchLength++] = b;
+    }
+
+    private void append(byte[] input, int from, int to) {
+        int length = to - from;
+        if (scratchLength + length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratchLength + length, scratch.length * 2));
+        }
+        System.arraycopy(input, from, scratch, scratchLength, length);
+        scratchLength += length;
+    }
+
+    private IllegalArgumentException unexpected(byte c, int i) {
+        return new IllegalArgumentException("Unexpected character '" + (char) (c & 0xff) + "' at offset "
+                + (chunkOffset + i));
+    }
+
+    private static final int VALUE = 0;
+    private static final int STRING = 1;
+    private static final int ESCAPE = 2;
+    private static final int UNICODE = 3;
+    private static final int NUMBER = 4;
+    private static final int LITERAL = 5;
+    private static final int KEY = 6;
+    private static final int COLON = 7;
+    private static final int AFTER_VALUE = 8;
+
+    private static final int N_SIGN = 0;
+    private static final int N_ZERO = 1;
+    private static final int N_INTEGER = 2;
+    private static final int N_POINT = 3;
+    private static final int N_FRACTION = 4;
+    private static final int N_EXPONENT = 5;
+    private static final int N_EXPONENT_SIGN = 6;
+    private static final int N_EXPONENT_DIGITS = 7;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL_LITERAL = {'n', 'u', 'l', 'l'};
+
+    /**
+     * Stands in for null values in the queue.
+     */
+    private static final Object NULL = new Object();
+
+    private static final int STAGING_SIZE = 1 << 13;
+
+    private final boolean document;
+    private final Deque<Object> values = new ArrayDeque<>();
+    private boolean started;
+    private boolean separate;
+    private Object[] containers = new Object[16];
+    private String[] keys = new String[16];
+    private int depth;
+    private int state = VALUE;
+    private boolean emptyAllowed;
+
+    private byte[] scratch = new byte[64];
+    private int scratchLength;
+    private StringBuilder builder;
+    private boolean stringIsKey;
+    private int unicode;
+    private int unicodeDigits;
+
+    private int numberState;
+    private long accumulator;
+    private int digits;
+    private boolean negative;
+    private boolean integral;
+
+    private byte[] literal;
+    private int literalIndex;
+    private Object literalValue;
+
+    private byte[] staging;
+    /**
+     * Number of bytes consumed before the current chunk.
+     */
+    private long offset;
+
+    /**
+     * Offset of index 0 of the array being consumed.
+     */
+    private long chunkOffset;
+    private IllegalArgumentException failure;
+    private boolean finished;
+
+}
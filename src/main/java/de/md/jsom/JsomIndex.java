@@ -0,0 +1,254 @@
+package de.md.jsom;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary index over a list of maps by the value at one key.
+ *
+ * Lookups take O(1), range queries over numeric values O(log n + k). Numbers
+ * are compared by value, so 1, 1L and 1.0 are the same key. Elements that
+ * are not maps or lack the key are not indexed.
+ *
+ * The index is maintained by the element mutators of the Jsom it was
+ * created by (add, addAll, set, remove, clear). Modifications through other
+ * views, and changes of the indexed key within an element, are not seen;
+ * call rebuild() after those.
+ *
+ * Not thread-safe.
+ *
+ * @see Jsom#indexBy(String)
+ */
+public final class JsomIndex {
+
+    /**
+     * @param key
+     * @param elements
+     */
+    JsomIndex(String key, List<Object> elements) {
+        this.key = Jsom.require(key, "Cannot index by null key");
+        this.elements = elements;
+        rebuild();
+    }
+
+    /**
+     * @return The indexed key
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Return an element with the given value at the indexed key. If several
+     * elements match, returns the one indexed first.
+     *
+     * @param value
+     * @return The element, or a Jsom of null
+     */
+    public Jsom lookup(Object value) {
+        Object bucket = buckets.get(normalize(Jsom.valueOf(value)));
+        return Jsom.$(bucket instanceof Duplicates ? ((Duplicates) bucket).get(0) : bucket);
+    }
+
+    /**
+     * Return all elements with the given value at the indexed key.
+     *
+     * @param value
+     * @return A new list
+     */
+    public Jsom lookupAll(Object value) {
+        List<Object> result = new CompactList();
+        collect(buckets.get(normalize(Jsom.valueOf(value))), result);
+        return Jsom.$(result);
+    }
+
+    /**
+     * Return all elements with a numeric value at the indexed key in the
+     * range [from, to), ordered by that value.
+     *
+     * @param from Inclusive lower bound
+     * @param to Exclusive upper bound
+     * @return A new list
+     */
+    public Jsom range(Number from, Number to) {
+        Object low = normalize(Jsom.require(from, "Cannot use null bound"));
+        Object high = normalize(Jsom.require(to, "Cannot use null bound"));
+        List<Object> result = new CompactList();
+        if (COMPARATOR.compare(low, high) < 0) {
+            for (Object bucket : sorted().subMap(low, true, high, false).values()) {
+                collect(bucket, result);
+            }
+        }
+        return Jsom.$(result);
+    }
+
+    /**
+     * @return Number of indexed elements
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuild the index from the list.
+     *
+     * @return self
+     */
+    public JsomIndex rebuild() {
+        buckets = new HashMap<>();
+        sorted = null;
+        size = 0;
+        for (Object element : elements) {
+            added(element);
+        }
+        return this;
+    }
+
+    /**
+     * Index an element that was added to the list.
+     *
+     * @param element
+     */
+    void added(Object element) {
+        Object value = valueAt(element);
+        if (value == null) {
+            return;
+        }
+        Object bucket = buckets.get(value);
+        if (bucket == null) {
+            store(value, element);
+        } else if (bucket instanceof Duplicates) {
+            ((Duplicates) bucket).add(element);
+        } else {
+            Duplicates duplicates = new Duplicates();
+            duplicates.add(bucket);
+            duplicates.add(element);
+            store(value, duplicates);
+        }
+        ++size;
+    }
+
+    /**
+     * Unindex an element that was removed from the list.
+     *
+     * @param element
+     */
+    void removed(Object element) {
+        Object value = valueAt(element);
+        Object bucket = value == null ? null : buckets.get(value);
+        if (bucket == element) {
+            store(value, null);
+            --size;
+        } else if (bucket instanceof Duplicates) {
+            Duplicates duplicates = (Duplicates) bucket;
+            for (int i = 0; i < duplicates.size(); ++i) {
+                if (duplicates.get(i) == element) {
+                    duplicates.remove(i);
+                    if (duplicates.size() == 1) {
+                        store(value, duplicates.get(0));
+                    }
+                    --size;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Unindex all elements.
+     */
+    void cleared() {
+        buckets.clear();
+        sorted = null;
+        size = 0;
+    }
+
+    private NavigableMap<Object, Object> sorted() {
+        if (sorted == null) {
+            sorted = new TreeMap<>(COMPARATOR);
+            for (Map.Entry<Object, Object> entry : buckets.entrySet()) {
+                if (entry.getKey() instanceof Number) {
+                    sorted.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Set or remove (if bucket is null) the bucket of a value.
+     */
+    private void store(Object value, Object bucket) {
+        if (bucket == null) {
+            buckets.remove(value);
+        } else {
+            buckets.put(value, bucket);
+        }
+        if (sorted != null && value instanceof Number) {
+            if (bucket == null) {
+                sorted.remove(value);
+            } else {
+                sorted.put(value, bucket);
+            }
+        }
+    }
+
+    private Object valueAt(Object element) {
+        return element instanceof Map ? normalize(((Map<?, ?>) element).get(key)) : null;
+    }
+
+    private static void collect(Object bucket, List<Object> result) {
+        if (bucket instanceof Duplicates) {
+            result.addAll((Duplicates) bucket);
+        } else if (bucket != null) {
+            result.add(bucket);
+        }
+    }
+
+    /**
+     * Return integral numbers as Long and other numbers as Double, so equal
+     * numbers of different types are the same key.
+     *
+     * @param value
+     * @return
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+            return ((BigInteger) value).longValue();
+        } else if (value instanceof BigDecimal || value instanceof Number && !(value instanceof BigInteger)) {
+            double d = ((Number) value).doubleValue();
+            long l = (long) d;
+            return l == d && l != Long.MAX_VALUE && l != Long.MIN_VALUE ? (Object) l : (Object) d;
+        }
+        return value;
+    }
+
+    /**
+     * Elements sharing a value.
+     */
+    private static final class Duplicates extends ArrayList<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+    }
+
+    private static final Comparator<Object> COMPARATOR = (a, b) -> a instanceof Long && b instanceof Long
+            ? Long.compare((Long) a, (Long) b)
+            : Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+
+    private final String key;
+    private final List<Object> elements;
+    private Map<Object, Object> buckets;
+    private NavigableMap<Object, Object> sorted;
+    private int size;
+
+}
@@ -0,0 +1,259 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reader for newline delimited JSON (NDJSON, JSON Lines).
+ *
+ * Records are parsed one at a time as the stream is consumed, so memory is
+ * bounded by the longest line. Blank lines are skipped, and a trailing
+ * carriage return is ignored.
+ *
+ * Files are read with positional reads, so parallel streams split them into
+ * chunks on newline boundaries, which are read and parsed independently on
+ * the fork/join pool. Streams from an InputStream are read sequentially.
+ *
+ * Malformed lines result in an IllegalArgumentException naming the byte
+ * offset of the line, I/O errors in an UncheckedIOException.
+ */
+final class JsomLines implements Spliterator<Jsom> {
+
+    /**
+     * Stream the records of a file. Closing the stream closes the file.
+     *
+     * @param path
+     * @return
+     */
+    static Stream<Jsom> lines(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(Jsom.require(path, "Cannot read null path"),
+                    StandardOpenOption.READ);
+            try {
+                JsomLines lines = new JsomLines(null, channel, 0, channel.size());
+                return StreamSupport.stream(lines, false).onClose(() -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Stream the records of an input stream. The input stream is not
+     * closed.
+     *
+     * @param in
+     * @return
+     */
+    static Stream<Jsom> lines(InputStream in) {
+        return StreamSupport.stream(
+                new JsomLines(Jsom.require(in, "Cannot read from null"), null, 0, Long.MAX_VALUE), false);
+    }
+
+    private JsomLines(InputStream in, FileChannel channel, long start, long end) {
+        this.in = in;
+        this.channel = channel;
+        this.next = start;
+        this.end = end;
+        this.offset = start;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Jsom> action) {
+        while (true) {
+            int newline = Math.max(start, scanned);
+            while (newline < limit && buffer[newline] != '\n') {
+                ++newline;
+            }
+            if (newline == limit && !exhausted) {
+                scanned = newline;
+                fill();
+                continue;
+            }
+            if (start == limit) {
+                return false;
+            }
+            int lineStart = start;
+            int lineEnd = newline > lineStart && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+            long lineOffset = offset + lineStart;
+            start = Math.min(newline + 1, limit);
+            if (!isBlank(lineStart, lineEnd)) {
+                action.accept(Jsom.$(parse(lineStart, lineEnd, lineOffset)));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Split off the first half of the unread part of a file, ending after
+     * a newline.
+     */
+    @Override
+    public Spliterator<Jsom> trySplit() {
+        if (channel == null || start < limit || end - next < MIN_SPLIT) {
+            return null;
+        }
+        long split = nextLine(next + (end - next) / 2);
+        if (split < 0) {
+            return null;
+        }
+        JsomLines prefix = new JsomLines(null, channel, next, split);
+        next = split;
+        offset = split;
+        start = limit = scanned = 0;
+        return prefix;
+    }
+
+    /**
+     * @return The number of unread bytes of a file, or Long.MAX_VALUE
+     */
+    @Override
+    public long estimateSize() {
+        return channel == null ? Long.MAX_VALUE : end - next + limit - start;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    private Object parse(int from, int to, long lineOffset) {
+        try {
+            return JsomParser.parse(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Malformed JSON line at byte offset " + lineOffset + ": "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; ++i) {
+            byte b = buffer[i];
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read more input behind the unread bytes, growing the buffer if a line
+     * does not fit.
+     */
+    private void fill() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            offset += start;
+            limit -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int read;
+            if (channel != null) {
+                int length = (int) Math.min(buffer.length - limit, end - next);
+                read = length == 0 ? -1 : channel.read(ByteBuffer.wrap(buffer, limit, length), next);
+                if (read > 0) {
+                    next += read;
+                }
+            } else {
+                read = in.read(buffer, limit, buffer.length - limit);
+            }
+            if (read < 0) {
+                exhausted = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param from
+     * @return The file position after the first newline at or after from,
+     * or -1 if there is none before the end
+     */
+    private long nextLine(long from) {
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+        try {
+            for (long position = from; position < end; position += scan.limit()) {
+                scan.clear();
+                scan.limit((int) Math.min(SCAN_SIZE, end - position));
+                if (channel.read(scan, position) <= 0) {
+                    return -1;
+                }
+                scan.flip();
+                for (int i = 0; i < scan.limit(); ++i) {
+                    if (scan.get(i) == '\n') {
+                        long split = position + i + 1;
+                        return split < end ? split : -1;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return -1;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int SCAN_SIZE = 1 << 12;
+
+    /**
+     * File parts smaller than this are not split further.
+     */
+    private static final long MIN_SPLIT = 1 << 20;
+
+    private final InputStream in;
+    private final FileChannel channel;
+
+    /**
+     * File position of the next read.
+     */
+    private long next;
+
+    /**
+     * End of the file part.
+     */
+    private final long end;
+
+    /**
+     * Input offset of buffer[0].
+     */
+    private long offset;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int start;
+    private int limit;
+
+    /**
+     * Position up to which the buffer holds no newline after start.
+     */
+    private int scanned;
+    private boolean exhausted;
+
+}
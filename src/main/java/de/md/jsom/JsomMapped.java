@@ -0,0 +1,478 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Lazy read-only view of a memory-mapped JSON file.
+ *
+ * The file is mapped in segments of up to 1 GB, so files beyond 2 GB work.
+ * Maps and lists are represented by their byte offset only. When one is
+ * first read, a single scan over its bytes builds its structural index: the
+ * keys and the offsets of the member values, skipping nested containers by
+ * bracket counting without parsing them. Member values are materialized when
+ * they are first reached and kept: scalars are parsed, containers become
+ * further lazy views. Time and heap are thus proportional to the containers
+ * actually touched, while the operating system pages in the file as needed.
+ *
+ * Syntax is checked as far as it is scanned, so malformed input results in
+ * an IllegalArgumentException when the affected container is reached. The
+ * file must not be modified while the view is in use. Maps and lists are
+ * unmodifiable and can be read by any number of threads.
+ *
+ * @see Jsom#mmap(Path)
+ */
+final class JsomMapped {
+
+    /**
+     * Map a file and return its root value, lazily if it is a map or list.
+     *
+     * @param path
+     * @return
+     */
+    static Object map(Path path) {
+        try (FileChannel channel = FileChannel.open(Jsom.require(path, "Cannot map null path"),
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; ++i) {
+                long position = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(SEGMENT_SIZE, length - position));
+            }
+            JsomMapped file = new JsomMapped(segments, length);
+            return file.value(file.skipWhitespace(0));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private JsomMapped(MappedByteBuffer[] segments, long length) {
+        this.segments = segments;
+        this.length = length;
+    }
+
+    /**
+     * Materialize the value at an offset.
+     *
+     * @param position
+     * @return
+     */
+    private Object value(long position) {
+        switch (at(position)) {
+            case '{':
+                return new MappedMap(position);
+            case '[':
+                return new MappedList(position);
+            case '"':
+                return readString(position);
+            case 't':
+                return literal(position, "true", Boolean.TRUE);
+            case 'f':
+                return literal(position, "false", Boolean.FALSE);
+            case 'n':
+                return literal(position, "null", null);
+            default:
+                return readNumber(position);
+        }
+    }
+
+    private Object literal(long position, String literal, Object value) {
+        long end = skipScalar(position);
+        if (end - position != literal.length()) {
+            throw unexpected(position);
+        }
+        for (int i = 0; i < literal.length(); ++i) {
+            if (at(position + i) != literal.charAt(i)) {
+                throw unexpected(position + i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Read a string starting at its opening quote. Strings with escapes are
+     * handed to the parser.
+     *
+     * @param position
+     * @return
+     */
+    private String readString(long position) {
+        long end = skipString(position);
+        byte[] bytes = bytes(position, end);
+        for (int i = 1; i < bytes.length - 1; ++i) {
+            if (bytes[i] == '\\' || (bytes[i] & 0xff) < 0x20) {
+                return (String) parse(bytes, position);
+            }
+        }
+        return new String(bytes, 1, bytes.length - 2, StandardCharsets.UTF_8);
+    }
+
+    private Number readNumber(long position) {
+        long end = skipScalar(position);
+        if (end == position) {
+            throw unexpected(position);
+        }
+        Object number = parse(bytes(position, end), position);
+        if (!(number instanceof Number)) {
+            throw unexpected(position);
+        }
+        return (Number) number;
+    }
+
+    private Object parse(byte[] bytes, long position) {
+        try {
+            return JsomParser.parse(new String(bytes, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Malformed value at offset " + position + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    /**
+     * @param position Offset of a value
+     * @return The offset after the value
+     */
+    private long skipValue(long position) {
+        byte c = at(position);
+        if (c == '"') {
+            return skipString(position);
+        } else if (c != '{' && c != '[') {
+            long end = skipScalar(position);
+            if (end == position) {
+                throw unexpected(position);
+            }
+            return end;
+        }
+        int depth = 0;
+        while (position < length) {
+            c = at(position);
+            if (c == '"') {
+                position = skipString(position);
+                continue;
+            } else if (c == '{' || c == '[') {
+                ++depth;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return position + 1;
+            }
+            ++position;
+        }
+        throw unexpected(position);
+    }
+
+    /**
+     * @param position Offset of an opening quote
+     * @return The offset after the closing quote
+     */
+    private long skipString(long position) {
+        ++position;
+        while (position < length) {
+            byte c = at(position++);
+            if (c == '"') {
+                return position;
+            } else if (c == '\\') {
+                ++position;
+            }
+        }
+        throw unexpected(length);
+    }
+
+    private long skipScalar(long position) {
+        while (position < length) {
+            byte c = at(position);
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\n' || c == '\r'
+                    || c == '\t') {
+                break;
+            }
+            ++position;
+        }
+        return position;
+    }
+
+    private long skipWhitespace(long position) {
+        while (position < length) {
+            byte c = at(position);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            ++position;
+        }
+        return position;
+    }
+
+    /**
+     * @param position
+     * @return The byte at an offset, or 0 at or after the end
+     */
+    private byte at(long position) {
+        return position < length
+                ? segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1))) : 0;
+    }
+
+    private byte[] bytes(long from, long to) {
+        byte[] bytes = new byte[(int) (to - from)];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = at(from + i);
+        }
+        return bytes;
+    }
+
+    private IllegalArgumentException unexpected(long position) {
+        if (position < length) {
+            return new IllegalArgumentException("Unexpected character '" + (char) (at(position) & 0xff)
+                    + "' at offset " + position);
+        }
+        return new IllegalArgumentException("Unexpected end of input at offset " + position);
+    }
+
+    /**
+     * Structural index of a container: its keys (for maps), the offsets of
+     * its member values, and the values materialized so far.
+     */
+    private static final class Index {
+
+        Index(String[] keys, long[] offsets, int size, Map<String, Integer> positions) {
+            this.keys = keys;
+            this.offsets = offsets;
+            this.values = new Object[size];
+            Arrays.fill(values, UNREAD);
+            this.positions = size > LINEAR_LOOKUP ? positions : null;
+        }
+
+        int find(Object key) {
+            if (positions != null) {
+                Integer i = positions.get(key);
+                return i != null ? i : -1;
+            }
+            for (int i = 0; i < values.length; ++i) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        final String[] keys;
+        final long[] offsets;
+        final Object[] values;
+        private final Map<String, Integer> positions;
+
+    }
+
+    /**
+     * Offset and index of a lazy container.
+     */
+    private final class Node {
+
+        Node(long position) {
+            this.position = position;
+        }
+
+        Index index() {
+            Index result = index;
+            return result != null ? result : (index = scan());
+        }
+
+        Object get(Index index, int i) {
+            Object value = index.values[i];
+            if (value == UNREAD) {
+                value = value(index.offsets[i]);
+                index.values[i] = value;
+            }
+            return value;
+        }
+
+        /**
+         * Scan the members of this container. Keys of maps are also
+         * collected in a HashMap, which detects duplicates and serves
+         * lookups in larger maps.
+         *
+         * @return
+         */
+        private Index scan() {
+            boolean map = at(position) == '{';
+            byte close = (byte) (map ? '}' : ']');
+            String[] keys = map ? new String[INITIAL_CAPACITY] : null;
+            long[] offsets = new long[INITIAL_CAPACITY];
+            Map<String, Integer> seen = map ? new HashMap<>() : null;
+            int size = 0;
+            long p = skipWhitespace(position + 1);
+            if (at(p) == close) {
+                return new Index(keys, offsets, 0, null);
+            }
+            while (true) {
+                String key = null;
+                if (map) {
+                    if (at(p) != '"') {
+                        throw unexpected(p);
+                    }
+                    key = readString(p);
+                    p = skipWhitespace(skipString(p));
+                    if (at(p) != ':') {
+                        throw unexpected(p);
+                    }
+                    p = skipWhitespace(p + 1);
+                }
+                long offset = p;
+                p = skipWhitespace(skipValue(p));
+                Integer previous = map ? seen.putIfAbsent(key, size) : null;
+                if (previous != null) {
+                    // Later duplicates win, as when parsing
+                    offsets[previous] = offset;
+                } else {
+                    if (size == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, size * 2);
+                        keys = map ? Arrays.copyOf(keys, size * 2) : null;
+                    }
+                    if (map) {
+                        keys[size] = key;
+                    }
+                    offsets[size++] = offset;
+                }
+                byte c = at(p);
+                if (c == close) {
+                    return new Index(keys, offsets, size, seen);
+                } else if (c != ',') {
+                    throw unexpected(p);
+                }
+                p = skipWhitespace(p + 1);
+            }
+        }
+
+        private final long position;
+        private volatile Index index;
+
+    }
+
+    /**
+     * Lazy map.
+     */
+    private final class MappedMap extends AbstractMap<String, Object> {
+
+        MappedMap(long position) {
+            this.node = new Node(position);
+        }
+
+        @Override
+        public Object get(Object key) {
+            Index index = node.index();
+            int i = index.find(key);
+            return i >= 0 ? node.get(index, i) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return node.index().find(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return node.index().values.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Index index = node.index();
+                    return new Iterator<Entry<String, Object>>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < index.values.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Object value = node.get(index, i);
+                            return new SimpleImmutableEntry<>(index.keys[i++], value);
+                        }
+
+                        private int i;
+
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MappedMap.this.size();
+                }
+
+            };
+        }
+
+        private final Node node;
+
+    }
+
+    /**
+     * Lazy list.
+     */
+    private final class MappedList extends AbstractList<Object> implements RandomAccess {
+
+        MappedList(long position) {
+            this.node = new Node(position);
+        }
+
+        @Override
+        public Object get(int i) {
+            Index index = node.index();
+            if (i < 0 || i >= index.values.length) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + index.values.length);
+            }
+            return node.get(index, i);
+        }
+
+        @Override
+        public int size() {
+            return node.index().values.length;
+        }
+
+        private final Node node;
+
+    }
+
+    /**
+     * Marker for values not materialized yet.
+     */
+    private static final Object UNREAD = new Object();
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Maps with up to this many keys are searched linearly.
+     */
+    private static final int LINEAR_LOOKUP = 8;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+
+}
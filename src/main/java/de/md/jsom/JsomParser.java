@@ -0,0 +1,693 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON parser producing the plain structures Jsom works on.
+ *
+ * Objects become CompactMaps, arrays become CompactLists, integral
+ * numbers become Integer, Long or BigInteger (the smallest that fits), other
+ * numbers become Double. Parsing is iterative, so deeply nested input cannot
+ * overflow the stack.
+ *
+ * Given a JsomSelection, only the selected parts of the input are built.
+ * Everything else is skipped lexically: keys are matched against the
+ * selection in the buffer, and skipped values are only checked for closed
+ * strings and balanced brackets, without creating any objects. Maps keep
+ * the selected keys only. Lists keep their length, with null in place of
+ * unselected elements, so that indices stay valid.
+ *
+ * Input is read through a per-thread char buffer that is reused across
+ * parses. Malformed input results in an IllegalArgumentException, I/O errors
+ * in an UncheckedIOException.
+ *
+ * Not thread-safe; each parse uses its own instance.
+ */
+final class JsomParser {
+
+    /**
+     * Parse a complete JSON text.
+     *
+     * @param input
+     * @return The parsed value
+     */
+    static Object parse(CharSequence input) {
+        return new JsomParser(null, require(input), null).parseDocument();
+    }
+
+    /**
+     * Parse the selected parts of a complete JSON text.
+     *
+     * @param input
+     * @param selection
+     * @return The parsed value, or null if the root is not selected
+     */
+    static Object parse(CharSequence input, JsomSelection selection) {
+        return new JsomParser(null, require(input), Jsom.require(selection, "Cannot parse with null selection"))
+                .parseDocument();
+    }
+
+    /**
+     * Parse a complete JSON text from a reader. The reader is not closed.
+     *
+     * @param reader
+     * @return The parsed value
+     */
+    static Object parse(Reader reader) {
+        return new JsomParser(require(reader), null, null).parseDocument();
+    }
+
+    /**
+     * Parse the selected parts of a complete JSON text from a reader. The
+     * reader is not closed.
+     *
+     * @param reader
+     * @param selection
+     * @return The parsed value, or null if the root is not selected
+     */
+    static Object parse(Reader reader, JsomSelection selection) {
+        return new JsomParser(require(reader), null, Jsom.require(selection, "Cannot parse with null selection"))
+                .parseDocument();
+    }
+
+    private JsomParser(Reader reader, CharSequence input, JsomSelection selection) {
+        this.reader = reader;
+        this.input = input;
+        this.selection = selection;
+    }
+
+    /**
+     * Parse exactly one value, surrounded by optional whitespace.
+     *
+     * @return
+     */
+    private Object parseDocument() {
+        buffer = BUFFERS.get();
+        if (buffer == null) {
+            // re-entrant use on this thread, e.g. from a custom Reader
+            buffer = new char[BUFFER_SIZE];
+        } else {
+            BUFFERS.set(null);
+        }
+        try {
+            Object value = parseValue();
+            if (skipWhitespace()) {
+                throw unexpected();
+            }
+            return value;
+        } finally {
+            BUFFERS.set(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Parse a value iteratively, keeping open containers on an explicit stack.
+     *
+     * With a selection, the scope of the next value is null if it is
+     * selected entirely, SKIP if it is not selected, and its selection
+     * otherwise. The scopes of open containers are kept on a parallel stack.
+     *
+     * @return
+     */
+    private Object parseValue() {
+        Object[] containers = new Object[16];
+        String[] keys = new String[16];
+        JsomSelection[] scopes = selection != null ? new JsomSelection[16] : null;
+        JsomSelection scope = selection != null ? scope(selection) : null;
+        int depth = 0;
+
+        while (true) {
+            Object value;
+            if (!skipWhitespace()) {
+                throw unexpected();
+            }
+            char c = buffer[position];
+            if (scope != null && (scope == SKIP || (c != '{' && c != '['))) {
+                // scalars are only selected entirely
+                skipValue();
+                value = SKIPPED;
+            } else {
+                switch (c) {
+                    case '{':
+                        ++position;
+                        Map<String, Object> map = new CompactMap();
+                        if (skipWhitespace() && buffer[position] == '}') {
+                            ++position;
+                            value = map;
+                            break;
+                        }
+                        if (depth == containers.length) {
+                            containers = Arrays.copyOf(containers, depth * 2);
+                            keys = Arrays.copyOf(keys, depth * 2);
+                            scopes = scopes != null ? Arrays.copyOf(scopes, depth * 2) : null;
+                        }
+                        containers[depth] = map;
+                        if (scopes == null) {
+                            keys[depth++] = readKey();
+                        } else {
+                            scopes[depth] = scope;
+                            scope = readMember(scope, keys, depth++);
+                        }
+                        continue;
+                    case '[':
+                        ++position;
+                        List<Object> list = new CompactList();
+                        if (skipWhitespace() && buffer[position] == ']') {
+                            ++position;
+                            value = list;
+                            break;
+                        }
+                        if (depth == containers.length) {
+                            containers = Arrays.copyOf(containers, depth * 2);
+                            keys = Arrays.copyOf(keys, depth * 2);
+                            scopes = scopes != null ? Arrays.copyOf(scopes, depth * 2) : null;
+                        }
+                        if (scopes != null) {
+                            scopes[depth] = scope;
+                            scope = scope != null ? scope(scope.element(0)) : null;
+                        }
+                        containers[depth++] = list;
+                        continue;
+                    case '"':
+                        ++position;
+                        value = readString();
+                        break;
+                    case 't':
+                        readLiteral("true");
+                        value = Boolean.TRUE;
+                        break;
+                    case 'f':
+                        readLiteral("false");
+                        value = Boolean.FALSE;
+                        break;
+                    case 'n':
+                        readLiteral("null");
+                        value = null;
+                        break;
+                    default:
+                        if (c == '-' || (c >= '0' && c <= '9')) {
+                            value = readNumber();
+                            break;
+                        }
+                        throw unexpected();
+                }
+            }
+
+            // attach completed values to their containers, closing as needed
+            while (true) {
+                if (depth == 0) {
+                    return value != SKIPPED ? value : null;
+                }
+                Object container = containers[depth - 1];
+                boolean isMap = container instanceof Map;
+                if (isMap) {
+                    if (value != SKIPPED) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) container;
+                        map.put(keys[depth - 1], value);
+                    }
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Object> list = (List<Object>) container;
+                    list.add(value != SKIPPED ? value : null);
+                }
+                if (!skipWhitespace()) {
+                    throw unexpected();
+                }
+                c = buffer[position++];
+                if (c == ',') {
+                    if (scopes == null) {
+                        if (isMap) {
+                            keys[depth - 1] = readKey();
+                        }
+                    } else {
+                        JsomSelection parent = scopes[depth - 1];
+                        if (isMap) {
+                            scope = readMember(parent, keys, depth - 1);
+                        } else {
+                            scope = parent != null ? scope(parent.element(((List<?>) container).size())) : null;
+                        }
+                    }
+                    break;
+                } else if (c == (isMap ? '}' : ']')) {
+                    value = container;
+                    containers[--depth] = null;
+                    if (scopes != null) {
+                        scopes[depth] = null;
+                    }
+                } else {
+                    --position;
+                    throw unexpected();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an object key including the following colon.
+     *
+     * @return
+     */
+    private String readKey() {
+        if (!skipWhitespace() || buffer[position] != '"') {
+            throw unexpected();
+        }
+        ++position;
+        String key = readString();
+        if (!skipWhitespace() || buffer[position] != ':') {
+            throw unexpected();
+        }
+        ++position;
+        return key;
+    }
+
+    /**
+     * Read an object key including the following colon, and find the scope
+     * of its value. Keys without escapes are looked up in the buffer and
+     * only created if they are selected.
+     *
+     * @param parent The scope of the map
+     * @param keys
+     * @param index Where to store the key
+     * @return The scope of the value
+     */
+    private JsomSelection readMember(JsomSelection parent, String[] keys, int index) {
+        if (parent == null) {
+            keys[index] = readKey();
+            return null;
+        }
+        if (!skipWhitespace() || buffer[position] != '"') {
+            throw unexpected();
+        }
+        int start = ++position;
+        JsomSelection child = null;
+        boolean found = false;
+        while (position < limit) {
+            char c = buffer[position];
+            if (c == '"') {
+                child = parent.member(buffer, start, position);
+                keys[index] = child != null ? new String(buffer, start, position - start) : null;
+                ++position;
+                found = true;
+                break;
+            } else if (c == '\\' || c < 0x20) {
+                break;
+            }
+            ++position;
+        }
+        if (!found) {
+            position = start;
+            keys[index] = readString();
+            child = parent.member(keys[index]);
+        }
+        if (!skipWhitespace() || buffer[position] != ':') {
+            throw unexpected();
+        }
+        ++position;
+        return scope(child);
+    }
+
+    /**
+     * @param selection
+     * @return The scope of a value with a selection, which may be null
+     */
+    private static JsomSelection scope(JsomSelection selection) {
+        return selection == null || selection.isEmpty() ? SKIP : selection.isAll() ? null : selection;
+    }
+
+    /**
+     * Read a string after its opening quote.
+     *
+     * Unescaped strings that fit into the buffer are created directly from
+     * it, everything else goes through the scratch builder.
+     *
+     * @return
+     */
+    private String readString() {
+        int start = position;
+        while (position < limit) {
+            char c = buffer[position];
+            if (c == '"') {
+                return new String(buffer, start, position++ - start);
+            } else if (c == '\\' || c < 0x20) {
+                break;
+            }
+            ++position;
+        }
+
+        scratch.setLength(0);
+        scratch.append(buffer, start, position - start);
+        while (true) {
+            if (position == limit && !fill()) {
+                throw unexpected();
+            }
+            char c = buffer[position++];
+            if (c == '"') {
+                return scratch.toString();
+            } else if (c == '\\') {
+                scratch.append(readEscape());
+            } else if (c < 0x20) {
+                --position;
+                throw unexpected();
+            } else {
+                scratch.append(c);
+            }
+        }
+    }
+
+    /**
+     * Read an escape sequence after its backslash.
+     *
+     * @return
+     */
+    private char readEscape() {
+        char c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; ++i) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        --position;
+                        throw unexpected();
+                    }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                --position;
+                throw unexpected();
+        }
+    }
+
+    /**
+     * Read a number. Integers with up to 18 digits are accumulated directly,
+     * everything else is collected in the scratch builder first.
+     *
+     * @return
+     */
+    private Number readNumber() {
+        scratch.setLength(0);
+        boolean negative = peek() == '-';
+        if (negative) {
+            scratch.append(read());
+        }
+
+        long accumulator = 0;
+        int digits = 0;
+        char c = peek();
+        if (c == '0') {
+            scratch.append(read());
+            digits = 1;
+        } else {
+            while (c >= '0' && c <= '9') {
+                accumulator = accumulator * 10 + (c - '0');
+                scratch.append(c);
+                ++position;
+                ++digits;
+                c = peek();
+            }
+        }
+        if (digits == 0) {
+            throw unexpected();
+        }
+
+        c = peek();
+        boolean integral = true;
+        if (c == '.') {
+            integral = false;
+            scratch.append(read());
+            readDigits();
+            c = peek();
+        }
+        if (c == 'e' || c == 'E') {
+            integral = false;
+            scratch.append(read());
+            c = peek();
+            if (c == '+' || c == '-') {
+                scratch.append(read());
+            }
+            readDigits();
+        }
+
+        if (!integral) {
+            return Double.parseDouble(scratch.toString());
+        } else if (digits <= 18) {
+            return narrow(negative ? -accumulator : accumulator);
+        } else {
+            return narrow(new BigInteger(scratch.toString()));
+        }
+    }
+
+    /**
+     * Read at least one digit into the scratch builder.
+     */
+    private void readDigits() {
+        char c = peek();
+        if (c < '0' || c > '9') {
+            throw unexpected();
+        }
+        do {
+            scratch.append(c);
+            ++position;
+            c = peek();
+        } while (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Read an expected literal.
+     *
+     * @param literal
+     */
+    private void readLiteral(String literal) {
+        for (int i = 0; i < literal.length(); ++i) {
+            if (position == limit && !fill() || buffer[position] != literal.charAt(i)) {
+                throw unexpected();
+            }
+            ++position;
+        }
+    }
+
+    /**
+     * Skip a value without building it. Strings must be closed and brackets
+     * balanced, nothing else is checked.
+     */
+    private void skipValue() {
+        char c = buffer[position];
+        if (c == ',' || c == ':' || c == '}' || c == ']') {
+            throw unexpected();
+        } else if (c == '"') {
+            ++position;
+            skipString();
+            return;
+        } else if (c != '{' && c != '[') {
+            do {
+                ++position;
+                c = peek();
+            } while (c != 0 && c != ',' && c != '}' && c != ']' && c != ':' && c != ' ' && c != '\n'
+                    && c != '\r' && c != '\t');
+            return;
+        }
+        int depth = 0;
+        while (true) {
+            while (position < limit) {
+                c = buffer[position++];
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    ++depth;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return;
+                }
+            }
+            if (!fill()) {
+                throw unexpected();
+            }
+        }
+    }
+
+    /**
+     * Skip a string after its opening quote.
+     */
+    private void skipString() {
+        while (true) {
+            while (position < limit) {
+                char c = buffer[position++];
+                if (c == '"') {
+                    return;
+                } else if (c == '\\') {
+                    read();
+                }
+            }
+            if (!fill()) {
+                throw unexpected();
+            }
+        }
+    }
+
+    /**
+     * Skip whitespace.
+     *
+     * @return False if the end of input has been reached
+     */
+    private boolean skipWhitespace() {
+        while (true) {
+            while (position < limit) {
+                char c = buffer[position];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return true;
+                }
+                ++position;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Return the next character without consuming it, or 0 at end of input.
+     *
+     * @return
+     */
+    private char peek() {
+        return position < limit || fill() ? buffer[position] : 0;
+    }
+
+    /**
+     * Consume and return the next character.
+     *
+     * @return
+     */
+    private char read() {
+        if (position == limit && !fill()) {
+            throw unexpected();
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Refill the buffer from the input.
+     *
+     * @return False if the end of input has been reached
+     */
+    private boolean fill() {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        if (reader != null) {
+            try {
+                int read;
+                do {
+                    read = reader.read(buffer, 0, buffer.length);
+                } while (read == 0);
+                if (read > 0) {
+                    limit = read;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        } else {
+            int length = Math.min(buffer.length, input.length() - inputPosition);
+            if (input instanceof String) {
+                ((String) input).getChars(inputPosition, inputPosition + length, buffer, 0);
+            } else {
+                for (int i = 0; i < length; ++i) {
+                    buffer[i] = input.charAt(inputPosition + i);
+                }
+            }
+            inputPosition += length;
+            limit = length;
+        }
+        return limit > 0;
+    }
+
+    /**
+     * Create an exception for the character at the current position.
+     *
+     * @return
+     */
+    private IllegalArgumentException unexpected() {
+        long at = offset + position;
+        if (position < limit) {
+            return new IllegalArgumentException("Unexpected character '" + buffer[position]
+                    + "' at offset " + at);
+        }
+        return new IllegalArgumentException("Unexpected end of input at offset " + at);
+    }
+
+    /**
+     * Return the smallest of Integer and Long that holds the value.
+     *
+     * @param value
+     * @return
+     */
+    static Number narrow(long value) {
+        return value == (int) value ? (Number) (int) value : (Number) value;
+    }
+
+    /**
+     * Return the smallest of Integer, Long and BigInteger that holds the
+     * value.
+     *
+     * @param value
+     * @return
+     */
+    static Number narrow(BigInteger value) {
+        return value.bitLength() < 64 ? narrow(value.longValue()) : value;
+    }
+
+    private static <T> T require(T input) {
+        return Jsom.require(input, "Cannot parse null");
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Scope of values that are not selected.
+     */
+    private static final JsomSelection SKIP = JsomSelection.compile();
+
+    /**
+     * Marker for skipped values.
+     */
+    private static final Object SKIPPED = new Object();
+
+    /**
+     * Per-thread char buffers, taken out while a parse is running.
+     */
+    private static final ThreadLocal<char[]> BUFFERS
+            = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+    private final Reader reader;
+    private final CharSequence input;
+    private final JsomSelection selection;
+    private final StringBuilder scratch = new StringBuilder();
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private int inputPosition;
+    private long offset;
+
+}
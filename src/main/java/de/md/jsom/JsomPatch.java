@@ -0,0 +1,486 @@
+package de.md.jsom;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * JSON Merge Patch (RFC 7396) and JSON Patch (RFC 6902) engine.
+ *
+ * Both work in place on the raw Maps and Lists in a single pass, without
+ * creating Jsom instances. Values of the patch are inserted by reference.
+ *
+ * JSON Patches are atomic. All operations are validated up front, and test
+ * operations whose paths are not touched by preceding operations are
+ * evaluated before anything is modified. Every modification is recorded in
+ * an undo log, so a failing operation rolls back all preceding ones; map
+ * entries restored by a rollback may change position. Consecutive
+ * operations on the same parent container resolve it only once.
+ *
+ * Invalid patches and failing operations throw an IllegalArgumentException.
+ */
+final class JsomPatch {
+
+    /**
+     * Apply a JSON Merge Patch.
+     *
+     * @param target
+     * @param patch
+     * @return The result, which is target unless the patch replaces it
+     */
+    static Object mergePatch(Object target, Object patch) {
+        target = Jsom.valueOf(target);
+        patch = Jsom.valueOf(patch);
+        if (!(patch instanceof Map)) {
+            return patch;
+        }
+        Object root = target instanceof Map ? target : new CompactMap();
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        stack.push(patch);
+        while (!stack.isEmpty()) {
+            Map<?, ?> changes = (Map<?, ?>) stack.pop();
+            Map<String, Object> map = asMap(stack.pop());
+            for (Entry<?, ?> entry : changes.entrySet()) {
+                String key = (String) entry.getKey();
+                Object value = entry.getValue();
+                if (value == null) {
+                    map.remove(key);
+                } else if (value instanceof Map) {
+                    Object child = map.get(key);
+                    if (!(child instanceof Map)) {
+                        child = new CompactMap();
+                        map.put(key, child);
+                    }
+                    stack.push(child);
+                    stack.push(value);
+                } else {
+                    map.put(key, value);
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Apply a JSON Patch.
+     *
+     * @param root
+     * @param operations A list of operation maps
+     * @return The result, which is root unless the patch replaces it
+     */
+    static Object applyPatch(Object root, Object operations) {
+        List<Operation> compiled = compile(Jsom.valueOf(operations));
+        Patcher patcher = new Patcher(Jsom.valueOf(root));
+        pretest(patcher, compiled);
+        try {
+            for (Operation operation : compiled) {
+                patcher.apply(operation);
+            }
+        } catch (RuntimeException e) {
+            patcher.rollback();
+            throw e;
+        }
+        return patcher.root;
+    }
+
+    /**
+     * Compare two values as JSON: numbers by value regardless of type, maps
+     * regardless of key order.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    static boolean equal(Object a, Object b) {
+        a = Jsom.valueOf(a);
+        b = Jsom.valueOf(b);
+        if (a == b) {
+            return true;
+        } else if (a instanceof Number && b instanceof Number) {
+            return equalNumbers((Number) a, (Number) b);
+        } else if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> x = (Map<?, ?>) a;
+            Map<?, ?> y = (Map<?, ?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            for (Entry<?, ?> entry : x.entrySet()) {
+                Object other = y.get(entry.getKey());
+                if (!equal(entry.getValue(), other) || other == null && !y.containsKey(entry.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof List && b instanceof List) {
+            List<?> x = (List<?>) a;
+            List<?> y = (List<?>) b;
+            if (x.size() != y.size()) {
+                return false;
+            }
+            Iterator<?> i = x.iterator();
+            Iterator<?> j = y.iterator();
+            while (i.hasNext()) {
+                if (!equal(i.next(), j.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a != null && a.equals(b);
+    }
+
+    private static boolean equalNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return a.longValue() == b.longValue();
+        } else if (isFloating(a) && isFloating(b)) {
+            return a.doubleValue() == b.doubleValue();
+        } else if (isFloating(a) && !Double.isFinite(a.doubleValue())
+                || isFloating(b) && !Double.isFinite(b.doubleValue())) {
+            return false;
+        }
+        return toBigDecimal(a).compareTo(toBigDecimal(b)) == 0;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    private static boolean isFloating(Number number) {
+        return number instanceof Double || number instanceof Float;
+    }
+
+    private static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        } else if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        } else if (isFloating(number)) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    /**
+     * Validate and compile operations.
+     */
+    private static List<Operation> compile(Object operations) {
+        if (!(operations instanceof List)) {
+            throw new IllegalArgumentException("JSON Patch must be a list, not " + Jsom.typeOf(operations));
+        }
+        List<Operation> compiled = new ArrayList<>(((List<?>) operations).size());
+        for (Object operation : (List<?>) operations) {
+            compiled.add(new Operation(compiled.size(), operation));
+        }
+        return compiled;
+    }
+
+    /**
+     * Evaluate test operations that do not depend on preceding operations
+     * before modifying anything.
+     */
+    private static void pretest(Patcher patcher, List<Operation> operations) {
+        List<Operation> modifying = new ArrayList<>();
+        for (Operation operation : operations) {
+            if (operation.type != Type.TEST) {
+                modifying.add(operation);
+            } else if (!dependsOn(operation.path, modifying)) {
+                patcher.test(operation);
+                operation.tested = true;
+            }
+        }
+    }
+
+    /**
+     * Check conservatively whether the value at path may be changed by any
+     * of the operations. Operations on list elements shift their siblings,
+     * so everything below the parent of a path ending in an index counts as
+     * changed.
+     */
+    private static boolean dependsOn(JsomPath path, List<Operation> operations) {
+        for (Operation operation : operations) {
+            if (affects(operation.path, path)
+                    || operation.type == Type.MOVE && affects(operation.from, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean affects(JsomPath modified, JsomPath path) {
+        int last = modified.size() - 1;
+        int prefix = last >= 0 && modified.index(last) != JsomPath.NOT_AN_INDEX ? last : modified.size();
+        return path.startsWith(modified, prefix) || modified.startsWith(path, path.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object map) {
+        return (Map<String, Object>) map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object list) {
+        return (List<Object>) list;
+    }
+
+    private enum Type {
+        ADD, REMOVE, REPLACE, MOVE, COPY, TEST
+    }
+
+    /**
+     * Validated operation.
+     */
+    private static final class Operation {
+
+        Operation(int position, Object operation) {
+            this.position = position;
+            if (!(operation instanceof Map)) {
+                throw invalid("must be a map, not " + Jsom.typeOf(operation));
+            }
+            Map<?, ?> map = (Map<?, ?>) operation;
+            Object op = map.get("op");
+            type = op instanceof String ? typeOf((String) op) : null;
+            if (type == null) {
+                throw invalid("has unknown op " + op);
+            }
+            path = pointer(map, "path");
+            from = type == Type.MOVE || type == Type.COPY ? pointer(map, "from") : null;
+            if ((type == Type.ADD || type == Type.REPLACE || type == Type.TEST) && !map.containsKey("value")) {
+                throw invalid("lacks value");
+            }
+            value = map.get("value");
+            if (type == Type.MOVE && path.size() > from.size() && path.startsWith(from, from.size())) {
+                throw invalid("moves " + from + " into itself");
+            }
+        }
+
+        private JsomPath pointer(Map<?, ?> map, String key) {
+            Object pointer = map.get(key);
+            if (!(pointer instanceof String)) {
+                throw invalid("lacks " + key);
+            }
+            return JsomPath.cached((String) pointer);
+        }
+
+        IllegalArgumentException invalid(String message) {
+            return new IllegalArgumentException("JSON Patch operation " + position + " " + message);
+        }
+
+        private static Type typeOf(String op) {
+            for (Type type : Type.values()) {
+                if (type.name().toLowerCase().equals(op)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        final int position;
+        final Type type;
+        final JsomPath path;
+        final JsomPath from;
+        final Object value;
+        boolean tested;
+
+    }
+
+    /**
+     * Applies operations and keeps the undo log.
+     */
+    private static final class Patcher {
+
+        Patcher(Object root) {
+            this.root = root;
+        }
+
+        void apply(Operation operation) {
+            current = operation;
+            switch (operation.type) {
+            case ADD:
+                add(operation.path, operation.value);
+                break;
+            case REMOVE:
+                remove(operation.path);
+                break;
+            case REPLACE:
+                replace(operation.path, operation.value);
+                break;
+            case MOVE:
+                if (!operation.from.equals(operation.path)) {
+                    add(operation.path, remove(operation.from));
+                }
+                break;
+            case COPY:
+                add(operation.path, JsomCloner.deepClone(get(operation.from)));
+                break;
+            case TEST:
+                if (!operation.tested) {
+                    test(operation);
+                }
+                break;
+            }
+        }
+
+        void test(Operation operation) {
+            current = operation;
+            if (!equal(get(operation.path), operation.value)) {
+                throw operation.invalid("failed: value at " + operation.path + " differs");
+            }
+        }
+
+        void rollback() {
+            while (!undo.isEmpty()) {
+                undo.pop().run();
+            }
+        }
+
+        private Object get(JsomPath path) {
+            Object value = root;
+            for (int i = 0; i < path.size(); ++i) {
+                value = child(value, path, i);
+            }
+            return value;
+        }
+
+        private void add(JsomPath path, Object value) {
+            if (path.size() == 0) {
+                setRoot(value);
+                return;
+            }
+            Object parent = parent(path);
+            int last = path.size() - 1;
+            if (parent instanceof Map) {
+                put(asMap(parent), path.token(last), value, false);
+            } else {
+                List<Object> list = asList(parent);
+                int index = path.index(last) == JsomPath.APPEND ? list.size() : path.index(last);
+                if (index < 0 || index > list.size()) {
+                    throw notFound(path);
+                }
+                list.add(index, value);
+                undo.push(() -> list.remove(index));
+            }
+        }
+
+        private Object remove(JsomPath path) {
+            if (path.size() == 0) {
+                throw current.invalid("cannot remove the root");
+            }
+            Object parent = parent(path);
+            int last = path.size() - 1;
+            if (parent instanceof Map) {
+                Map<String, Object> map = asMap(parent);
+                String key = path.token(last);
+                if (!map.containsKey(key)) {
+                    throw notFound(path);
+                }
+                Object previous = map.remove(key);
+                undo.push(() -> map.put(key, previous));
+                return previous;
+            }
+            List<Object> list = asList(parent);
+            int index = listIndex(list, path, last);
+            Object previous = list.remove(index);
+            undo.push(() -> list.add(index, previous));
+            return previous;
+        }
+
+        private void replace(JsomPath path, Object value) {
+            if (path.size() == 0) {
+                setRoot(value);
+                return;
+            }
+            Object parent = parent(path);
+            int last = path.size() - 1;
+            if (parent instanceof Map) {
+                put(asMap(parent), path.token(last), value, true);
+            } else {
+                List<Object> list = asList(parent);
+                int index = listIndex(list, path, last);
+                Object previous = list.set(index, value);
+                undo.push(() -> list.set(index, previous));
+            }
+        }
+
+        private void put(Map<String, Object> map, String key, Object value, boolean existing) {
+            boolean present = map.containsKey(key);
+            if (existing && !present) {
+                throw notFound(current.path);
+            }
+            Object previous = map.put(key, value);
+            undo.push(present ? () -> map.put(key, previous) : () -> map.remove(key));
+        }
+
+        private void setRoot(Object value) {
+            Object previous = root;
+            root = value;
+            cachedPath = null;
+            undo.push(() -> root = previous);
+        }
+
+        /**
+         * Resolve the container of the last token of path, reusing the
+         * container of the previous operation if it has the same parent.
+         */
+        private Object parent(JsomPath path) {
+            int length = path.size() - 1;
+            if (cachedPath == null || cachedPath.size() - 1 != length || !path.startsWith(cachedPath, length)) {
+                Object parent = root;
+                for (int i = 0; i < length; ++i) {
+                    parent = child(parent, path, i);
+                }
+                if (!(parent instanceof Map || parent instanceof List)) {
+                    throw notFound(path);
+                }
+                cachedPath = path;
+                cachedParent = parent;
+            }
+            return cachedParent;
+        }
+
+        private Object child(Object container, JsomPath path, int i) {
+            if (container instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) container;
+                Object child = map.get(path.token(i));
+                if (child == null && !map.containsKey(path.token(i))) {
+                    throw notFound(path);
+                }
+                return child;
+            } else if (container instanceof List) {
+                List<?> list = (List<?>) container;
+                return list.get(listIndex(list, path, i));
+            }
+            throw notFound(path);
+        }
+
+        private int listIndex(List<?> list, JsomPath path, int i) {
+            int index = path.index(i);
+            if (index < 0 || index >= list.size()) {
+                throw notFound(path);
+            }
+            return index;
+        }
+
+        private IllegalArgumentException notFound(JsomPath path) {
+            return current.invalid("failed: " + (path.size() == 0 ? "root" : path) + " does not exist");
+        }
+
+        private final Deque<Runnable> undo = new ArrayDeque<>();
+        private Object root;
+        private Operation current;
+        private JsomPath cachedPath;
+        private Object cachedParent;
+
+    }
+
+    private JsomPatch() {
+    }
+
+}
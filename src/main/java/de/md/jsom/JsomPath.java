@@ -0,0 +1,316 @@
+package de.md.jsom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled JSON Pointer (RFC 6901).
+ *
+ * Tokens are unescaped and array indices are parsed once at compile time.
+ * Resolution works directly on the raw Maps and Lists without creating Jsom
+ * instances. Compiled paths are immutable and can be shared between threads.
+ *
+ * Missing keys, out of range indices and null values on the way resolve to
+ * null. Stepping into a string, number or boolean throws a
+ * ClassCastException.
+ *
+ * <pre>
+ * JsomPath total = JsomPath.compile("/orders/0/total");
+ * double value = total.get(doc).toDouble();
+ * total.put(doc, 42);
+ * </pre>
+ *
+ * @see Jsom#at(String)
+ * @see Jsom#putAt(String, Object)
+ */
+public final class JsomPath {
+
+    /**
+     * Compile a JSON Pointer.
+     *
+     * @param pointer A JSON Pointer, e.g. "/orders/0/total"
+     * @return
+     * @throws IllegalArgumentException If the pointer is not empty and does
+     * not start with a slash
+     */
+    public static JsomPath compile(String pointer) {
+        Jsom.require(pointer, "Cannot compile null pointer");
+        if (pointer.isEmpty()) {
+            return new JsomPath(pointer, new String[0]);
+        } else if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("JSON Pointer must start with '/': " + pointer);
+        }
+        List<String> tokens = new ArrayList<>();
+        int start = 1;
+        while (true) {
+            int end = pointer.indexOf('/', start);
+            tokens.add(unescape(end < 0 ? pointer.substring(start) : pointer.substring(start, end)));
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        return new JsomPath(pointer, tokens.toArray(new String[tokens.size()]));
+    }
+
+    /**
+     * Compile a JSON Pointer, reusing a previously compiled instance if
+     * possible.
+     *
+     * @param pointer
+     * @return
+     */
+    static JsomPath cached(String pointer) {
+        JsomPath path = CACHE.get(Jsom.require(pointer, "Cannot compile null pointer"));
+        if (path == null) {
+            path = compile(pointer);
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CACHE.put(pointer, path);
+        }
+        return path;
+    }
+
+    /**
+     * Escape a key for use as a JSON Pointer token.
+     *
+     * @param key
+     * @return
+     */
+    public static String escape(String key) {
+        if (key.indexOf('~') < 0 && key.indexOf('/') < 0) {
+            return key;
+        }
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static String unescape(String token) {
+        if (token.indexOf('~') < 0) {
+            return token;
+        }
+        StringBuilder unescaped = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); ++i) {
+            char c = token.charAt(i);
+            if (c == '~') {
+                char next = ++i < token.length() ? token.charAt(i) : 0;
+                if (next == '0') {
+                    c = '~';
+                } else if (next == '1') {
+                    c = '/';
+                } else {
+                    throw new IllegalArgumentException("Invalid escape in JSON Pointer token: " + token);
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    private JsomPath(String pointer, String[] tokens) {
+        this.pointer = pointer;
+        this.tokens = tokens;
+        this.indices = new int[tokens.length];
+        for (int i = 0; i < tokens.length; ++i) {
+            indices[i] = indexOf(tokens[i]);
+        }
+    }
+
+    /**
+     * Resolve this path against a value.
+     *
+     * @param root
+     * @return A new Jsom instance for the resolved value
+     */
+    public Jsom get(Object root) {
+        return Jsom.$(resolve(root));
+    }
+
+    /**
+     * Resolve this path against a value without wrapping the result.
+     *
+     * @param root
+     * @return The raw resolved value, or null if it does not exist
+     */
+    public Object resolve(Object root) {
+        Object current = Jsom.valueOf(root);
+        for (int i = 0; i < tokens.length && current != null; ++i) {
+            current = child(current, i);
+        }
+        return current;
+    }
+
+    /**
+     * Put a value at this path, creating missing intermediate containers.
+     *
+     * Missing containers become lists if the following token is an index or
+     * "-", and maps otherwise. In lists, "-" or an index equal to the size
+     * appends, other indices replace.
+     *
+     * @param root
+     * @param value
+     * @throws IllegalArgumentException If this is the root path
+     */
+    public void put(Object root, Object value) {
+        if (tokens.length == 0) {
+            throw new IllegalArgumentException("Cannot put at root path");
+        }
+        Object current = Jsom.require(Jsom.valueOf(root), "Cannot put into null");
+        for (int i = 0; i < tokens.length - 1; ++i) {
+            Object next = child(current, i);
+            if (next == null) {
+                next = Jsom.valueOf(indices[i + 1] == NOT_AN_INDEX ? Jsom.map() : Jsom.list());
+                assign(current, i, next);
+            }
+            current = next;
+        }
+        assign(current, tokens.length - 1, Jsom.valueOf(value));
+    }
+
+    /**
+     * @return The number of tokens
+     */
+    public int size() {
+        return tokens.length;
+    }
+
+    /**
+     * @param index
+     * @return The unescaped token at index
+     */
+    public String token(int index) {
+        return tokens[index];
+    }
+
+    /**
+     * @param index
+     * @return The list index of the token at index, APPEND for "-" or
+     * NOT_AN_INDEX
+     */
+    int index(int index) {
+        return indices[index];
+    }
+
+    /**
+     * @param prefix
+     * @param length
+     * @return Whether the first length tokens equal those of prefix
+     */
+    boolean startsWith(JsomPath prefix, int length) {
+        if (length > tokens.length || length > prefix.tokens.length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (!tokens[i].equals(prefix.tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The JSON Pointer this path was compiled from
+     */
+    @Override
+    public String toString() {
+        return pointer;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JsomPath && ((JsomPath) other).pointer.equals(pointer);
+    }
+
+    @Override
+    public int hashCode() {
+        return pointer.hashCode();
+    }
+
+    /**
+     * Get the child selected by the token at i.
+     *
+     * @param container
+     * @param i
+     * @return
+     */
+    private Object child(Object container, int i) {
+        if (container instanceof Map) {
+            return ((Map<?, ?>) container).get(tokens[i]);
+        } else if (container instanceof List) {
+            List<?> list = (List<?>) container;
+            int index = listIndex(i);
+            return index >= 0 && index < list.size() ? list.get(index) : null;
+        }
+        throw new ClassCastException("Cannot resolve " + pointer + " through " + Jsom.typeOf(container));
+    }
+
+    /**
+     * Set the child selected by the token at i.
+     *
+     * @param container
+     * @param i
+     * @param value
+     */
+    @SuppressWarnings("unchecked")
+    private void assign(Object container, int i, Object value) {
+        if (container instanceof Map) {
+            ((Map<String, Object>) container).put(tokens[i], value);
+        } else if (container instanceof List) {
+            List<Object> list = (List<Object>) container;
+            int index = listIndex(i);
+            if (index == APPEND || index == list.size()) {
+                list.add(value);
+            } else {
+                list.set(index, value);
+            }
+        } else {
+            throw new ClassCastException("Cannot put " + pointer + " into " + Jsom.typeOf(container));
+        }
+    }
+
+    private int listIndex(int i) {
+        int index = indices[i];
+        if (index == NOT_AN_INDEX) {
+            throw new ClassCastException("Cannot use '" + tokens[i] + "' as list index in " + pointer);
+        }
+        return index;
+    }
+
+    /**
+     * Parse an array index token.
+     *
+     * @param token
+     * @return The index, APPEND for "-" or NOT_AN_INDEX
+     */
+    private static int indexOf(String token) {
+        if (token.equals("-")) {
+            return APPEND;
+        }
+        int length = token.length();
+        if (length == 0 || length > 9 || (length > 1 && token.charAt(0) == '0')) {
+            return NOT_AN_INDEX;
+        }
+        int index = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_AN_INDEX;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    static final int NOT_AN_INDEX = -1;
+    static final int APPEND = -2;
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<String, JsomPath> CACHE = new ConcurrentHashMap<>();
+
+    private final String pointer;
+    private final String[] tokens;
+    private final int[] indices;
+
+}
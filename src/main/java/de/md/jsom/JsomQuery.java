@@ -0,0 +1,762 @@
+package de.md.jsom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Compiled JSONPath query.
+ *
+ * Supports a common subset of JSONPath: the root $, children .name and
+ * ['name'], indices [0] and [-1], slices [1:3], wildcards .* and [*],
+ * recursive descent ..name and ..*, and filters [?(expression)]. Filter
+ * expressions compare @-relative paths and literals (numbers, quoted
+ * strings, true, false, null) with ==, !=, &lt;, &lt;=, &gt; and &gt;=,
+ * and combine them with &amp;&amp;, ||, ! and parentheses. A bare path
+ * tests for existence. Comparisons with missing values are false; numbers
+ * compare by value.
+ *
+ * Queries are compiled once into a plan of steps and predicates with keys
+ * and literals resolved up front. Evaluation works directly on the raw Maps
+ * and Lists and is lazy, so short-circuiting stream operations stop early.
+ * Compiled queries are immutable and can be shared between threads.
+ *
+ * <pre>
+ * JsomQuery open = JsomQuery.compile("$.orders[?(@.status=='open' &amp;&amp; @.total &gt; 100)].id");
+ * Jsom ids = open.stream(doc).collect(Jsom.TO_LIST);
+ * long count = open.parallel().rawStream(doc).count();
+ * </pre>
+ *
+ * @see Jsom#query(String)
+ */
+public final class JsomQuery {
+
+    /**
+     * Compile a JSONPath query.
+     *
+     * @param query A query starting with $, e.g. "$.orders[*].id"
+     * @return
+     * @throws IllegalArgumentException If the query is malformed
+     */
+    public static JsomQuery compile(String query) {
+        Jsom.require(query, "Cannot compile null query");
+        return new JsomQuery(query, new Compiler(query).compile(), false);
+    }
+
+    /**
+     * Compile a query, reusing a previously compiled instance if possible.
+     *
+     * @param query
+     * @return
+     */
+    static JsomQuery cached(String query) {
+        JsomQuery compiled = CACHE.get(Jsom.require(query, "Cannot compile null query"));
+        if (compiled == null) {
+            compiled = compile(query);
+            if (CACHE.size() >= CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CACHE.put(query, compiled);
+        }
+        return compiled;
+    }
+
+    private JsomQuery(String query, Step[] steps, boolean parallel) {
+        this.query = query;
+        this.steps = steps;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Return a variant of this query evaluating in parallel. The first
+     * wildcard or filter is split across threads over the elements it
+     * selects from; results are in no particular order unless the stream is
+     * collected in order.
+     *
+     * @return
+     */
+    public JsomQuery parallel() {
+        return parallel ? this : new JsomQuery(query, steps, true);
+    }
+
+    /**
+     * Evaluate this query against a value.
+     *
+     * @param root
+     * @return A stream of the matching values
+     */
+    public Stream<Jsom> stream(Object root) {
+        return rawStream(root).map(Jsom::$);
+    }
+
+    /**
+     * Evaluate this query against a value without wrapping the results.
+     *
+     * @param root
+     * @return A stream of the raw matching values
+     */
+    public Stream<Object> rawStream(Object root) {
+        Object value = Jsom.valueOf(root);
+        int i = 0;
+        Stream<Object> stream;
+        if (parallel) {
+            for (; i < steps.length && steps[i] instanceof Child; ++i) {
+                value = ((Child) steps[i]).child(value);
+                if (value == MISSING) {
+                    return Stream.empty();
+                }
+            }
+            Collection<Object> children = childrenOf(value);
+            if (i < steps.length && steps[i] instanceof Selection && children != null) {
+                stream = ((Selection) steps[i++]).select(
+                        StreamSupport.stream(IndexSpliterator.parallel(children), true));
+            } else {
+                stream = Stream.of(value).parallel();
+            }
+        } else {
+            stream = Stream.of(value);
+        }
+        for (; i < steps.length; ++i) {
+            stream = steps[i].apply(stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Evaluate this query and collect the results.
+     *
+     * @param root
+     * @return A new list of the matching values
+     */
+    public Jsom select(Object root) {
+        return rawStream(root).collect(JsomCollectors.toList());
+    }
+
+    /**
+     * @return The query this was compiled from
+     */
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JsomQuery && ((JsomQuery) other).query.equals(query)
+                && ((JsomQuery) other).parallel == parallel;
+    }
+
+    @Override
+    public int hashCode() {
+        return query.hashCode();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> childrenOf(Object node) {
+        if (node instanceof List) {
+            return (List<Object>) node;
+        } else if (node instanceof Map) {
+            return ((Map<String, Object>) node).values();
+        }
+        return null;
+    }
+
+    /**
+     * Replace each node by the elements of its expansion.
+     *
+     * Sequential streams are walked lazily without flatMap, which consumes
+     * its inner streams entirely before Java 10.
+     *
+     * @param nodes
+     * @param expansion Returns the elements of a node, or null for none
+     * @return
+     */
+    private static Stream<Object> expand(Stream<Object> nodes, Function<Object, Collection<Object>> expansion) {
+        if (nodes.isParallel()) {
+            return nodes.flatMap(node -> {
+                Collection<Object> elements = expansion.apply(node);
+                return elements == null ? Stream.empty() : elements.stream();
+            });
+        }
+        return StreamSupport.stream(new Expansion(nodes.iterator(), expansion), false).onClose(nodes::close);
+    }
+
+    /**
+     * A step of the plan, transforming the stream of current nodes.
+     */
+    private abstract static class Step {
+
+        abstract Stream<Object> apply(Stream<Object> nodes);
+
+    }
+
+    /**
+     * Step selecting at most one child per node.
+     */
+    private abstract static class Child extends Step {
+
+        /**
+         * @param node
+         * @return The child, or MISSING
+         */
+        abstract Object child(Object node);
+
+        @Override
+        Stream<Object> apply(Stream<Object> nodes) {
+            return nodes.map(this::child).filter(child -> child != MISSING);
+        }
+
+    }
+
+    private static final class Name extends Child {
+
+        Name(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object child(Object node) {
+            if (node instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) node;
+                Object child = map.get(name);
+                return child != null || map.containsKey(name) ? child : MISSING;
+            }
+            return MISSING;
+        }
+
+        private final String name;
+
+    }
+
+    private static final class Index extends Child {
+
+        Index(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object child(Object node) {
+            if (node instanceof List) {
+                List<?> list = (List<?>) node;
+                int i = index < 0 ? list.size() + index : index;
+                return i >= 0 && i < list.size() ? list.get(i) : MISSING;
+            }
+            return MISSING;
+        }
+
+        private final int index;
+
+    }
+
+    /**
+     * Step selecting any number of the children of each node.
+     */
+    private abstract static class Selection extends Step {
+
+        /**
+         * @param children All children of the current nodes
+         * @return The selected children
+         */
+        abstract Stream<Object> select(Stream<Object> children);
+
+        @Override
+        Stream<Object> apply(Stream<Object> nodes) {
+            return select(expand(nodes, JsomQuery::childrenOf));
+        }
+
+    }
+
+    private static final class Wildcard extends Selection {
+
+        @Override
+        Stream<Object> select(Stream<Object> children) {
+            return children;
+        }
+
+    }
+
+    private static final class Filter extends Selection {
+
+        Filter(Predicate<Object> predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        Stream<Object> select(Stream<Object> children) {
+            return children.filter(predicate);
+        }
+
+        private final Predicate<Object> predicate;
+
+    }
+
+    private static final class Slice extends Step {
+
+        Slice(Integer start, Integer end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Stream<Object> apply(Stream<Object> nodes) {
+            return expand(nodes, node -> {
+                if (!(node instanceof List)) {
+                    return null;
+                }
+                List<Object> list = (List<Object>) node;
+                int from = bound(start, 0, list.size());
+                int to = bound(end, list.size(), list.size());
+                return from < to ? list.subList(from, to) : null;
+            });
+        }
+
+        private static int bound(Integer bound, int absent, int size) {
+            if (bound == null) {
+                return absent;
+            }
+            int index = bound < 0 ? size + bound : bound;
+            return Math.max(0, Math.min(index, size));
+        }
+
+        private final Integer start;
+        private final Integer end;
+
+    }
+
+    /**
+     * Step selecting each node and all its descendants, in document order.
+     *
+     * Sequential streams are walked lazily, like in expand().
+     */
+    private static final class Descent extends Step {
+
+        @Override
+        Stream<Object> apply(Stream<Object> nodes) {
+            if (nodes.isParallel()) {
+                return nodes.flatMap(node -> StreamSupport.stream(
+                        new Descendants(Collections.singleton(node).iterator()), false));
+            }
+            return StreamSupport.stream(new Descendants(nodes.iterator()), false).onClose(nodes::close);
+        }
+
+    }
+
+    /**
+     * Elements of the expansions of nodes, one node at a time.
+     */
+    private static final class Expansion extends Spliterators.AbstractSpliterator<Object> {
+
+        Expansion(Iterator<Object> nodes, Function<Object, Collection<Object>> expansion) {
+            super(Long.MAX_VALUE, ORDERED);
+            this.nodes = nodes;
+            this.expansion = expansion;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            while (elements == null || !elements.hasNext()) {
+                if (!nodes.hasNext()) {
+                    return false;
+                }
+                Collection<Object> next = expansion.apply(nodes.next());
+                elements = next == null ? null : next.iterator();
+            }
+            action.accept(elements.next());
+            return true;
+        }
+
+        private final Iterator<Object> nodes;
+        private final Function<Object, Collection<Object>> expansion;
+        private Iterator<Object> elements;
+
+    }
+
+    /**
+     * Pre-order walk over nodes and their descendants, keeping an iterator
+     * per open container on a stack.
+     */
+    private static final class Descendants extends Spliterators.AbstractSpliterator<Object> {
+
+        Descendants(Iterator<Object> nodes) {
+            super(Long.MAX_VALUE, ORDERED);
+            stack.push(nodes);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            while (!stack.isEmpty()) {
+                Iterator<Object> top = stack.peek();
+                if (!top.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Object node = top.next();
+                Collection<Object> children = childrenOf(node);
+                if (children != null) {
+                    stack.push(children.iterator());
+                }
+                action.accept(node);
+                return true;
+            }
+            return false;
+        }
+
+        private final Deque<Iterator<Object>> stack = new ArrayDeque<>();
+
+    }
+
+    /**
+     * Operand of a filter expression.
+     */
+    private interface Operand {
+
+        /**
+         * @param current The node tested by the filter
+         * @return The value, or MISSING
+         */
+        Object value(Object current);
+
+    }
+
+    private static Predicate<Object> comparison(Operand left, String operator, Operand right) {
+        switch (operator) {
+        case "==":
+            return current -> equal(left.value(current), right.value(current));
+        case "!=":
+            return current -> {
+                Object a = left.value(current);
+                Object b = right.value(current);
+                return a != MISSING && b != MISSING && !JsomPatch.equal(a, b);
+            };
+        case "<":
+            return current -> order(left.value(current), right.value(current)) == -1;
+        case "<=":
+            return current -> {
+                int order = order(left.value(current), right.value(current));
+                return order == -1 || order == 0;
+            };
+        case ">":
+            return current -> order(left.value(current), right.value(current)) == 1;
+        default:
+            return current -> {
+                int order = order(left.value(current), right.value(current));
+                return order == 1 || order == 0;
+            };
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a != MISSING && b != MISSING && JsomPatch.equal(a, b);
+    }
+
+    /**
+     * @return -1, 0 or 1, or INCOMPARABLE for values that are missing or of
+     * different types
+     */
+    private static int order(Object a, Object b) {
+        int order;
+        if (a instanceof Number && b instanceof Number) {
+            if (isIntegral(a) && isIntegral(b)) {
+                order = Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            } else {
+                double x = ((Number) a).doubleValue();
+                double y = ((Number) b).doubleValue();
+                if (Double.isNaN(x) || Double.isNaN(y)) {
+                    return INCOMPARABLE;
+                }
+                order = Double.compare(x, y);
+            }
+        } else if (a instanceof String && b instanceof String) {
+            order = ((String) a).compareTo((String) b);
+        } else {
+            return INCOMPARABLE;
+        }
+        return Integer.signum(order);
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte;
+    }
+
+    /**
+     * Recursive descent compiler.
+     */
+    private static final class Compiler {
+
+        Compiler(String query) {
+            this.query = query;
+        }
+
+        Step[] compile() {
+            expect('$');
+            List<Step> steps = new ArrayList<>();
+            while (position < query.length()) {
+                if (query.startsWith("..", position)) {
+                    position += 2;
+                    steps.add(new Descent());
+                    steps.add(peek('[') ? bracket() : member());
+                } else if (peek('.')) {
+                    ++position;
+                    steps.add(member());
+                } else if (peek('[')) {
+                    steps.add(bracket());
+                } else {
+                    throw unexpected();
+                }
+            }
+            return steps.toArray(new Step[steps.size()]);
+        }
+
+        private Step member() {
+            if (peek('*')) {
+                ++position;
+                return new Wildcard();
+            }
+            return new Name(name());
+        }
+
+        private Step bracket() {
+            expect('[');
+            skipWhitespace();
+            Step step;
+            if (peek('*')) {
+                ++position;
+                step = new Wildcard();
+            } else if (peek('\'') || peek('"')) {
+                step = new Name(string());
+            } else if (peek('?')) {
+                ++position;
+                skipWhitespace();
+                expect('(');
+                step = new Filter(or());
+                skipWhitespace();
+                expect(')');
+            } else {
+                Integer start = peek(':') ? null : integer();
+                skipWhitespace();
+                if (peek(':')) {
+                    ++position;
+                    skipWhitespace();
+                    step = new Slice(start, peek(']') ? null : integer());
+                } else {
+                    step = new Index(start);
+                }
+            }
+            skipWhitespace();
+            expect(']');
+            return step;
+        }
+
+        private Predicate<Object> or() {
+            Predicate<Object> predicate = and();
+            while (skipWhitespace() && query.startsWith("||", position)) {
+                position += 2;
+                predicate = predicate.or(and());
+            }
+            return predicate;
+        }
+
+        private Predicate<Object> and() {
+            Predicate<Object> predicate = unary();
+            while (skipWhitespace() && query.startsWith("&&", position)) {
+                position += 2;
+                predicate = predicate.and(unary());
+            }
+            return predicate;
+        }
+
+        private Predicate<Object> unary() {
+            skipWhitespace();
+            if (peek('!') && !query.startsWith("!=", position)) {
+                ++position;
+                return unary().negate();
+            } else if (peek('(')) {
+                ++position;
+                Predicate<Object> predicate = or();
+                skipWhitespace();
+                expect(')');
+                return predicate;
+            }
+            Operand left = operand();
+            skipWhitespace();
+            String operator = operator();
+            if (operator == null) {
+                return current -> left.value(current) != MISSING;
+            }
+            skipWhitespace();
+            return comparison(left, operator, operand());
+        }
+
+        private String operator() {
+            for (String operator : OPERATORS) {
+                if (query.startsWith(operator, position)) {
+                    position += operator.length();
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private Operand operand() {
+            if (peek('@')) {
+                ++position;
+                List<Child> path = new ArrayList<>();
+                while (peek('.') || peek('[')) {
+                    if (peek('.')) {
+                        ++position;
+                        path.add(new Name(name()));
+                    } else {
+                        expect('[');
+                        skipWhitespace();
+                        path.add(peek('\'') || peek('"') ? new Name(string()) : new Index(integer()));
+                        skipWhitespace();
+                        expect(']');
+                    }
+                }
+                Child[] children = path.toArray(new Child[path.size()]);
+                return current -> {
+                    Object value = current;
+                    for (int i = 0; i < children.length && value != MISSING; ++i) {
+                        value = children[i].child(value);
+                    }
+                    return value;
+                };
+            }
+            Object literal = literal();
+            return current -> literal;
+        }
+
+        private Object literal() {
+            if (peek('\'') || peek('"')) {
+                return string();
+            }
+            for (String keyword : KEYWORDS) {
+                if (query.startsWith(keyword, position)) {
+                    position += keyword.length();
+                    return keyword.equals("null") ? null : (Object) keyword.equals("true");
+                }
+            }
+            int start = position;
+            while (position < query.length() && "+-.0123456789eE".indexOf(query.charAt(position)) >= 0) {
+                ++position;
+            }
+            if (start == position) {
+                throw unexpected();
+            }
+            try {
+                return JsomParser.parse(query.substring(start, position));
+            } catch (IllegalArgumentException e) {
+                position = start;
+                throw unexpected();
+            }
+        }
+
+        private String name() {
+            int start = position;
+            while (position < query.length() && NAME_DELIMITERS.indexOf(query.charAt(position)) < 0) {
+                ++position;
+            }
+            if (start == position) {
+                throw unexpected();
+            }
+            return query.substring(start, position);
+        }
+
+        private String string() {
+            char quote = query.charAt(position++);
+            StringBuilder string = new StringBuilder();
+            while (position < query.length() && query.charAt(position) != quote) {
+                char c = query.charAt(position++);
+                if (c == '\\' && position < query.length()) {
+                    c = query.charAt(position++);
+                }
+                string.append(c);
+            }
+            expect(quote);
+            return string.toString();
+        }
+
+        private int integer() {
+            int start = position;
+            if (peek('-')) {
+                ++position;
+            }
+            while (position < query.length() && Character.isDigit(query.charAt(position))) {
+                ++position;
+            }
+            try {
+                return Integer.parseInt(query.substring(start, position));
+            } catch (NumberFormatException e) {
+                position = start;
+                throw unexpected();
+            }
+        }
+
+        private boolean peek(char c) {
+            return position < query.length() && query.charAt(position) == c;
+        }
+
+        private void expect(char c) {
+            if (!peek(c)) {
+                throw unexpected();
+            }
+            ++position;
+        }
+
+        /**
+         * @return Whether there is more input
+         */
+        private boolean skipWhitespace() {
+            while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+                ++position;
+            }
+            return position < query.length();
+        }
+
+        private IllegalArgumentException unexpected() {
+            return new IllegalArgumentException(position < query.length()
+                    ? "Unexpected character '" + query.charAt(position) + "' at offset " + position + " in " + query
+                    : "Unexpected end of query " + query);
+        }
+
+        private final String query;
+        private int position;
+
+    }
+
+    /**
+     * Stands in for absent values, as opposed to null values.
+     */
+    private static final Object MISSING = new Object();
+
+    private static final int INCOMPARABLE = 2;
+
+    private static final List<String> OPERATORS = Collections.unmodifiableList(
+            Arrays.asList("==", "!=", "<=", ">=", "<", ">"));
+    private static final List<String> KEYWORDS = Collections.unmodifiableList(
+            Arrays.asList("true", "false", "null"));
+    private static final String NAME_DELIMITERS = ".[]()=!<>&|'\"@, \t\r\n";
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<String, JsomQuery> CACHE = new ConcurrentHashMap<>();
+
+    private final String query;
+    private final Step[] steps;
+    private final boolean parallel;
+
+}
@@ -0,0 +1,244 @@
+package de.md.jsom;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * First stage of the byte parser: finds the structural positions of UTF-8
+ * JSON text, one chunk at a time.
+ *
+ * Input is classified 64 bytes at a time with SWAR (SIMD within a register)
+ * arithmetic on eight little-endian longs, yielding one bit per byte for
+ * quotes, backslashes, control characters, structural characters and
+ * whitespace. Escaped
+ * characters are found by walking the (rare) backslashes, strings by a
+ * prefix XOR over the unescaped quotes, and the starts of numbers and
+ * literals as non-whitespace bytes outside strings that follow whitespace,
+ * a structural character or a quote. State carries across blocks.
+ *
+ * The positions of all braces, brackets, colons and commas outside strings,
+ * of all unescaped quotes, of all backslashes and control characters inside
+ * strings, and of all scalar starts are produced in ascending order. So a
+ * string without escapes is a pair of consecutive positions.
+ * Scanning proceeds in chunks of CHUNK positions as they are consumed, so
+ * the position buffer stays small and in cache however large the input is.
+ * The scan does not validate; that is left to the second stage.
+ *
+ * @see JsomByteParser
+ */
+final class JsomScanner {
+
+    /**
+     * Prepare to scan part of an array.
+     *
+     * @param input
+     * @param from
+     * @param to
+     */
+    JsomScanner(byte[] input, int from, int to) {
+        this.input = input;
+        this.words = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+        this.block = from;
+        this.to = to;
+    }
+
+    /**
+     * Replace the positions with the next chunk.
+     *
+     * @return False if the end of input has been reached
+     */
+    boolean scan() {
+        size = 0;
+        while (block < to && size <= positions.length - BLOCK) {
+            if (block + BLOCK <= to) {
+                scanBlock(words, block, block);
+            } else {
+                // Pad the tail with whitespace
+                byte[] tail = new byte[BLOCK];
+                Arrays.fill(tail, (byte) ' ');
+                System.arraycopy(input, block, tail, 0, to - block);
+                scanBlock(ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN), 0, block);
+            }
+            block += BLOCK;
+        }
+        return size > 0;
+    }
+
+    /**
+     * @return The positions of the current chunk, valid up to size()
+     */
+    int[] positions() {
+        return positions;
+    }
+
+    /**
+     * @return The number of positions in the current chunk
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Classify one block and emit its structural positions.
+     *
+     * @param words
+     * @param offset Offset of the block in words
+     * @param base Position of the block in the input
+     */
+    private void scanBlock(ByteBuffer words, int offset, int base) {
+        long quotes = 0;
+        long backslashes = 0;
+        long controls = 0;
+        long structurals = 0;
+        long whitespace = 0;
+        for (int i = 0; i < BLOCK; i += 8) {
+            long word = words.getLong(offset + i);
+            // {} and [] differ by 0x20 only
+            long folded = word | 0x2020202020202020L;
+            quotes |= bits(matches(differs(word, '"'))) << i;
+            backslashes |= bits(matches(differs(word, '\\'))) << i;
+            long notControl = (word & LOW_BITS) + NOT_CONTROL | word;
+            controls |= bits(matches(notControl)) << i;
+            structurals |= bits(matches(differs(folded, '{') & differs(folded, '}') & differs(word, ':')
+                    & differs(word, ','))) << i;
+            // Spaces and control characters; the latter are checked below
+            whitespace |= bits(matches(notControl & differs(word, ' '))) << i;
+        }
+
+        long escaped = escaped(backslashes);
+        quotes &= ~escaped;
+        long strings = prefixXor(quotes) ^ (inString ? -1L : 0);
+        inString = strings < 0;
+        structurals &= ~strings;
+        if ((controls & ~strings) != 0) {
+            // Other control characters outside strings become scalar bytes,
+            // which the second stage rejects
+            whitespace &= ~(controls & ~strings & ~newlinesAndTabs(words, offset));
+        }
+        long scalars = ~(strings | quotes | structurals | whitespace);
+        long predecessors = structurals | quotes | whitespace;
+        long starts = scalars & (predecessors << 1 | (followsPredecessor ? 1 : 0));
+        followsPredecessor = predecessors < 0;
+
+        emit(base, structurals | quotes | starts | (backslashes | controls) & strings);
+    }
+
+    /**
+     * @param words
+     * @param offset
+     * @return The bits of the tabs, line feeds and carriage returns of a block
+     */
+    private static long newlinesAndTabs(ByteBuffer words, int offset) {
+        long bits = 0;
+        for (int i = 0; i < BLOCK; i += 8) {
+            long word = words.getLong(offset + i);
+            bits |= bits(matches(differs(word, '\n') & differs(word, '\r') & differs(word, '\t'))) << i;
+        }
+        return bits;
+    }
+
+    /**
+     * @param backslashes
+     * @return The characters escaped by backslashes
+     */
+    private long escaped(long backslashes) {
+        long escaped = escapeNext ? 1 : 0;
+        escapeNext = false;
+        while (backslashes != 0) {
+            long bit = backslashes & -backslashes;
+            backslashes ^= bit;
+            if ((escaped & bit) == 0) {
+                if (bit < 0) {
+                    escapeNext = true;
+                } else {
+                    escaped |= bit << 1;
+                }
+            }
+        }
+        return escaped;
+    }
+
+    private void emit(int base, long bits) {
+        while (bits != 0) {
+            positions[size++] = base + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+        }
+    }
+
+    /**
+     * @param word
+     * @param c
+     * @return The high bit set in each byte of word equal to c
+     */
+    static long equal(long word, char c) {
+        return matches(differs(word, c));
+    }
+
+    /**
+     * Compare bytes without carries between them. Results for several
+     * characters can be combined with AND before matches().
+     *
+     * @param word
+     * @param c
+     * @return The high bit set in each byte of word not equal to c
+     */
+    private static long differs(long word, char c) {
+        long x = word ^ (c * ONES);
+        return (x & LOW_BITS) + LOW_BITS | x;
+    }
+
+    /**
+     * @param differs
+     * @return The high bit set in each byte with a clear high bit
+     */
+    private static long matches(long differs) {
+        return ~(differs | LOW_BITS);
+    }
+
+    /**
+     * Gather the high bits of the bytes of a word into its lowest byte.
+     *
+     * @param highBits
+     * @return
+     */
+    static long bits(long highBits) {
+        return (highBits >>> 7) * GATHER >>> 56;
+    }
+
+    /**
+     * @param bits
+     * @return Each bit XORed with all lower ones
+     */
+    static long prefixXor(long bits) {
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        bits ^= bits << 8;
+        bits ^= bits << 16;
+        bits ^= bits << 32;
+        return bits;
+    }
+
+    private static final int BLOCK = 64;
+    private static final int CHUNK = 1 << 12;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    /**
+     * Sets the high bit of bytes from 0x20 when added to their low bits.
+     */
+    private static final long NOT_CONTROL = 0x6060606060606060L;
+    private static final long GATHER = 0x0102040810204080L;
+
+    private final byte[] input;
+    private final ByteBuffer words;
+    private final int to;
+    private final int[] positions = new int[CHUNK];
+    private int block;
+    private int size;
+    private boolean inString;
+    private boolean escapeNext;
+    private boolean followsPredecessor = true;
+
+}
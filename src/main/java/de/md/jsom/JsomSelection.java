@@ -0,0 +1,212 @@
+package de.md.jsom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled set of JSON Pointers selecting the parts of a document to parse.
+ *
+ * The pointers are merged into a tree of tokens. A "*" token matches every
+ * key and every list index. A pointer selects the whole value it points to,
+ * so "/items" includes "/items/0/price". Compiled selections are immutable
+ * and can be shared between threads.
+ *
+ * <pre>
+ * JsomSelection selection = Jsom.select("/id", "/items/*&#47;price");
+ * Jsom order = Jsom.parse(json, selection);
+ * </pre>
+ *
+ * @see Jsom#parse(CharSequence, JsomSelection)
+ */
+public final class JsomSelection {
+
+    /**
+     * Compile a set of JSON Pointers.
+     *
+     * @param pointers
+     * @return
+     * @throws IllegalArgumentException If a pointer is not empty and does
+     * not start with a slash
+     */
+    public static JsomSelection compile(String... pointers) {
+        Jsom.require(pointers, "Cannot compile null pointers");
+        Set<String> unique = new LinkedHashSet<>(Arrays.asList(pointers));
+        List<JsomPath> paths = new ArrayList<>(unique.size());
+        for (String pointer : unique) {
+            paths.add(JsomPath.compile(pointer));
+        }
+        return new JsomSelection(String.join(", ", unique), paths, 0);
+    }
+
+    /**
+     * Build the node for the tokens at depth of paths, all of which match
+     * the way here.
+     *
+     * @param pointers
+     * @param paths
+     * @param depth
+     */
+    private JsomSelection(String pointers, List<JsomPath> paths, int depth) {
+        this.pointers = pointers;
+        List<JsomPath> wildcards = new ArrayList<>();
+        Set<String> tokens = new LinkedHashSet<>();
+        boolean all = false;
+        for (JsomPath path : paths) {
+            if (path.size() == depth) {
+                all = true;
+            } else if (path.token(depth).equals(WILDCARD)) {
+                wildcards.add(path);
+            } else {
+                tokens.add(path.token(depth));
+            }
+        }
+        this.all = all;
+        if (all) {
+            this.any = null;
+            this.keys = new String[0];
+            this.hashes = new int[0];
+            this.members = new JsomSelection[0];
+            this.indices = new int[0];
+            this.elements = new JsomSelection[0];
+            return;
+        }
+
+        this.any = wildcards.isEmpty() ? null : new JsomSelection(pointers, wildcards, depth + 1);
+        this.keys = tokens.toArray(new String[tokens.size()]);
+        this.hashes = new int[keys.length];
+        this.members = new JsomSelection[keys.length];
+        List<Integer> indices = new ArrayList<>();
+        List<JsomSelection> elements = new ArrayList<>();
+        for (int i = 0; i < keys.length; ++i) {
+            // exact tokens also match the paths continuing after a wildcard
+            List<JsomPath> matching = new ArrayList<>(wildcards);
+            int index = JsomPath.NOT_AN_INDEX;
+            for (JsomPath path : paths) {
+                if (path.size() > depth && path.token(depth).equals(keys[i])) {
+                    matching.add(path);
+                    index = path.index(depth);
+                }
+            }
+            hashes[i] = keys[i].hashCode();
+            members[i] = new JsomSelection(pointers, matching, depth + 1);
+            if (index >= 0) {
+                indices.add(index);
+                elements.add(members[i]);
+            }
+        }
+        this.indices = new int[indices.size()];
+        for (int i = 0; i < this.indices.length; ++i) {
+            this.indices[i] = indices.get(i);
+        }
+        this.elements = elements.toArray(new JsomSelection[elements.size()]);
+    }
+
+    /**
+     * @return Whether everything below this node is selected
+     */
+    boolean isAll() {
+        return all;
+    }
+
+    /**
+     * @return Whether nothing is selected
+     */
+    boolean isEmpty() {
+        return !all && any == null && keys.length == 0;
+    }
+
+    /**
+     * @param key
+     * @return The selection for the value at key of a map, or null if it is
+     * not selected
+     */
+    JsomSelection member(String key) {
+        if (all) {
+            return this;
+        }
+        int hash = key.hashCode();
+        for (int i = 0; i < keys.length; ++i) {
+            if (hashes[i] == hash && keys[i].equals(key)) {
+                return members[i];
+            }
+        }
+        return any;
+    }
+
+    /**
+     * Look up a key given as a range of chars, without creating a String.
+     *
+     * @param chars
+     * @param from
+     * @param to
+     * @return The selection for the value at the key, or null if it is not
+     * selected
+     */
+    JsomSelection member(char[] chars, int from, int to) {
+        if (all) {
+            return this;
+        }
+        int hash = 0;
+        for (int i = from; i < to; ++i) {
+            hash = 31 * hash + chars[i];
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            if (hashes[i] == hash && equals(keys[i], chars, from, to)) {
+                return members[i];
+            }
+        }
+        return any;
+    }
+
+    /**
+     * @param index
+     * @return The selection for the element at index of a list, or null if
+     * it is not selected
+     */
+    JsomSelection element(int index) {
+        if (all) {
+            return this;
+        }
+        for (int i = 0; i < indices.length; ++i) {
+            if (indices[i] == index) {
+                return elements[i];
+            }
+        }
+        return any;
+    }
+
+    private static boolean equals(String key, char[] chars, int from, int to) {
+        if (key.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); ++i) {
+            if (key.charAt(i) != chars[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The JSON Pointers this selection was compiled from
+     */
+    @Override
+    public String toString() {
+        return "[" + pointers + "]";
+    }
+
+    private static final String WILDCARD = "*";
+
+    private final String pointers;
+    private final boolean all;
+    private final JsomSelection any;
+    private final String[] keys;
+    private final int[] hashes;
+    private final JsomSelection[] members;
+    private final int[] indices;
+    private final JsomSelection[] elements;
+
+}
@@ -0,0 +1,550 @@
+package de.md.jsom;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Off-heap tape encoding of a value, after simdjson's tape.
+ *
+ * A document is a single direct ByteBuffer: a tape of 64-bit words followed
+ * by a string table. Each tape entry starts with a word holding a type tag
+ * in its top byte and a payload in the rest:
+ *
+ * <ul>
+ * <li>Maps and lists: the index of the word after the container, followed
+ * by a word with the number of members. Lists then have a table of element
+ * word indexes, two per word. Maps with more than LINEAR_LOOKUP keys have a
+ * table of key hash and member word index pairs, sorted by hash. Members
+ * follow: a key string and a value for maps, values for lists.</li>
+ * <li>Strings, BigIntegers and BigDecimals: the offset of the string in the
+ * table, where it is stored as an int length and UTF-8 bytes. Equal strings
+ * are stored once.</li>
+ * <li>Integers: the value. Longs and Doubles: the bits in the next word.</li>
+ * <li>true, false, null: no payload.</li>
+ * </ul>
+ *
+ * The maps and lists of the view are read-only and decode on access, so
+ * their contents are never held on the heap and cost the garbage collector
+ * nothing to trace. Views of nested containers are created on access. Lists
+ * have random access; keys of larger maps are found by binary search.
+ * Shorts and Bytes are read back as Integers, Floats as Doubles. Thread-safe.
+ *
+ * @see Jsom#toTape()
+ */
+final class JsomTape {
+
+    /**
+     * Encode a value and return a view of it.
+     *
+     * @param value
+     * @return A read-only map or list, or the value if it is a scalar
+     * @throws ClassCastException If the value contains non-JSON types
+     */
+    static Object encode(Object value) {
+        value = Jsom.valueOf(value);
+        if (!(value instanceof Map || value instanceof List)) {
+            return value;
+        }
+        JsomTape tape = new Encoder().encode(value);
+        return tape.value(0);
+    }
+
+    private JsomTape(ByteBuffer buffer, int words) {
+        this.words = buffer.asLongBuffer();
+        this.strings = buffer;
+        this.stringBase = words * 8;
+    }
+
+    /**
+     * Decode the entry at a word index.
+     *
+     * @param entry
+     * @return
+     */
+    private Object value(int entry) {
+        long word = words.get(entry);
+        switch ((int) (word >>> TAG_SHIFT)) {
+            case TAG_MAP:
+                return new TapeMap(entry);
+            case TAG_LIST:
+                return new TapeList(entry);
+            case TAG_STRING:
+                return string(payload(word));
+            case TAG_INT:
+                return (int) word;
+            case TAG_LONG:
+                return words.get(entry + 1);
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(words.get(entry + 1));
+            case TAG_BIG_INTEGER:
+                return new BigInteger(string(payload(word)));
+            case TAG_BIG_DECIMAL:
+                return new BigDecimal(string(payload(word)));
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param entry
+     * @return The word index after an entry
+     */
+    private int next(int entry) {
+        long word = words.get(entry);
+        switch ((int) (word >>> TAG_SHIFT)) {
+            case TAG_MAP:
+            case TAG_LIST:
+                return payload(word);
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                return entry + 2;
+            default:
+                return entry + 1;
+        }
+    }
+
+    private String string(int offset) {
+        ByteBuffer bytes = strings.duplicate();
+        bytes.position(stringBase + offset);
+        byte[] utf8 = new byte[bytes.getInt()];
+        bytes.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param offset
+     * @param utf8
+     * @return Whether the string at an offset has the given bytes
+     */
+    private boolean equal(int offset, byte[] utf8) {
+        int position = stringBase + offset;
+        if (strings.getInt(position) != utf8.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < utf8.length; ++i) {
+            if (strings.get(position + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int size(int entry) {
+        return (int) words.get(entry + 1);
+    }
+
+    /**
+     * @param map Word index of a map
+     * @param key
+     * @return The word index of the member with the key, or -1
+     */
+    private int find(int map, Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        byte[] utf8 = ((String) key).getBytes(StandardCharsets.UTF_8);
+        int size = size(map);
+        if (size <= LINEAR_LOOKUP) {
+            for (int member = map + 2, end = payload(words.get(map)); member < end; member = next(member + 1)) {
+                if (equal(payload(words.get(member)), utf8)) {
+                    return member;
+                }
+            }
+            return -1;
+        }
+        int hash = key.hashCode();
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int h = (int) (words.get(map + 2 + middle) >> 32);
+            if (h < hash) {
+                low = middle + 1;
+            } else if (h > hash) {
+                high = middle - 1;
+            } else {
+                low = middle;
+                while (low > 0 && (int) (words.get(map + 1 + low) >> 32) == hash) {
+                    --low;
+                }
+                for (int i = low; i < size; ++i) {
+                    long slot = words.get(map + 2 + i);
+                    if ((int) (slot >> 32) != hash) {
+                        break;
+                    }
+                    int member = (int) slot;
+                    if (equal(payload(words.get(member)), utf8)) {
+                        return member;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param list Word index of a list
+     * @param i
+     * @return The word index of an element
+     */
+    private int element(int list, int i) {
+        long pair = words.get(list + 2 + i / 2);
+        return (i & 1) == 0 ? (int) (pair >>> 32) : (int) pair;
+    }
+
+    private static int payload(long word) {
+        return (int) (word & PAYLOAD_MASK);
+    }
+
+    /**
+     * Read-only map view.
+     */
+    private final class TapeMap extends AbstractMap<String, Object> {
+
+        TapeMap(int entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int member = find(entry, key);
+            return member >= 0 ? value(member + 1) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return find(entry, key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return JsomTape.this.size(entry);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    int size = JsomTape.this.size(entry);
+                    int first = entry + 2 + (size > LINEAR_LOOKUP ? size : 0);
+                    return new Iterator<Entry<String, Object>>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return member < end;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            String key = string(payload(words.get(member)));
+                            Object value = value(member + 1);
+                            member = JsomTape.this.next(member + 1);
+                            return new SimpleImmutableEntry<>(key, value);
+                        }
+
+                        private int member = first;
+                        private final int end = payload(words.get(entry));
+
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return TapeMap.this.size();
+                }
+
+            };
+        }
+
+        private final int entry;
+
+    }
+
+    /**
+     * Read-only list view.
+     */
+    private final class TapeList extends AbstractList<Object> implements RandomAccess {
+
+        TapeList(int entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object get(int i) {
+            int size = size();
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            }
+            return value(element(entry, i));
+        }
+
+        @Override
+        public int size() {
+            return JsomTape.this.size(entry);
+        }
+
+        private final int entry;
+
+    }
+
+    /**
+     * Iterative encoder into heap arrays, copied into a direct buffer at the
+     * end.
+     */
+    private static final class Encoder {
+
+        JsomTape encode(Object root) {
+            Object value = root;
+            while (true) {
+                value = Jsom.valueOf(value);
+                if (value instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) value;
+                    int entry = open(TAG_MAP, map.size());
+                    if (map.size() > LINEAR_LOOKUP) {
+                        reserve(map.size());
+                    }
+                    if (!map.isEmpty()) {
+                        value = push(entry, map.entrySet().iterator(), true);
+                        continue;
+                    }
+                    close(entry);
+                } else if (value instanceof List) {
+                    List<?> list = (List<?>) value;
+                    int entry = open(TAG_LIST, list.size());
+                    reserve((list.size() + 1) / 2);
+                    if (!list.isEmpty()) {
+                        value = push(entry, list.iterator(), false);
+                        continue;
+                    }
+                    close(entry);
+                } else {
+                    writeLeaf(value);
+                }
+
+                while (depth > 0 && !iterators[depth - 1].hasNext()) {
+                    iterators[--depth] = null;
+                    close(entries[depth]);
+                }
+                if (depth == 0) {
+                    return finish();
+                }
+                value = next();
+            }
+        }
+
+        private int open(int tag, int size) {
+            int entry = length;
+            write(word(tag, 0));
+            write(size);
+            return entry;
+        }
+
+        /**
+         * Set the end of a container and sort its key table.
+         */
+        private void close(int entry) {
+            tape[entry] |= length;
+            int size = (int) tape[entry + 1];
+            if ((int) (tape[entry] >>> TAG_SHIFT) == TAG_MAP && size > LINEAR_LOOKUP) {
+                Arrays.sort(tape, entry + 2, entry + 2 + size);
+            }
+        }
+
+        private Object push(int entry, Iterator<?> iterator, boolean map) {
+            if (depth == iterators.length) {
+                iterators = Arrays.copyOf(iterators, depth * 2);
+                entries = Arrays.copyOf(entries, depth * 2);
+                maps = Arrays.copyOf(maps, depth * 2);
+                counts = Arrays.copyOf(counts, depth * 2);
+            }
+            iterators[depth] = iterator;
+            entries[depth] = entry;
+            maps[depth] = map;
+            counts[depth++] = 0;
+            return next();
+        }
+
+        /**
+         * Advance the innermost iterator, recording the member in its
+         * container's table and writing the key for map entries.
+         *
+         * @return The next value to write
+         */
+        private Object next() {
+            Object next = iterators[depth - 1].next();
+            int entry = entries[depth - 1];
+            int i = counts[depth - 1]++;
+            if (!maps[depth - 1]) {
+                tape[entry + 2 + i / 2] |= (i & 1) == 0 ? (long) length << 32 : length;
+                return next;
+            }
+            Entry<?, ?> member = (Entry<?, ?>) next;
+            String key = String.valueOf(member.getKey());
+            if (tape[entry + 1] > LINEAR_LOOKUP) {
+                // Sorting these as longs sorts by hash
+                tape[entry + 2 + i] = (long) key.hashCode() << 32 | length;
+            }
+            write(word(TAG_STRING, string(key)));
+            return member.getValue();
+        }
+
+        private void writeLeaf(Object value) {
+            if (value == null) {
+                write(word(TAG_NULL, 0));
+            } else if (value instanceof String) {
+                write(word(TAG_STRING, string((String) value)));
+            } else if (value instanceof Boolean) {
+                write(word((Boolean) value ? TAG_TRUE : TAG_FALSE, 0));
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                write(word(TAG_INT, 0) | ((Number) value).intValue() & 0xffffffffL);
+            } else if (value instanceof Long) {
+                write(word(TAG_LONG, 0));
+                write((Long) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                write(word(TAG_DOUBLE, 0));
+                write(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+            } else if (value instanceof BigInteger) {
+                write(word(TAG_BIG_INTEGER, string(value.toString())));
+            } else if (value instanceof BigDecimal) {
+                write(word(TAG_BIG_DECIMAL, string(value.toString())));
+            } else {
+                throw new ClassCastException("Cannot write " + Jsom.typeOf(value) + " to a tape");
+            }
+        }
+
+        /**
+         * Add a string to the table unless already present.
+         *
+         * @return Its offset
+         */
+        private int string(String value) {
+            Integer known = offsets.get(value);
+            if (known != null) {
+                return known;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            while (stringLength + 4 + utf8.length > strings.length) {
+                strings = Arrays.copyOf(strings, strings.length * 2);
+            }
+            int offset = stringLength;
+            ByteBuffer.wrap(strings, offset, 4).putInt(utf8.length);
+            System.arraycopy(utf8, 0, strings, offset + 4, utf8.length);
+            stringLength += 4 + utf8.length;
+            if (stringLength > MAX_LENGTH) {
+                throw new IllegalArgumentException("Value too large for a tape");
+            }
+            offsets.put(value, offset);
+            return offset;
+        }
+
+        private void reserve(int count) {
+            for (int i = 0; i < count; ++i) {
+                write(0);
+            }
+        }
+
+        private void write(long word) {
+            if (length == tape.length) {
+                if (length > MAX_LENGTH / 8) {
+                    throw new IllegalArgumentException("Value too large for a tape");
+                }
+                tape = Arrays.copyOf(tape, length * 2);
+            }
+            tape[length++] = word;
+        }
+
+        private JsomTape finish() {
+            if ((long) length * 8 + stringLength > MAX_LENGTH) {
+                throw new IllegalArgumentException("Value too large for a tape");
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(length * 8 + stringLength);
+            buffer.asLongBuffer().put(tape, 0, length);
+            buffer.position(length * 8);
+            buffer.put(strings, 0, stringLength);
+            buffer.clear();
+            return new JsomTape(buffer, length);
+        }
+
+        private static long word(int tag, int payload) {
+            return (long) tag << TAG_SHIFT | payload;
+        }
+
+        private long[] tape = new long[64];
+        private int length;
+        private byte[] strings = new byte[256];
+        private int stringLength;
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private Iterator<?>[] iterators = new Iterator<?>[16];
+        private int[] entries = new int[16];
+        private boolean[] maps = new boolean[16];
+
+        /**
+         * Number of members recorded per container.
+         */
+        private int[] counts = new int[16];
+        private int depth;
+
+    }
+
+    private static final int TAG_SHIFT = 56;
+    private static final long PAYLOAD_MASK = (1L << TAG_SHIFT) - 1;
+    private static final int TAG_MAP = '{';
+    private static final int TAG_LIST = '[';
+    private static final int TAG_STRING = '"';
+    private static final int TAG_INT = 'i';
+    private static final int TAG_LONG = 'l';
+    private static final int TAG_DOUBLE = 'd';
+    private static final int TAG_BIG_INTEGER = 'I';
+    private static final int TAG_BIG_DECIMAL = 'D';
+    private static final int TAG_TRUE = 't';
+    private static final int TAG_FALSE = 'f';
+    private static final int TAG_NULL = 'n';
+
+    /**
+     * Maps with up to this many keys have no key table and are searched
+     * linearly.
+     */
+    private static final int LINEAR_LOOKUP = 8;
+
+    /**
+     * Maximum size of a tape buffer in bytes.
+     */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final LongBuffer words;
+    private final ByteBuffer strings;
+    private final int stringBase;
+
+}
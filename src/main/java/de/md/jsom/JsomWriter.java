@@ -0,0 +1,424 @@
+package de.md.jsom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Streaming JSON serializer working directly on the raw structures.
+ *
+ * Output goes through a per-thread char buffer (and a byte buffer for UTF-8
+ * output) that is reused across calls, so writing allocates one iterator per
+ * container and nothing per scalar. Integral numbers are formatted into the
+ * buffer directly. Non-finite doubles are written as null.
+ *
+ * Containers are walked iteratively, so deeply nested values cannot overflow
+ * the stack.
+ */
+final class JsomWriter {
+
+    /**
+     * Write a value as JSON.
+     *
+     * @param value
+     * @param out
+     */
+    static void write(Object value, Appendable out) {
+        JsomWriter writer = acquire();
+        try {
+            writer.appendable = Jsom.require(out, "Cannot write to null");
+            writer.writeValue(value);
+            writer.flush();
+        } finally {
+            release(writer);
+        }
+    }
+
+    /**
+     * Write a value as UTF-8 encoded JSON.
+     *
+     * @param value
+     * @param out
+     */
+    static void write(Object value, OutputStream out) {
+        JsomWriter writer = acquire();
+        try {
+            writer.stream = Jsom.require(out, "Cannot write to null");
+            writer.writeValue(value);
+            writer.flush();
+            writer.finish();
+        } finally {
+            release(writer);
+        }
+    }
+
+    /**
+     * Write a value as a JSON string.
+     *
+     * @param value
+     * @return
+     */
+    static String toJson(Object value) {
+        JsomWriter writer = acquire();
+        try {
+            writer.writeValue(value);
+            if (writer.builder == null) {
+                return new String(writer.buffer, 0, writer.position);
+            }
+            writer.flush();
+            return writer.builder.toString();
+        } finally {
+            release(writer);
+        }
+    }
+
+    /**
+     * Write any value, walking containers with an explicit stack of
+     * iterators.
+     *
+     * @param root
+     */
+    private void writeValue(Object root) {
+        Object value = root;
+        while (true) {
+            value = Jsom.valueOf(value);
+            if (value instanceof Map && !((Map<?, ?>) value).isEmpty()) {
+                append('{');
+                value = push(((Map<?, ?>) value).entrySet().iterator(), '}');
+                continue;
+            } else if (value instanceof List && !((List<?>) value).isEmpty()) {
+                append('[');
+                value = push(((List<?>) value).iterator(), ']');
+                continue;
+            }
+            writeLeaf(value);
+
+            while (depth > 0 && !iterators[depth - 1].hasNext()) {
+                append(closers[--depth]);
+                iterators[depth] = null;
+            }
+            if (depth == 0) {
+                return;
+            }
+            append(',');
+            value = next();
+        }
+    }
+
+    private Object push(Iterator<?> iterator, char closer) {
+        if (depth == iterators.length) {
+            iterators = Arrays.copyOf(iterators, depth * 2);
+            closers = Arrays.copyOf(closers, depth * 2);
+        }
+        iterators[depth] = iterator;
+        closers[depth++] = closer;
+        return next();
+    }
+
+    /**
+     * Advance the innermost iterator, writing the key for map entries.
+     *
+     * @return The next value to write
+     */
+    private Object next() {
+        Object next = iterators[depth - 1].next();
+        if (closers[depth - 1] == ']') {
+            return next;
+        }
+        Entry<?, ?> entry = (Entry<?, ?>) next;
+        writeString(String.valueOf(entry.getKey()));
+        append(':');
+        return entry.getValue();
+    }
+
+    private void writeLeaf(Object value) {
+        if (value == null) {
+            append("null");
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            append((Boolean) value ? "true" : "false");
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            append(value.toString());
+        } else if (value instanceof Map) {
+            append("{}");
+        } else if (value instanceof List) {
+            append("[]");
+        } else {
+            throw new ClassCastException("Cannot write " + Jsom.typeOf(value) + " as JSON");
+        }
+    }
+
+    /**
+     * Write a quoted, escaped string. Runs of characters that need no
+     * escaping are copied in bulk.
+     *
+     * @param string
+     */
+    private void writeString(String string) {
+        append('"');
+        int length = string.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = string.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            appendRun(string, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    append("\\\"");
+                    break;
+                case '\\':
+                    append("\\\\");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                case '\b':
+                    append("\\b");
+                    break;
+                case '\f':
+                    append("\\f");
+                    break;
+                default:
+                    ensure(6);
+                    buffer[position++] = '\\';
+                    buffer[position++] = 'u';
+                    buffer[position++] = '0';
+                    buffer[position++] = '0';
+                    buffer[position++] = HEX[c >> 4];
+                    buffer[position++] = HEX[c & 0xf];
+            }
+        }
+        appendRun(string, start, length);
+        append('"');
+    }
+
+    private void appendRun(String string, int start, int end) {
+        while (start < end) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int count = Math.min(end - start, buffer.length - position);
+            string.getChars(start, start + count, buffer, position);
+            position += count;
+            start += count;
+        }
+    }
+
+    /**
+     * Format a long into the buffer without intermediate strings.
+     *
+     * @param value
+     */
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append("-9223372036854775808");
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position + digits(value);
+        int at = end;
+        do {
+            buffer[--at] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        position = end;
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            append("null");
+        } else if (value == (long) value && Math.abs(value) < 1e15
+                && (value != 0 || 1 / value > 0)) {
+            // integral values are written in place as plain digits plus ".0", e.g.
+            // 10000000.0 where Double.toString would give 1.0E7
+            writeLong((long) value);
+            append(".0");
+        } else {
+            append(Double.toString(value));
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            ++digits;
+        }
+        return digits;
+    }
+
+    private void append(char c) {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = c;
+    }
+
+    private void append(String string) {
+        appendRun(string, 0, string.length());
+    }
+
+    private void ensure(int count) {
+        if (position + count > buffer.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Hand the buffered chars to the target, encoding them if needed. A
+     * trailing high surrogate is kept back so pairs are encoded together.
+     */
+    private void flush() {
+        if (position == 0) {
+            return;
+        }
+        try {
+            if (stream != null) {
+                int end = position;
+                if (Character.isHighSurrogate(buffer[end - 1])) {
+                    --end;
+                }
+                encode(end);
+                if (end < position) {
+                    buffer[0] = buffer[end];
+                    position = 1;
+                    return;
+                }
+            } else if (appendable instanceof StringBuilder) {
+                ((StringBuilder) appendable).append(buffer, 0, position);
+            } else if (appendable instanceof Writer) {
+                ((Writer) appendable).write(buffer, 0, position);
+            } else if (appendable != null) {
+                appendable.append(CharBuffer.wrap(buffer, 0, position));
+            } else {
+                if (builder == null) {
+                    builder = new StringBuilder(buffer.length * 2);
+                }
+                builder.append(buffer, 0, position);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        position = 0;
+    }
+
+    /**
+     * Encode a lone high surrogate kept back by the last flush.
+     */
+    private void finish() {
+        try {
+            encode(position);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        position = 0;
+    }
+
+    /**
+     * Encode buffered chars as UTF-8 and write them to the stream.
+     *
+     * @param end
+     * @throws IOException
+     */
+    private void encode(int end) throws IOException {
+        int count = 0;
+        for (int i = 0; i < end; ++i) {
+            if (count + 4 > bytes.length) {
+                stream.write(bytes, 0, count);
+                count = 0;
+            }
+            char c = buffer[i];
+            if (c < 0x80) {
+                bytes[count++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[count++] = (byte) (0xc0 | c >> 6);
+                bytes[count++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(buffer[i + 1])) {
+                int code = Character.toCodePoint(c, buffer[++i]);
+                bytes[count++] = (byte) (0xf0 | code >> 18);
+                bytes[count++] = (byte) (0x80 | code >> 12 & 0x3f);
+                bytes[count++] = (byte) (0x80 | code >> 6 & 0x3f);
+                bytes[count++] = (byte) (0x80 | code & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                bytes[count++] = '?';
+            } else {
+                bytes[count++] = (byte) (0xe0 | c >> 12);
+                bytes[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[count++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        stream.write(bytes, 0, count);
+    }
+
+    /**
+     * Take this thread's writer, or create a fresh one if it is in use.
+     *
+     * @return
+     */
+    private static JsomWriter acquire() {
+        JsomWriter writer = WRITERS.get();
+        if (writer == null) {
+            return new JsomWriter();
+        }
+        WRITERS.set(null);
+        return writer;
+    }
+
+    private static void release(JsomWriter writer) {
+        writer.appendable = null;
+        writer.stream = null;
+        writer.builder = null;
+        writer.position = 0;
+        Arrays.fill(writer.iterators, 0, writer.depth, null);
+        writer.depth = 0;
+        WRITERS.set(writer);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Per-thread writers, taken out while writing.
+     */
+    private static final ThreadLocal<JsomWriter> WRITERS
+            = ThreadLocal.withInitial(JsomWriter::new);
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final byte[] bytes = new byte[BUFFER_SIZE * 3];
+    private Iterator<?>[] iterators = new Iterator<?>[16];
+    private char[] closers = new char[16];
+    private int depth;
+    private int position;
+    private Appendable appendable;
+    private OutputStream stream;
+    private StringBuilder builder;
+
+}
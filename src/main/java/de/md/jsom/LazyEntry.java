@@ -0,0 +1,61 @@
+package de.md.jsom;
+
+import java.util.Map.Entry;
+import java.util.Objects;
+
+/**
+ * Entry view that wraps the value of a map entry in a Jsom on first access.
+ * setValue() writes through to the underlying entry.
+ */
+final class LazyEntry implements Entry<String, Jsom> {
+
+    /**
+     * @param entry
+     */
+    LazyEntry(Entry<String, Object> entry) {
+        this.entry = entry;
+    }
+
+    @Override
+    public String getKey() {
+        return entry.getKey();
+    }
+
+    @Override
+    public Jsom getValue() {
+        Jsom wrapped = value;
+        return wrapped != null ? wrapped : (value = Jsom.$(entry.getValue()));
+    }
+
+    @Override
+    public Jsom setValue(Jsom value) {
+        Jsom previous = getValue();
+        entry.setValue(Jsom.valueOf(value));
+        this.value = null;
+        return previous;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Entry)) {
+            return false;
+        }
+        Entry<?, ?> that = (Entry<?, ?>) other;
+        return Objects.equals(getKey(), that.getKey())
+                && Objects.equals(entry.getValue(), Jsom.valueOf(that.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getKey()) ^ Objects.hashCode(entry.getValue());
+    }
+
+    @Override
+    public String toString() {
+        return getKey() + "=" + entry.getValue();
+    }
+
+    private final Entry<String, Object> entry;
+    private Jsom value;
+
+}
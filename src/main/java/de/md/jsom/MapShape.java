@@ -0,0 +1,151 @@
+package de.md.jsom;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable key layout of a CompactMap, shared by all maps that received
+ * the same keys in the same order.
+ *
+ * Shapes form a transition tree rooted at EMPTY: adding a key to a shape
+ * always yields the same child shape, so maps built alike (e.g. the records
+ * of an array) share one shape and one set of key strings.
+ *
+ * The tree is static, so every shape in it stays reachable for the lifetime
+ * of the class, along with its key strings. To keep keys that are not
+ * shared (ids used as keys, say) from piling up, each shape takes at most
+ * MAX_TRANSITIONS distinct next keys (EMPTY, which every kind of object
+ * starts from, takes MAX_ROOT_TRANSITIONS), and the whole tree at most
+ * MAX_SHAPES shapes. Keys beyond these bounds get no shape; CompactMap then keeps its
+ * entries in a LinkedHashMap instead.
+ *
+ * Thread-safe.
+ */
+final class MapShape {
+
+    /**
+     * The shape without keys.
+     */
+    static final MapShape EMPTY = new MapShape(new String[0]);
+
+    /**
+     * Shapes never grow beyond this number of keys.
+     */
+    static final int MAX_KEYS = 32;
+
+    /**
+     * Shapes never have more than this number of child shapes.
+     */
+    static final int MAX_TRANSITIONS = 32;
+
+    private MapShape(String[] keys) {
+        this.keys = keys;
+        if (keys.length > LINEAR_SEARCH_KEYS) {
+            index = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; ++i) {
+                index.put(keys[i], i);
+            }
+        } else {
+            index = null;
+        }
+    }
+
+    /**
+     * @return Number of keys
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param index
+     * @return Key at index
+     */
+    String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param key
+     * @return Index of key, or -1
+     */
+    int indexOf(Object key) {
+        if (index != null) {
+            Integer i = index.get(key);
+            return i == null ? -1 : i;
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == key || keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the shape with key appended.
+     *
+     * @param key A key not in this shape
+     * @return The shape, or null if the tree is full at this shape
+     */
+    MapShape with(String key) {
+        Map<String, MapShape> next = transitions;
+        MapShape shape = next == null ? null : next.get(key);
+        if (shape != null) {
+            return shape;
+        }
+        if (COUNT.get() >= MAX_SHAPES) {
+            return null;
+        }
+        String[] extended = new String[keys.length + 1];
+        System.arraycopy(keys, 0, extended, 0, keys.length);
+        extended[keys.length] = key;
+        synchronized (this) {
+            if (transitions == null) {
+                transitions = new ConcurrentHashMap<>(4);
+            }
+            shape = transitions.get(key);
+            if (shape != null) {
+                return shape;
+            }
+            if (transitions.size() >= (this == EMPTY ? MAX_ROOT_TRANSITIONS : MAX_TRANSITIONS)) {
+                return null;
+            }
+            shape = new MapShape(extended);
+            transitions.put(key, shape);
+        }
+        COUNT.incrementAndGet();
+        return shape;
+    }
+
+    /**
+     * Return the shape without the key at index.
+     *
+     * @param index
+     * @return The shape, or null if the tree is full on the way
+     */
+    MapShape without(int index) {
+        MapShape shape = EMPTY;
+        for (int i = 0; i < keys.length && shape != null; ++i) {
+            if (i != index) {
+                shape = shape.with(keys[i]);
+            }
+        }
+        return shape;
+    }
+
+    private static final int LINEAR_SEARCH_KEYS = 8;
+
+    private static final int MAX_ROOT_TRANSITIONS = 1024;
+
+    private static final int MAX_SHAPES = 1 << 16;
+
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final String[] keys;
+    private final Map<String, Integer> index;
+    private volatile Map<String, MapShape> transitions;
+
+}
@@ -0,0 +1,276 @@
+package de.md.jsom;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+
+/**
+ * Immutable list with structural sharing.
+ *
+ * A persistent vector: elements live in a trie of 32-element leaves plus a
+ * separate tail leaf. with() and withAdded() return new versions in
+ * O(log32 n), copying only the path to the changed leaf and sharing
+ * everything else with this one.
+ *
+ * All mutators of the List interface throw UnsupportedOperationException.
+ * Thread-safe.
+ *
+ * @see Jsom#freeze()
+ */
+final class PersistentList extends AbstractList<Object> implements RandomAccess, Serializable {
+
+    /**
+     * The list without elements.
+     */
+    static final PersistentList EMPTY = new PersistentList(0, PersistentList.BITS,
+            new Object[PersistentList.WIDTH], new Object[0]);
+
+    private PersistentList(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Create a list of the given elements, building the trie bottom-up.
+     *
+     * @param elements
+     * @return
+     */
+    static PersistentList of(Object[] elements) {
+        int size = elements.length;
+        if (size == 0) {
+            return EMPTY;
+        }
+        int tailOffset = tailOffset(size);
+        Object[] tail = Arrays.copyOfRange(elements, tailOffset, size);
+        Object[][] nodes = new Object[tailOffset >>> BITS][];
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = Arrays.copyOfRange(elements, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (nodes.length > WIDTH) {
+            Object[][] parents = new Object[(nodes.length + WIDTH - 1) >>> BITS][];
+            for (int i = 0; i < parents.length; ++i) {
+                parents[i] = new Object[WIDTH];
+                int count = Math.min(WIDTH, nodes.length - (i << BITS));
+                System.arraycopy(nodes, i << BITS, parents[i], 0, count);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        Object[] root = new Object[WIDTH];
+        System.arraycopy(nodes, 0, root, 0, nodes.length);
+        return new PersistentList(size, shift, root, tail);
+    }
+
+    /**
+     * Return a version of this list with an element replaced.
+     *
+     * @param index
+     * @param element
+     * @return
+     */
+    PersistentList with(int index, Object element) {
+        checkIndex(index);
+        if (get(index) == element) {
+            return this;
+        } else if (index >= tailOffset(size)) {
+            Object[] copy = tail.clone();
+            copy[index & MASK] = element;
+            return new PersistentList(size, shift, root, copy);
+        }
+        return new PersistentList(size, shift, assign(shift, root, index, element), tail);
+    }
+
+    /**
+     * Return a version of this list with an element appended.
+     *
+     * @param element
+     * @return
+     */
+    PersistentList withAdded(Object element) {
+        if (size - tailOffset(size) < WIDTH) {
+            Object[] copy = Arrays.copyOf(tail, tail.length + 1);
+            copy[tail.length] = element;
+            return new PersistentList(size + 1, shift, root, copy);
+        }
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = path(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentList(size + 1, newShift, newRoot, new Object[] { element });
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index);
+        return leaf(index)[index & MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Spliterator<Object> spliterator() {
+        return new IndexSpliterator<>(this);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Object next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((next & MASK) == 0) {
+                    leaf = leaf(next);
+                }
+                return leaf[next++ & MASK];
+            }
+
+            private int next;
+            private Object[] leaf;
+
+        };
+    }
+
+    private Object[] leaf(int index) {
+        if (index >= tailOffset(size)) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int slot = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[slot] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[slot];
+            copy[slot] = child != null ? pushTail(level - BITS, child, leaf) : path(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static Object[] assign(int level, Object[] node, int index, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            int slot = (index >>> level) & MASK;
+            copy[slot] = assign(level - BITS, (Object[]) node[slot], index, element);
+        }
+        return copy;
+    }
+
+    private static Object[] path(int level, Object[] leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        Object[] node = new Object[WIDTH];
+        node[0] = path(level - BITS, leaf);
+        return node;
+    }
+
+    /**
+     * @param size
+     * @return Index of the first element in the tail
+     */
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Return the hash code, computed once.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = super.hashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof PersistentList) {
+            PersistentList that = (PersistentList) other;
+            if (that.size != size || (hash != 0 && that.hash != 0 && hash != that.hash)) {
+                return false;
+            }
+        }
+        return super.equals(other);
+    }
+
+    private Object writeReplace() {
+        return new Proxy(toArray());
+    }
+
+    /**
+     * Serialized form.
+     */
+    private static final class Proxy implements Serializable {
+
+        Proxy(Object[] elements) {
+            this.elements = elements;
+        }
+
+        private Object readResolve() {
+            return of(elements);
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] elements;
+
+    }
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private int hash;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+}
@@ -0,0 +1,533 @@
+package de.md.jsom;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map with structural sharing.
+ *
+ * A hash array mapped trie (in the compact CHAMP layout): with() and
+ * without() return new versions in O(log n) that share all untouched nodes
+ * with this one. Iteration order follows the key hashes, not insertion.
+ *
+ * All mutators of the Map interface throw UnsupportedOperationException.
+ * Keys must not be null. Thread-safe.
+ *
+ * @see Jsom#freeze()
+ */
+final class PersistentMap extends AbstractMap<String, Object> implements Serializable {
+
+    /**
+     * The map without entries.
+     */
+    static final PersistentMap EMPTY = new PersistentMap(BitmapNode.EMPTY, 0);
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Return a version of this map with a key set to a value.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    PersistentMap with(String key, Object value) {
+        Jsom.require(key, "Cannot put null key");
+        Change change = new Change();
+        Node updated = root.with(key, key.hashCode(), value, 0, change);
+        return updated == root ? this : new PersistentMap(updated, change.added ? size + 1 : size);
+    }
+
+    /**
+     * Return a version of this map without a key.
+     *
+     * @param key
+     * @return
+     */
+    PersistentMap without(Object key) {
+        if (key == null) {
+            return this;
+        }
+        Node updated = root.without(key, key.hashCode(), 0);
+        return updated == root ? this : new PersistentMap(updated, size - 1);
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = key == null ? ABSENT : root.get(key, key.hashCode(), 0);
+        return value == ABSENT ? null : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && root.get(key, key.hashCode(), 0) != ABSENT;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        };
+    }
+
+    /**
+     * Return the hash code, computed once.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = super.hashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof PersistentMap) {
+            PersistentMap that = (PersistentMap) other;
+            if (that.size != size || (hash != 0 && that.hash != 0 && hash != that.hash)) {
+                return false;
+            }
+        }
+        return super.equals(other);
+    }
+
+    private Object writeReplace() {
+        Object[] entries = new Object[size * 2];
+        int i = 0;
+        for (Entry<String, Object> entry : entrySet()) {
+            entries[i++] = entry.getKey();
+            entries[i++] = entry.getValue();
+        }
+        return new Proxy(entries);
+    }
+
+    /**
+     * Serialized form.
+     */
+    private static final class Proxy implements Serializable {
+
+        Proxy(Object[] entries) {
+            this.entries = entries;
+        }
+
+        private Object readResolve() {
+            PersistentMap map = EMPTY;
+            for (int i = 0; i < entries.length; i += 2) {
+                map = map.with((String) entries[i], entries[i + 1]);
+            }
+            return map;
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] entries;
+
+    }
+
+    /**
+     * Outcome of an update.
+     */
+    private static final class Change {
+
+        boolean added;
+
+    }
+
+    /**
+     * Trie node. Entries are stored in the node whose level first tells
+     * their hash apart from all others; sub-nodes hold the rest.
+     */
+    private abstract static class Node {
+
+        /**
+         * @return The value of key, or ABSENT
+         */
+        abstract Object get(Object key, int hash, int shift);
+
+        abstract Node with(String key, int hash, Object value, int shift, Change change);
+
+        /**
+         * @return This node if key is absent
+         */
+        abstract Node without(Object key, int hash, int shift);
+
+        abstract int entries();
+
+        abstract String key(int index);
+
+        abstract Object value(int index);
+
+        abstract int nodes();
+
+        abstract Node node(int index);
+
+    }
+
+    /**
+     * Node with up to 32 slots, addressed by 5 bits of the hash. Entries are
+     * stored as key/value pairs from the front of the array, sub-nodes from
+     * the back.
+     */
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+        BitmapNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * index(dataMap, bit);
+                return key.equals(content[i]) ? content[i + 1] : ABSENT;
+            } else if ((nodeMap & bit) != 0) {
+                return nodeAt(bit).get(key, hash, shift + BITS);
+            }
+            return ABSENT;
+        }
+
+        @Override
+        Node with(String key, int hash, Object value, int shift, Change change) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * index(dataMap, bit);
+                String existing = (String) content[i];
+                if (existing.equals(key)) {
+                    if (content[i + 1] == value) {
+                        return this;
+                    }
+                    Object[] copy = content.clone();
+                    copy[i + 1] = value;
+                    return new BitmapNode(dataMap, nodeMap, copy);
+                }
+                change.added = true;
+                Node node = merge(existing, existing.hashCode(), content[i + 1], key, hash, value, shift + BITS);
+                return inlineToNode(bit, node);
+            } else if ((nodeMap & bit) != 0) {
+                Node node = nodeAt(bit);
+                Node updated = node.with(key, hash, value, shift + BITS, change);
+                return updated == node ? this : replaceNode(bit, updated);
+            }
+            change.added = true;
+            int i = 2 * index(dataMap, bit);
+            Object[] copy = new Object[content.length + 2];
+            System.arraycopy(content, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = value;
+            System.arraycopy(content, i, copy, i + 2, content.length - i);
+            return new BitmapNode(dataMap | bit, nodeMap, copy);
+        }
+
+        @Override
+        Node without(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = 2 * index(dataMap, bit);
+                if (!key.equals(content[i])) {
+                    return this;
+                }
+                Object[] copy = new Object[content.length - 2];
+                System.arraycopy(content, 0, copy, 0, i);
+                System.arraycopy(content, i + 2, copy, i, content.length - i - 2);
+                return new BitmapNode(dataMap ^ bit, nodeMap, copy);
+            } else if ((nodeMap & bit) != 0) {
+                Node node = nodeAt(bit);
+                Node updated = node.without(key, hash, shift + BITS);
+                if (updated == node) {
+                    return this;
+                } else if (updated.entries() == 1 && updated.nodes() == 0) {
+                    return nodeToInline(bit, updated.key(0), updated.value(0));
+                }
+                return replaceNode(bit, updated);
+            }
+            return this;
+        }
+
+        @Override
+        int entries() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        String key(int index) {
+            return (String) content[2 * index];
+        }
+
+        @Override
+        Object value(int index) {
+            return content[2 * index + 1];
+        }
+
+        @Override
+        int nodes() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        Node node(int index) {
+            return (Node) content[content.length - 1 - index];
+        }
+
+        private Node nodeAt(int bit) {
+            return node(index(nodeMap, bit));
+        }
+
+        private Node replaceNode(int bit, Node node) {
+            Object[] copy = content.clone();
+            copy[content.length - 1 - index(nodeMap, bit)] = node;
+            return new BitmapNode(dataMap, nodeMap, copy);
+        }
+
+        /**
+         * Replace the entry at bit by a sub-node.
+         */
+        private Node inlineToNode(int bit, Node node) {
+            int i = 2 * index(dataMap, bit);
+            int rank = index(nodeMap, bit);
+            Object[] copy = new Object[content.length - 1];
+            int j = copy.length - 1 - rank;
+            System.arraycopy(content, 0, copy, 0, i);
+            System.arraycopy(content, i + 2, copy, i, j - i);
+            copy[j] = node;
+            System.arraycopy(content, content.length - rank, copy, j + 1, rank);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, copy);
+        }
+
+        /**
+         * Replace the sub-node at bit by its only entry.
+         */
+        private Node nodeToInline(int bit, String key, Object value) {
+            int i = 2 * index(dataMap, bit);
+            int rank = index(nodeMap, bit);
+            int length = content.length;
+            Object[] copy = new Object[length + 1];
+            System.arraycopy(content, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = value;
+            System.arraycopy(content, i, copy, i + 2, length - 1 - rank - i);
+            System.arraycopy(content, length - rank, copy, length + 1 - rank, rank);
+            return new BitmapNode(dataMap | bit, nodeMap ^ bit, copy);
+        }
+
+        private static Node merge(String key1, int hash1, Object value1,
+                String key2, int hash2, Object value2, int shift) {
+            if (shift >= HASH_BITS) {
+                return new CollisionNode(new String[] { key1, key2 }, new Object[] { value1, value2 });
+            }
+            int slot1 = (hash1 >>> shift) & MASK;
+            int slot2 = (hash2 >>> shift) & MASK;
+            int bits = (1 << slot1) | (1 << slot2);
+            if (slot1 == slot2) {
+                Node node = merge(key1, hash1, value1, key2, hash2, value2, shift + BITS);
+                return new BitmapNode(0, bits, new Object[] { node });
+            } else if (slot1 < slot2) {
+                return new BitmapNode(bits, 0, new Object[] { key1, value1, key2, value2 });
+            }
+            return new BitmapNode(bits, 0, new Object[] { key2, value2, key1, value1 });
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private static int index(int map, int bit) {
+            return Integer.bitCount(map & (bit - 1));
+        }
+
+        private final int dataMap;
+        private final int nodeMap;
+        private final Object[] content;
+
+    }
+
+    /**
+     * Node for keys with identical hashes.
+     */
+    private static final class CollisionNode extends Node {
+
+        CollisionNode(String[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? ABSENT : values[i];
+        }
+
+        @Override
+        Node with(String key, int hash, Object value, int shift, Change change) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (values[i] == value) {
+                    return this;
+                }
+                Object[] copy = values.clone();
+                copy[i] = value;
+                return new CollisionNode(keys, copy);
+            }
+            change.added = true;
+            String[] keyCopy = Arrays.copyOf(keys, keys.length + 1);
+            Object[] valueCopy = Arrays.copyOf(values, values.length + 1);
+            keyCopy[keys.length] = key;
+            valueCopy[values.length] = value;
+            return new CollisionNode(keyCopy, valueCopy);
+        }
+
+        @Override
+        Node without(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            String[] keyCopy = new String[keys.length - 1];
+            Object[] valueCopy = new Object[values.length - 1];
+            System.arraycopy(keys, 0, keyCopy, 0, i);
+            System.arraycopy(keys, i + 1, keyCopy, i, keyCopy.length - i);
+            System.arraycopy(values, 0, valueCopy, 0, i);
+            System.arraycopy(values, i + 1, valueCopy, i, valueCopy.length - i);
+            return new CollisionNode(keyCopy, valueCopy);
+        }
+
+        @Override
+        int entries() {
+            return keys.length;
+        }
+
+        @Override
+        String key(int index) {
+            return keys[index];
+        }
+
+        @Override
+        Object value(int index) {
+            return values[index];
+        }
+
+        @Override
+        int nodes() {
+            return 0;
+        }
+
+        @Override
+        Node node(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private final String[] keys;
+        private final Object[] values;
+
+    }
+
+    /**
+     * Depth-first iterator: entries of a node, then its sub-nodes.
+     */
+    private static final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+        EntryIterator(Node root) {
+            push(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || index >= current.entries()) {
+                current = null;
+                if (depth == 0) {
+                    return false;
+                }
+                Node top = stack[depth - 1];
+                if (positions[depth - 1] < top.nodes()) {
+                    push(top.node(positions[depth - 1]++));
+                } else {
+                    --depth;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = index++;
+            return new SimpleImmutableEntry<>(current.key(i), current.value(i));
+        }
+
+        private void push(Node node) {
+            stack[depth] = node;
+            positions[depth++] = 0;
+            current = node;
+            index = 0;
+        }
+
+        private final Node[] stack = new Node[MAX_DEPTH];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Node current;
+        private int index;
+
+    }
+
+    private static final Object ABSENT = new Object();
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int HASH_BITS = 32;
+    private static final int MAX_DEPTH = (HASH_BITS + BITS - 1) / BITS + 1;
+
+    private static final long serialVersionUID = 1L;
+
+    private final Node root;
+    private final int size;
+    private int hash;
+
+}
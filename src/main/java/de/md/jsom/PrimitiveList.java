@@ -0,0 +1,32 @@
+package de.md.jsom;
+
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * A List that can stream its numeric elements without boxing them.
+ *
+ * Conversions follow Jsom#longOf(Object) and friends: null becomes 0, other
+ * non-numbers throw a ClassCastException.
+ *
+ * @see Jsom#longs()
+ */
+interface PrimitiveList {
+
+    /**
+     * @return
+     */
+    LongStream longs();
+
+    /**
+     * @return
+     */
+    IntStream ints();
+
+    /**
+     * @return
+     */
+    DoubleStream doubles();
+
+}
@@ -0,0 +1,99 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class ColumnarListTest extends TestCase {
+
+    public Jsom todo = list(
+            map()
+                    .put("title", "learn java")
+                    .put("done", true)
+                    .put("year", 1999),
+            map()
+                    .put("title", "get jsom")
+                    .put("done", false)
+                    .put("year", 2017),
+            map()
+                    .put("title", "be awesome")
+                    .put("done", false)
+    );
+
+    public void testRows() {
+        Jsom columnar = columnar(todo);
+        assertEquals(todo.toList(), columnar.toList());
+        assertEquals(valueOf(todo), valueOf(columnar));
+        assertEquals(2017, columnar.get(1).get("year").toInt());
+        assertFalse(columnar.get(2).containsKey("year"));
+        assertEquals(2, columnar.stream()
+                .filter(item -> !item.get("done").toBoolean())
+                .count());
+
+        columnar.get(2).put("year", 2018).remove("done");
+        assertEquals(map().put("title", "be awesome").put("year", 2018).toMap(), columnar.get(2).toMap());
+    }
+
+    public void testColumns() {
+        Jsom columnar = columnar(todo);
+        assertEquals(2017, columnar.column("year").ints().max().getAsInt());
+        assertEquals(4016L, columnar.column("year").longs().sum());
+        assertEquals(Arrays.asList(1999, 2017, null), columnar.column("year").toList());
+        assertEquals(Arrays.asList(true, false, false), columnar.column("done").toList());
+        assertEquals(0, columnar.column("missing").longs().sum());
+        assertEquals(todo.column("year").toList(), columnar.column("year").toList());
+
+        columnar.column("year").set(0, 2000.5);
+        assertEquals(2000.5, columnar.get(0).get("year").toDouble());
+        assertEquals(Arrays.asList(2000.5, 2017, null), columnar.column("year").toList());
+    }
+
+    public void testMutation() {
+        Jsom columnar = columnar(todo);
+        columnar.add(0, map().put("title", "first").put("tags", list("a")));
+        columnar.remove(2);
+        columnar.set(1, map().put("title", "replaced"));
+        assertEquals(3, columnar.size());
+        assertEquals("first", columnar.get(0).get("title").toString());
+        assertEquals(map().put("title", "replaced").toMap(), columnar.get(1).toMap());
+        assertEquals(Arrays.asList(null, null, null), columnar.column("year").toList());
+        assertEquals(Arrays.asList("a"), columnar.get(0).get("tags").toList());
+        try {
+            columnar.add(1);
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+    }
+
+    public void testKeyOrder() {
+        Jsom columnar = columnar(list(map().put("a", 1).put("b", 2), map().put("b", 3).put("c", 4).put("a", 5)));
+        assertEquals(Arrays.asList("a", "b"), columnar.get(0).keys().toList());
+        assertEquals(Arrays.asList("a", "b", "c"), columnar.get(1).keys().toList());
+    }
+
+    public void testSort() {
+        Jsom columnar = columnar(list());
+        for (int i = 5; i >= 0; --i) {
+            columnar.add(i % 2 == 0 ? map().put("id", i).put("even", true) : map().put("id", i));
+        }
+        columnar.sort((a, b) -> $(a).get("id").toInt() - $(b).get("id").toInt());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), columnar.column("id").toList());
+        assertEquals(Arrays.asList(true, null, true, null, true, null), columnar.column("even").toList());
+        assertFalse(columnar.get(1).containsKey("even"));
+
+        Collections.shuffle(columnar.toList(), new Random(1));
+        assertEquals(6, columnar.column("id").stream().distinct().count());
+        columnar.stream().forEach(row -> assertEquals(row.get("id").toInt() % 2 == 0, row.containsKey("even")));
+        columnar.add(0, columnar.get(5));
+        assertEquals(valueOf(columnar.get(6)), valueOf(columnar.get(0)));
+    }
+
+}
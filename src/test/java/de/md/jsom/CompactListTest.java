@@ -0,0 +1,71 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CompactListTest extends TestCase {
+
+    public void testPrimitive() {
+        Jsom ints = list(3, 1, 2);
+        assertEquals(Arrays.asList(3, 1, 2), ints.toList());
+        assertEquals(Integer.valueOf(1), valueOf(ints.get(1)));
+        assertTrue(ints.contains(2));
+        assertFalse(ints.contains(2L));
+        assertEquals(6, ints.ints().sum());
+
+        ints.sort(null);
+        assertEquals(Arrays.asList(1, 2, 3), ints.toList());
+        assertEquals(Arrays.asList(2, 3), ints.subList(1, 3).toList());
+        ints.subList(0, 2).clear();
+        assertEquals(Arrays.asList(3), ints.toList());
+
+        Jsom doubles = list(1.5, -0.0, 2.5).add(0, 0.5).remove(2);
+        assertEquals(Arrays.asList(0.5, 1.5, 2.5), doubles.toList());
+        assertEquals(4.5, doubles.doubles().sum());
+        assertEquals(3L, doubles.longs().sum());
+        assertEquals(-1, list(0.0).indexOf(-0.0));
+    }
+
+    public void testInflate() {
+        Jsom mixed = list(1L, 2L).add(3).add(null).set(0, "x");
+        List<Object> expected = new ArrayList<>(Arrays.asList("x", 2L, 3, null));
+        assertEquals(expected, mixed.toList());
+        assertEquals(expected.hashCode(), mixed.toList().hashCode());
+        assertEquals(Long.class, valueOf(mixed.get(1)).getClass());
+        assertEquals(Integer.class, valueOf(mixed.get(2)).getClass());
+    }
+
+    public void testGrowAndClear() {
+        Jsom longs = list();
+        for (long i = 0; i < 1000; ++i) {
+            longs.add(i);
+        }
+        assertEquals(1000, longs.size());
+        assertEquals(499500L, longs.longs().sum());
+        longs.clear().add("a");
+        assertEquals(Arrays.asList("a"), longs.toList());
+    }
+
+    public void testParsedAndCollected() {
+        assertTrue(valueOf(parse("[1, 2, 3]")) instanceof CompactList);
+        assertEquals(Arrays.asList(1, 2, 3), valueOf(Arrays.asList(1, 2, 3).stream().collect(TO_LIST)));
+    }
+
+    public void testIndexOutOfBounds() {
+        try {
+            list(1).get(1);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CompactMapTest extends TestCase {
+
+    public void testMap() {
+        Jsom json = map().put("a", 1).put("b", null).put("c", "x").put("a", 2);
+        assertEquals(3, json.size());
+        assertEquals(2, json.get("a").toInt());
+        assertTrue(json.containsKey("b"));
+        assertEquals(Arrays.asList("a", "b", "c"), json.keys().toList());
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", 2);
+        expected.put("b", null);
+        expected.put("c", "x");
+        assertEquals(expected, json.toMap());
+        assertEquals(json.toMap(), expected);
+        assertEquals(expected.hashCode(), json.toMap().hashCode());
+
+        json.remove("a");
+        assertEquals(Arrays.asList("b", "c"), json.keys().toList());
+        assertEquals("x", json.get("c").toString());
+        assertTrue(json.get("a").isNull());
+    }
+
+    public void testSharedShapes() {
+        Jsom records = parse("[{\"id\": 1, \"name\": \"a\"}, {\"id\": 2, \"name\": \"b\"}]");
+        Map<String, Object> first = records.get(0).toMap();
+        Map<String, Object> second = records.get(1).toMap();
+        assertSame(first.keySet().iterator().next(), second.keySet().iterator().next());
+        assertEquals("b", records.get(1).get("name").toString());
+    }
+
+    public void testEntries() {
+        Jsom json = map().put("a", 1).put("b", 2).put("c", 3);
+        json.entryStream().forEach(entry -> entry.getValue().toInt());
+        for (Entry<String, Object> entry : json.toMap().entrySet()) {
+            entry.setValue(entry.getValue() + "!");
+        }
+        assertEquals("2!", json.get("b").toString());
+
+        Iterator<Entry<String, Object>> iterator = json.toMap().entrySet().iterator();
+        iterator.next();
+        iterator.next();
+        iterator.remove();
+        assertEquals("c", iterator.next().getKey());
+        assertFalse(iterator.hasNext());
+        assertEquals(Arrays.asList("a", "c"), json.keys().toList());
+    }
+
+    public void testOverflow() {
+        Jsom json = map();
+        for (int i = 0; i < 100; ++i) {
+            json.put("key" + i, i);
+        }
+        assertEquals(100, json.size());
+        assertEquals(42, json.get("key42").toInt());
+        assertEquals("key0", json.keys().get(0).toString());
+        json.remove("key42");
+        assertEquals(99, json.size());
+    }
+
+    public void testUnsharedKeys() {
+        MapShape prefix = MapShape.EMPTY.with("testUnsharedKeys");
+        int shapes = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (prefix.with("id" + i) != null) {
+                ++shapes;
+            }
+        }
+        assertEquals(MapShape.MAX_TRANSITIONS, shapes);
+        assertNotNull(prefix.with("id0"));
+
+        Jsom records = list();
+        for (int i = 0; i < 1000; ++i) {
+            records.add(map().put("testUnsharedKeys", i).put("id" + i, true).put("name", "x"));
+        }
+        Jsom last = records.get(999);
+        assertEquals(Arrays.asList("testUnsharedKeys", "id999", "name"), last.keys().toList());
+        assertTrue(last.get("id999").toBoolean());
+        last.remove("testUnsharedKeys");
+        assertEquals(Arrays.asList("id999", "name"), last.keys().toList());
+        Jsom first = records.get(0);
+        first.remove("testUnsharedKeys");
+        assertEquals(Arrays.asList("id0", "name"), first.keys().toList());
+        assertEquals("x", first.get("name").toString());
+    }
+
+    public void testSerializable() throws Exception {
+        Jsom json = map().put("a", 1).put("b", list(1, 2));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(valueOf(json));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(valueOf(json), in.readObject());
+        }
+    }
+
+}
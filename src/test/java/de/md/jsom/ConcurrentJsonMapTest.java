@@ -0,0 +1,127 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class ConcurrentJsonMapTest extends TestCase {
+
+    public void testNulls() {
+        Jsom map = concurrentMap().put("a", null).put("b", 1);
+        assertTrue(map.containsKey("a"));
+        assertTrue(map.get("a").isNull());
+        assertTrue(map.toMap().containsValue(null));
+        assertEquals("{\"a\":null,\"b\":1}", map.toJson());
+        assertEquals(map.toMap(), map().put("a", null).put("b", 1).toMap());
+        assertNull(map.toMap().getOrDefault("a", 5));
+        assertEquals(5, map.toMap().getOrDefault("c", 5));
+
+        // null counts as absent, as in computeIfAbsent and merge
+        assertNull(map.toMap().putIfAbsent("a", 2));
+        assertEquals(2, map.get("a").toInt());
+        assertEquals(2, map.toMap().putIfAbsent("a", 4));
+        map.put("a", null);
+        assertEquals(3, map.toMap().computeIfAbsent("a", key -> 3));
+        map.replace("a", 3, null);
+        assertTrue(map.toMap().remove("a", null));
+        assertFalse(map.containsKey("a"));
+
+        map.toMap().entrySet().iterator().next().setValue(null);
+        assertTrue(map.containsKey("b"));
+        assertTrue(map.get("b").isNull());
+        try {
+            map.put(null, 1);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    public void testCompound() {
+        Jsom map = concurrentMap().put("n", null);
+        assertEquals(5, map.merge("n", 5, (a, b) -> a.toInt() + b.toInt()).toInt());
+        assertEquals(7, map.merge("n", 2, (a, b) -> a.toInt() + b.toInt()).toInt());
+        assertTrue(map.merge("n", 1, (a, b) -> null).isNull());
+        assertFalse(map.containsKey("n"));
+
+        assertEquals("x", map.compute("s", (key, previous) -> previous.isNull() ? "x" : null).toString());
+        assertTrue(map.compute("s", (key, previous) -> previous.isNull() ? "x" : null).isNull());
+        assertFalse(map.containsKey("s"));
+        assertEquals(list(1).toList(), map.compute("l", (key, previous) -> list(1)).toList());
+
+        assertEquals(3, map.increment("c", 3));
+        assertEquals(1, map.increment("c", -2));
+        assertEquals(10, map().put("c", 9).increment("c", 1));
+        try {
+            map.put("s", "x").increment("s", 1);
+            fail();
+        } catch (ClassCastException e) {
+            // expected
+        }
+    }
+
+    public void testContention() throws Exception {
+        Jsom map = concurrentMap();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; ++i) {
+                        map.increment("count", 1);
+                        map.increment("key" + (i % 10), 2);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(80000L, map.get("count").toLong());
+        assertEquals(16000L, map.get("key3").toLong());
+    }
+
+    public void testToConcurrent() throws Exception {
+        Jsom original = map().put("a", list(1, map().put("b", null))).put("c", new Object[] { 2 });
+        Jsom concurrent = original.toConcurrent();
+        assertEquals(deepClone(original).toMap(), concurrent.toMap());
+        assertTrue(concurrent.toMap() instanceof ConcurrentMap);
+        assertTrue(concurrent.get("a").toList() instanceof CopyOnWriteArrayList);
+        assertTrue(concurrent.get("a").get(1).toMap() instanceof ConcurrentMap);
+        assertTrue(concurrent.get("c").toList() instanceof CopyOnWriteArrayList);
+        concurrent.get("a").add(3);
+        assertEquals(2, original.get("a").size());
+
+        Jsom list = concurrentList(1, map(), null);
+        assertEquals(Arrays.asList(1, map().toMap(), null), list.toList());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(concurrent.toMap());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Jsom copy = $(in.readObject());
+            assertTrue(copy.at("/a/1").containsKey("b"));
+            assertTrue(copy.at("/a/1/b").isNull());
+        }
+    }
+
+}
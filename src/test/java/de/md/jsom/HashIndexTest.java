@@ -0,0 +1,146 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class HashIndexTest extends TestCase {
+
+    public void testDistinct() {
+        Jsom list = list(1, 1L, "a", null, map().put("x", 1), 1, null, map().put("x", 1), "a", list(2));
+        assertEquals(Arrays.asList(1, 1L, "a", null, map().put("x", 1).toMap(), Arrays.asList(2)),
+                list.distinct().toList());
+        assertEquals(0, list().distinct().size());
+
+        List<Object> many = new LinkedList<>();
+        for (int i = 0; i < 10000; ++i) {
+            many.add(map().put("id", i % 1000).toMap());
+        }
+        Jsom distinct = $(many).distinct();
+        assertEquals(1000, distinct.size());
+        assertEquals(999, distinct.get(999).get("id").toInt());
+    }
+
+    public void testContainsAll() {
+        Jsom records = list();
+        List<Object> probes = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            records.add(map().put("id", i).put("tags", list("t" + i)));
+            probes.add(map().put("id", i).put("tags", list("t" + i)).toMap());
+        }
+        assertTrue(records.containsAll(probes));
+        probes.add(map().put("id", 1).put("tags", list("t2")));
+        assertFalse(records.containsAll(probes));
+        assertFalse(records.containsAll(Arrays.asList(1, 2)));
+        assertTrue(list(1, 2, 3).containsAll(Arrays.asList(3, 1)));
+        assertFalse(list(1, 2, 3).containsAll(Arrays.asList(3L)));
+    }
+
+    public void testCachedHash() {
+        Jsom map = map().put("a", 1).put("b", "x");
+        Map<String, Object> expected = new HashMap<>(map.toMap());
+        assertEquals(expected.hashCode(), map.toMap().hashCode());
+        map.put("a", 2);
+        expected.put("a", 2);
+        assertEquals(expected.hashCode(), map.toMap().hashCode());
+        map.toMap().entrySet().iterator().next().setValue(3);
+        expected.put("a", 3);
+        assertEquals(expected.hashCode(), map.toMap().hashCode());
+        assertEquals(expected, map.toMap());
+        assertFalse(map.toMap().equals(map().put("a", 4).put("b", "x").toMap()));
+
+        Jsom child = list(1);
+        Jsom parent = map().put("child", child);
+        int before = parent.toMap().hashCode();
+        child.add(2);
+        assertFalse(before == parent.toMap().hashCode());
+        assertEquals(parent.toMap(), map().put("child", list(1, 2)).toMap());
+
+        Jsom ints = list(1, 2, 3);
+        assertEquals(Arrays.asList(1, 2, 3).hashCode(), ints.toList().hashCode());
+        ints.set(0, 5).sort(null);
+        assertEquals(Arrays.asList(2, 3, 5).hashCode(), ints.toList().hashCode());
+        assertEquals(Arrays.asList(2.5, 1.0).hashCode(), list(2.5, 1.0).toList().hashCode());
+        assertFalse(list(1, 2).toList().equals(list(2, 1).toList()));
+
+        Jsom frozen = map().put("a", list(1)).freeze();
+        assertEquals(map().put("a", list(1)).toMap().hashCode(), frozen.toMap().hashCode());
+        assertFalse(frozen.toMap().equals(frozen.with("a", 2).toMap()));
+        assertEquals(frozen.toMap(), map().put("a", list(1)).freeze().toMap());
+    }
+
+    public void testNestedCachedHash() {
+        int[] count = new int[1];
+        Object counted = new Object() {
+
+            @Override
+            public int hashCode() {
+                ++count[0];
+                return 42;
+            }
+
+        };
+        Jsom inner = map().put("x", counted);
+        Jsom root = list(map().put("inner", inner));
+        int before = root.toList().hashCode();
+        assertEquals(before, root.toList().hashCode());
+        assertEquals(1, count[0]);
+
+        // changes deep down invalidate all ancestors
+        inner.put("y", 1);
+        assertFalse(before == root.toList().hashCode());
+        assertEquals(2, count[0]);
+        inner.remove("y");
+        assertEquals(before, root.toList().hashCode());
+        root.get(0).toMap().entrySet().iterator().next().setValue(list(1).toList());
+        assertEquals(list(map().put("inner", list(1))).toList().hashCode(), root.toList().hashCode());
+
+        // shared containers are not cached by their parents
+        Jsom shared = list(1);
+        Jsom first = list(shared);
+        Jsom second = map().put("s", shared);
+        int firstHash = first.toList().hashCode();
+        int secondHash = second.toMap().hashCode();
+        shared.add(2);
+        assertFalse(firstHash == first.toList().hashCode());
+        assertFalse(secondHash == second.toMap().hashCode());
+
+        // a removed container no longer reports to its old parent
+        Jsom moved = list(1);
+        Jsom source = list(moved);
+        source.remove(0);
+        Jsom target = map().put("m", moved);
+        int targetHash = target.toMap().hashCode();
+        moved.add(2);
+        assertFalse(targetHash == target.toMap().hashCode());
+    }
+
+    public void testSharedAfterHashing() {
+        Jsom child = map().put("x", 1);
+        Jsom parent = list(child);
+        parent.toList().hashCode();
+        list(child);
+        child.put("x", 2);
+        Jsom expected = list(map().put("x", 2));
+        assertEquals(expected.toList().hashCode(), parent.toList().hashCode());
+        assertEquals(expected.toList(), parent.toList());
+        assertTrue(list(expected).toList().contains(parent.toList()));
+
+        Jsom grandparent = map().put("p", list(child));
+        grandparent.toMap().hashCode();
+        map().put("again", grandparent.get("p"));
+        child.put("x", 3);
+        assertEquals(map().put("p", list(map().put("x", 3))).toMap(), grandparent.toMap());
+    }
+
+}
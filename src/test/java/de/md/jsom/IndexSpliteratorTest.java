@@ -0,0 +1,83 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class IndexSpliteratorTest extends TestCase {
+
+    public void testSplit() {
+        Jsom list = list();
+        for (int i = 0; i < 1000; ++i) {
+            list.add(i);
+        }
+        Spliterator<Object> right = list.toList().spliterator();
+        assertTrue(right.hasCharacteristics(Spliterator.SUBSIZED));
+        Spliterator<Object> left = right.trySplit();
+        assertEquals(500, left.estimateSize());
+        assertEquals(500, right.estimateSize());
+        List<Object> seen = new ArrayList<>();
+        assertTrue(left.tryAdvance(seen::add));
+        left.forEachRemaining(seen::add);
+        assertFalse(left.tryAdvance(seen::add));
+        assertEquals(list.toList().subList(0, 500), seen);
+
+        Spliterator<Object> single = list(1).toList().spliterator();
+        assertNull(single.trySplit());
+        assertEquals(1, single.estimateSize());
+    }
+
+    public void testParallel() {
+        List<Object> linked = new LinkedList<>();
+        for (int i = 0; i < 100000; ++i) {
+            linked.add(i);
+        }
+        Spliterator<Object> spliterator = IndexSpliterator.parallel(linked);
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SUBSIZED));
+        Spliterator<Object> prefix = spliterator.trySplit();
+        assertEquals(50000, prefix.estimateSize());
+        assertEquals(50000, spliterator.estimateSize());
+        assertEquals(25000, prefix.trySplit().estimateSize());
+        assertEquals(linked, $(linked).rawParallelStream().collect(Collectors.toList()));
+        assertEquals(linked, $(linked).parallelStream().collect(TO_LIST).toList());
+        assertEquals(100000L * 99999 / 2, $(linked).rawParallelStream().mapToLong(Jsom::longOf).sum());
+
+        Jsom frozen = $(linked).freeze();
+        assertEquals(linked, frozen.parallelStream().collect(TO_LIST).toList());
+        Jsom columnar = columnar(list(map().put("a", 1), map().put("a", 2)));
+        assertEquals(3, columnar.parallelStream().mapToInt(row -> row.get("a").toInt()).sum());
+    }
+
+    public void testEntries() {
+        Map<String, Object> raw = new LinkedHashMap<>();
+        for (int i = 0; i < 10000; ++i) {
+            raw.put("k" + i, i);
+        }
+        Jsom map = $(raw);
+        assertEquals(raw, map.rawParallelEntryStream().collect(TO_MAP).toMap());
+        assertEquals(raw, map.parallelEntryStream().collect(JsomCollectors.toMap()).toMap());
+        assertEquals(10000, map.rawEntryStream().count());
+
+        Entry<String, Jsom> entry = map().put("a", list(1)).entryStream().findFirst().get();
+        assertEquals("a", entry.getKey());
+        assertSame(entry.getValue(), entry.getValue());
+        Jsom target = map().put("a", 1);
+        target.entryStream().forEach(e -> e.setValue($(2)));
+        assertEquals(2, target.get("a").toInt());
+        assertTrue(target.entryStream().findFirst().get().equals(new SimpleEntry<>("a", 2)));
+    }
+
+}
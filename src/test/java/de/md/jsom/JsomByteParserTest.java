@@ -0,0 +1,132 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomByteParserTest extends TestCase {
+
+    public void testSwar() {
+        long word = 0x22205c7b2c3a5d22L;
+        assertEquals(0x81L, JsomScanner.bits(JsomScanner.equal(word, '"')));
+        assertEquals(0x20L, JsomScanner.bits(JsomScanner.equal(word, '\\')));
+        assertEquals(0x40L, JsomScanner.bits(JsomScanner.equal(word, ' ')));
+        assertEquals(0L, JsomScanner.bits(JsomScanner.equal(word, 'x')));
+        assertEquals(0xffL, JsomScanner.bits(JsomScanner.equal(-1L, (char) 0xff)));
+        assertEquals(0x0eL, JsomScanner.prefixXor(0x12L));
+    }
+
+    public void testValues() {
+        String[] valid = {
+            "{}", " [ ] ", "0", "-0", "1.5e-3", "-12345678901234567890", "123456789012345678", "true", "null",
+            "\"\"", "\"a\\\"b\\\\\"", "\"\\u00e9\\uD83D\\uDE00 \\/\\b\\f\\n\\r\\t\"", "\"ä€😀\"",
+            "{\"a\":[1,{\"b\":null}],\"c\":\"d\",\"a\":2}", "{\t\"a\" :\r\n [ 1 , true ]\n}", "[[[[]]],{\"\":{}}]"
+        };
+        for (String json : valid) {
+            assertEquals(json, JsomParser.parse(json), JsomByteParser.parse(json.getBytes(StandardCharsets.UTF_8)));
+        }
+        assertEquals(Integer.class, parse("1".getBytes(StandardCharsets.UTF_8)).value.getClass());
+        assertEquals(Long.class, parse("12345678901".getBytes(StandardCharsets.UTF_8)).value.getClass());
+    }
+
+    public void testMalformed() {
+        String[] malformed = {
+            "", " ", "{", "[1,]", "[1 2]", "{\"a\"}", "{\"a\":1,}", "{1:2}", "[1}", "\"abc", "\"a\\x\"",
+            "\"\\u12\"", "\"a\nb\"", "01", "1.", "1e", "-", "+1", "tru", "truex", "nul", "[1x]", "1 2", "[\"a\"b]",
+            "{\"a\" 1}", "]", "[,1]", ":", "[\u0001]", "[1,\u0001 2]", "[1\u0001]"
+        };
+        for (String json : malformed) {
+            try {
+                JsomByteParser.parse(json.getBytes(StandardCharsets.UTF_8));
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            JsomByteParser.parse("[1,\n2,x]".getBytes(StandardCharsets.UTF_8));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unexpected character 'x' at offset 6", e.getMessage());
+        }
+    }
+
+    public void testBlockBoundaries() {
+        // Backslash runs and quotes at every offset around the 64 byte blocks
+        for (int pad = 0; pad < 70; ++pad) {
+            for (int slashes = 0; slashes <= 5; ++slashes) {
+                StringBuilder json = new StringBuilder("[");
+                for (int i = 0; i < pad; ++i) {
+                    json.append(' ');
+                }
+                json.append("\"a");
+                for (int i = 0; i < slashes; ++i) {
+                    json.append("\\\\");
+                }
+                json.append("\\\"\",12,\"x\"]");
+                String text = json.toString();
+                assertEquals(text, JsomParser.parse(text), JsomByteParser.parse(text.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; ++i) {
+            Object value = random(random, 0);
+            String json = $(value).toJson();
+            assertEquals(JsomParser.parse(json), JsomByteParser.parse(json.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static Object random(Random random, int depth) {
+        switch (depth > 4 ? 3 + random.nextInt(5) : random.nextInt(8)) {
+            case 0:
+            case 1: {
+                Jsom map = map();
+                for (int i = random.nextInt(6); i > 0; --i) {
+                    map.put(randomString(random), random(random, depth + 1));
+                }
+                return map.value;
+            }
+            case 2: {
+                Jsom list = list();
+                for (int i = random.nextInt(6); i > 0; --i) {
+                    list.add(random(random, depth + 1));
+                }
+                return list.value;
+            }
+            case 3:
+                return randomString(random);
+            case 4:
+                return random.nextLong() >> random.nextInt(64);
+            case 5:
+                return random.nextDouble() * 1000 - 500;
+            case 6:
+                return random.nextBoolean();
+            default:
+                return null;
+        }
+    }
+
+    private static String randomString(Random random) {
+        String alphabet = "ab \"\\/\n\té€😀{}[],:";
+        StringBuilder string = new StringBuilder();
+        for (int i = random.nextInt(12); i > 0; --i) {
+            int k = random.nextInt(alphabet.length() - 1);
+            if (Character.isHighSurrogate(alphabet.charAt(k))) {
+                string.append(alphabet, k, k + 2);
+            } else if (!Character.isLowSurrogate(alphabet.charAt(k))) {
+                string.append(alphabet.charAt(k));
+            }
+        }
+        return string.toString();
+    }
+
+}
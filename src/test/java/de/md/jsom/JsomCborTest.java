@@ -0,0 +1,193 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomCborTest extends TestCase {
+
+    public void testTypes() {
+        Jsom value = map()
+                .put("int", 1)
+                .put("negative", -1000)
+                .put("intMax", Integer.MAX_VALUE)
+                .put("intMin", Integer.MIN_VALUE)
+                .put("long", 1L)
+                .put("longMin", Long.MIN_VALUE)
+                .put("double", 1.0)
+                .put("nan", Double.NaN)
+                .put("float", 1.5f)
+                .put("big", new BigInteger("123456789012345678901234567890"))
+                .put("smallBig", BigInteger.valueOf(-5))
+                .put("decimal", new BigDecimal("-12.3400"))
+                .put("string", "héllo 😀 €")
+                .put("true", true)
+                .put("false", false)
+                .put("null", null)
+                .put("list", list(1, "a", list(), map()))
+                .put("map", map().put("", map().put("x", list(2L))));
+        for (boolean stringRefs : new boolean[] {false, true}) {
+            Jsom read = readCbor(value.toCbor(stringRefs));
+            assertEquals(value.toMap(), read.toMap());
+            for (String key : value.toMap().keySet()) {
+                Object expected = valueOf(value.get(key));
+                Object actual = valueOf(read.get(key));
+                assertEquals(key, expected == null ? null : expected.getClass(),
+                        actual == null ? null : actual.getClass());
+            }
+        }
+        assertEquals("x", readCbor(new Jsom("x").toCbor(false)).toString());
+        assertTrue(readCbor(new Jsom(null).toCbor(true)).isNull());
+    }
+
+    public void testEncoding() {
+        assertEquals("0a", hex(10));
+        assertEquals("1903e8", hex(1000));
+        assertEquals("3903e7", hex(-1000));
+        assertEquals("1b0000000000000001", hex(1L));
+        assertEquals("fb3ff8000000000000", hex(1.5));
+        assertEquals("c249010000000000000000", hex(new BigInteger("18446744073709551616")));
+        assertEquals("c482211903e9", hex(new BigDecimal("10.01")));
+        assertEquals("6449455446", hex("IETF"));
+        assertEquals("a2616101616282f5f6", hex(map().put("a", 1).put("b", list(true, null))));
+        assertEquals("d901008363616161d81900d81900",
+                toHex(list("aaa", "aaa", "aaa").toCbor(true)));
+    }
+
+    public void testDecoding() {
+        // RFC 8949, appendix A
+        assertEquals(1000000, raw("1a000f4240"));
+        assertEquals(1000000000000L, raw("1b000000e8d4a51000"));
+        assertEquals(new BigInteger("18446744073709551615"), raw("1bffffffffffffffff"));
+        assertEquals(new BigInteger("-18446744073709551616"), raw("3bffffffffffffffff"));
+        assertEquals(4294967295L, raw("1affffffff"));
+        assertEquals(1.0, raw("f93c00"));
+        assertEquals(-4.0, raw("f9c400"));
+        assertEquals(5.960464477539063e-8, raw("f90001"));
+        assertEquals(100000.0f, raw("fa47c35000"));
+        assertEquals(Arrays.asList(1, Arrays.asList(2, 3)), raw("9f01820203ff"));
+        assertEquals(map().put("a", 1).put("b", list(2, 3)).toMap(), read("bf61610161629f0203ffff").toMap());
+        assertEquals("a", raw("d818d8186161"));
+        assertEquals(null, raw("f7"));
+        assertEquals(Arrays.asList("aaa", "aaa"), raw("d901008263616161d81900"));
+    }
+
+    public void testBignumRefs() {
+        // the magnitude takes index 0, so "aaa" is referenced as 1
+        BigInteger big = new BigInteger("18446744073709551616");
+        assertEquals("d9010085c249010000000000000000c2d8190063616161d81901d81901",
+                toHex(list(big, big, "aaa", "aaa", "aaa").toCbor(true)));
+        assertEquals(Arrays.asList(big, big.negate().subtract(BigInteger.ONE), "aaa", "aaa"),
+                raw("d9010084c249010000000000000000c3d8190063616161d81901"));
+        Jsom value = list(big, "aaa", big.negate().subtract(BigInteger.ONE), "aaa", BigInteger.valueOf(1L << 40).shiftLeft(30));
+        assertEquals(value.toList(), readCbor(value.toCbor(true)).toList());
+    }
+
+    public void testMalformed() {
+        String[] malformed = {"", "18", "1c", "62", "6261", "a1", "a10101", "9f01", "d819", "d81900", "d9010081d9010000",
+            "c24101ff", "f8", "40", "8301020304",
+            "d901008263616161c2d81900", "d9010082c249010000000000000000d81900",
+            "d9010082c249010000000000000000a1d8190001"};
+        for (String hex : malformed) {
+            try {
+                read(hex);
+                fail(hex);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testStreaming() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            longString.append((char) ('a' + i % 26));
+        }
+        Jsom big = list();
+        for (int i = 0; i < 5000; ++i) {
+            big.add(map().put("id", i).put("name", "n" + i).put("tags", list("x", "y")));
+        }
+        big.add(longString.toString());
+        big.writeCbor(out, true);
+        map().put("second", 2).writeCbor(out);
+        list(longString.toString()).writeCbor(out);
+        byte[] bytes = out.toByteArray();
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes), 100);
+        assertEquals(big.toList(), readCbor(in).toList());
+        assertEquals(2, readCbor(in).get("second").toInt());
+        assertEquals(longString.toString(), readCbor(in).get(0).toString());
+
+        // one byte at a time, without mark support
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+
+            @Override
+            public int read(byte[] b, int off, int len) throws java.io.IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+        };
+        assertEquals(big.toList(), readCbor(trickle).toList());
+
+        assertTrue(big.toCbor(true).length < big.toCbor(false).length);
+    }
+
+    public void testDeep() {
+        Jsom root = list();
+        Jsom current = root;
+        for (int i = 0; i < 100000; ++i) {
+            Jsom next = list();
+            current.add(next);
+            current = next;
+        }
+        Jsom read = readCbor(root.toCbor(false));
+        int depth = 0;
+        for (Jsom node = read; node.size() > 0; node = node.get(0)) {
+            ++depth;
+        }
+        assertEquals(100000, depth);
+    }
+
+    private static String hex(Object value) {
+        return toHex($(value).toCbor(false));
+    }
+
+    private static Object raw(String hex) {
+        return valueOf(read(hex));
+    }
+
+    private static Jsom read(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return readCbor(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+}
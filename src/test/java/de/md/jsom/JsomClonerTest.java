@@ -0,0 +1,89 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomClonerTest extends TestCase {
+
+    public void testDeepClone() {
+        Jsom original = map().put("name", "x").put("tags", list("a", "b")).put("nested", map().put("n", 1L));
+        original.put("array", new Object[] { 1, map().put("k", true) });
+        Jsom clone = deepClone(original);
+        assertNotSame(original.toMap(), clone.toMap());
+        assertEquals("x", clone.get("name").toString());
+        assertEquals(Arrays.asList(1, map().put("k", true).toMap()), clone.get("array").toList());
+        assertTrue(valueOf(clone.get("array")) instanceof List);
+
+        clone.get("tags").add("c");
+        clone.get("nested").put("n", 2L);
+        assertEquals(Arrays.asList("a", "b"), original.get("tags").toList());
+        assertEquals(1L, original.get("nested").get("n").toLong());
+        assertEquals(null, valueOf(deepClone(null)));
+        assertEquals("s", valueOf(deepClone("s")));
+    }
+
+    public void testDeepNesting() {
+        Jsom root = list();
+        Jsom current = root;
+        for (int i = 0; i < 100000; ++i) {
+            Jsom child = list();
+            current.add(child);
+            current = child;
+        }
+        Jsom clone = deepClone(root);
+        int depth = 0;
+        for (Jsom node = clone; !node.isEmpty(); node = node.get(0)) {
+            ++depth;
+        }
+        assertEquals(100000, depth);
+    }
+
+    public void testLargeList() {
+        Jsom rows = list();
+        for (int i = 0; i < JsomCloner.PARALLEL_THRESHOLD * 4 + 3; ++i) {
+            rows.add(map().put("id", i).put("values", list(i, i + 1)));
+        }
+        Jsom clone = deepClone(rows);
+        assertEquals(rows.toList(), clone.toList());
+        for (int i = 0; i < rows.size(); ++i) {
+            assertNotSame(valueOf(rows.get(i)), valueOf(clone.get(i)));
+        }
+        clone.get(5).get("values").add(0);
+        assertEquals(2, rows.get(5).get("values").size());
+    }
+
+    public void testLazyClone() {
+        Map<String, Object> shared = map().put("deep", list(1, 2)).toMap();
+        Jsom original = map().put("a", 1).put("left", map().put("x", shared)).put("right", map().put("y", 2));
+        Jsom clone = lazyClone(original);
+        assertEquals(original.toMap(), clone.toMap());
+        assertEquals(original.toMap().hashCode(), clone.toMap().hashCode());
+
+        clone.get("right").put("y", 3).put("z", 4);
+        clone.put("a", 5);
+        assertEquals(2, original.get("right").get("y").toInt());
+        assertFalse(original.get("right").containsKey("z"));
+        assertEquals(1, original.get("a").toInt());
+        assertEquals(3, clone.get("right").get("y").toInt());
+
+        clone.get("left").get("x").get("deep").set(0, 9);
+        assertEquals(Arrays.asList(1, 2), original.at("/left/x/deep").toList());
+        assertEquals(Arrays.asList(9, 2), clone.at("/left/x/deep").toList());
+
+        Jsom clean = lazyClone(original);
+        assertEquals(original.toJson(), clean.toJson());
+        Jsom twice = lazyClone(clone).put("a", 6);
+        assertEquals(5, clone.get("a").toInt());
+        assertEquals(6, twice.get("a").toInt());
+        assertEquals(Arrays.asList(9, 2), twice.at("/left/x/deep").toList());
+    }
+
+}
@@ -0,0 +1,72 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomCollectorsTest extends TestCase {
+
+    public void testToList() {
+        List<Integer> expected = IntStream.range(0, 100000).boxed().collect(Collectors.toList());
+        assertEquals(expected, expected.parallelStream().collect(TO_LIST).toList());
+        assertEquals(expected, expected.stream().collect(JsomCollectors.toList(expected.size())).toList());
+        assertEquals(100000L * 99999 / 2, expected.parallelStream().collect(TO_LIST).longs().sum());
+
+        Jsom mixed = list("a", 1, list(2)).stream().collect(TO_LIST);
+        assertEquals(Arrays.asList("a", 1, Arrays.asList(2)), mixed.toList());
+        assertTrue(valueOf(mixed.get(2)) instanceof List);
+    }
+
+    public void testToMap() {
+        Jsom source = map().put("a", 1).put("b", list(2)).put("c", null);
+        assertEquals(source.toMap(), source.entryStream().collect(JsomCollectors.toMap()).toMap());
+        assertEquals(source.toMap(), source.toMap().entrySet().stream().collect(TO_MAP).toMap());
+        assertEquals(source.toMap(), source.parallelEntryStream()
+                .collect(JsomCollectors.toConcurrentMap()).toMap());
+
+        Jsom many = IntStream.range(0, 10000).parallel()
+                .mapToObj(i -> new SimpleEntry<>("k" + i, i))
+                .collect(JsomCollectors.toConcurrentMap());
+        assertEquals(10000, many.size());
+        assertEquals(9999, many.get("k9999").toInt());
+    }
+
+    public void testGrouping() {
+        Jsom rows = list();
+        for (int i = 0; i < 20000; ++i) {
+            rows.add(map().put("id", i).put("kind", i % 3 == 0 ? "a" : "b"));
+        }
+        Jsom groups = rows.parallelStream().collect(JsomCollectors.groupingBy("kind"));
+        assertEquals(2, groups.size());
+        assertEquals(6667, groups.get("a").size());
+        assertEquals(3, groups.get("a").get(1).get("id").toInt());
+        assertEquals(rows.stream().filter(row -> row.get("id").toInt() % 3 != 0).collect(TO_LIST).toList(),
+                groups.get("b").toList());
+
+        Jsom concurrent = rows.parallelStream()
+                .collect(JsomCollectors.groupingByConcurrent(row -> row.get("kind").toString()));
+        assertEquals(6667, concurrent.get("a").size());
+        assertEquals(13333, concurrent.get("b").size());
+        assertTrue(valueOf(concurrent.get("a")) instanceof CompactList);
+
+        Jsom index = rows.parallelStream().collect(JsomCollectors.toIndex("id"));
+        assertEquals(20000, index.size());
+        assertEquals("b", index.get("4").get("kind").toString());
+        try {
+            list(map()).stream().collect(JsomCollectors.toIndex("id"));
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+}
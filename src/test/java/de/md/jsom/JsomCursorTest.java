@@ -0,0 +1,44 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomCursorTest extends TestCase {
+
+    public Jsom test = map()
+            .put("a", map()
+                    .put("items", list(1, 2, 3, map().put("price", 9.5))))
+            .put("lol", 2);
+
+    public void testNavigation() {
+        JsomCursor cursor = test.cursor();
+        assertEquals(9.5, cursor.get("a").get("items").get(3).get("price").toDouble());
+        assertTrue(cursor.isNumber());
+        assertEquals(2, cursor.reset().get("lol").toInt());
+        assertTrue(cursor.reset().get("missing").isNull());
+        assertEquals(4, cursor.reset().get("a").get("items").size());
+        assertSame(valueOf(test.get("a")), cursor.reset().get("a").value());
+    }
+
+    public void testReuse() {
+        JsomCursor cursor = new JsomCursor(null);
+        assertTrue(cursor.isNull());
+        cursor.reset(list("x"));
+        assertEquals("x", cursor.get(0).toString());
+        assertEquals("x", cursor.toJsom().toString());
+    }
+
+    public void testWrongType() {
+        try {
+            test.cursor().get("lol").get("x");
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomDiffTest extends TestCase {
+
+    public void testMaps() {
+        Jsom a = parse("{\"a\":1,\"b\":{\"c\":[1,2],\"d\":\"x\"},\"e/f\":true}");
+        Jsom b = parse("{\"a\":1.0,\"b\":{\"c\":[1,2,3],\"g\":null},\"h\":{}}");
+        Jsom patch = diff(a, b);
+        assertEquals(parse("["
+                + "{\"op\":\"add\",\"path\":\"/b/c/2\",\"value\":3},"
+                + "{\"op\":\"remove\",\"path\":\"/b/d\"},"
+                + "{\"op\":\"add\",\"path\":\"/b/g\",\"value\":null},"
+                + "{\"op\":\"remove\",\"path\":\"/e~1f\"},"
+                + "{\"op\":\"add\",\"path\":\"/h\",\"value\":{}}"
+                + "]").toList(), patch.toList());
+        assertTrue(JsomPatch.equal(b, a.applyPatch(patch)));
+        assertEquals(0, diff(a, a).size());
+        assertEquals(0, diff(parse("{\"x\":[1,{\"y\":2}]}"), parse("{\"x\":[1,{\"y\":2}]}")).size());
+    }
+
+    public void testRoot() {
+        assertEquals(parse("[{\"op\":\"replace\",\"path\":\"\",\"value\":[1]}]").toList(),
+                diff(map(), list(1)).toList());
+        assertEquals(0, diff(null, null).size());
+        assertEquals(1, diff(1, 2).size());
+    }
+
+    public void testLists() {
+        Jsom a = parse("[1,2,3,4,5,6,7,8]");
+        Jsom b = parse("[1,2,9,4,5,7,8,10]");
+        Jsom patch = diff(a, b);
+        assertEquals(parse("["
+                + "{\"op\":\"replace\",\"path\":\"/2\",\"value\":9},"
+                + "{\"op\":\"remove\",\"path\":\"/5\"},"
+                + "{\"op\":\"add\",\"path\":\"/7\",\"value\":10}"
+                + "]").toList(), patch.toList());
+        assertEquals(b.toList(), a.applyPatch(patch).toList());
+
+        // Insertion at the front costs one operation
+        assertEquals(1, diff(parse("[{\"id\":1},{\"id\":2}]"), parse("[{\"id\":0},{\"id\":1},{\"id\":2}]")).size());
+        // Changed elements are diffed recursively
+        assertEquals(parse("[{\"op\":\"replace\",\"path\":\"/1/n\",\"value\":3}]").toList(),
+                diff(parse("[{\"id\":1},{\"id\":2,\"n\":1}]"), parse("[{\"id\":1},{\"id\":2,\"n\":3}]")).toList());
+    }
+
+    public void testFrozen() {
+        Jsom list = list();
+        for (int i = 0; i < 10000; ++i) {
+            list.add(map().put("id", i).put("tags", list("a", "b")));
+        }
+        Jsom a = map().put("items", list).put("version", 1).freeze();
+        Jsom b = a.with("version", 2).with("items",
+                a.get("items").with(5000, a.get("items").get(5000).with("id", -1)));
+        assertEquals(parse("[{\"op\":\"replace\",\"path\":\"/items/5000/id\",\"value\":-1},"
+                + "{\"op\":\"replace\",\"path\":\"/version\",\"value\":2}]").toList(),
+                diff(a, b).toList());
+    }
+
+    public void testLongLists() {
+        Jsom a = list();
+        for (int i = 0; i < 50000; ++i) {
+            a.add(map().put("id", i).put("tags", list("a", map().put("n", i))));
+        }
+        Jsom b = deepClone(a);
+        b.remove(100);
+        b.add(30000, map().put("id", -1));
+        b.get(45000).get("tags").get(1).put("n", 0);
+        Jsom patch = diff(a, b);
+        assertEquals(parse("[{\"op\":\"remove\",\"path\":\"/100\"},"
+                + "{\"op\":\"add\",\"path\":\"/30000\",\"value\":{\"id\":-1}},"
+                + "{\"op\":\"replace\",\"path\":\"/45000/tags/1/n\",\"value\":0}]").toList(),
+                patch.toList());
+
+        // too many differences to align: edited position by position
+        Jsom c = list();
+        Jsom d = list();
+        for (int i = 0; i < 5000; ++i) {
+            c.add(i);
+            d.add(i % 2 == 0 ? i : -i);
+        }
+        d.add(0, -1);
+        assertEquals(d.toList(), deepClone(c).applyPatch(diff(c, d)).toList());
+    }
+
+    public void testRandom() {
+        Random random = new Random(17);
+        for (int round = 0; round < 200; ++round) {
+            Jsom a = randomValue(random, 3);
+            Jsom b = deepClone(a);
+            for (int k = random.nextInt(5); k >= 0; --k) {
+                mutate(random, b);
+            }
+            Jsom patch = diff(a, b);
+            Jsom patched = deepClone(a).applyPatch(patch);
+            assertTrue(a.toJson() + " -> " + b.toJson() + " via " + patch.toJson(), JsomPatch.equal(b, patched));
+        }
+    }
+
+    private static Jsom randomValue(Random random, int depth) {
+        int type = depth == 0 ? random.nextInt(3) : random.nextInt(5);
+        switch (type) {
+        case 0:
+            return $(random.nextInt(4));
+        case 1:
+            return $("s" + random.nextInt(3));
+        case 2:
+            return $(null);
+        case 3:
+            Jsom list = list();
+            for (int i = random.nextInt(6); i > 0; --i) {
+                list.add(randomValue(random, depth - 1));
+            }
+            return list;
+        default:
+            Jsom map = map();
+            for (int i = random.nextInt(4); i > 0; --i) {
+                map.put("k" + random.nextInt(5), randomValue(random, depth - 1));
+            }
+            return map;
+        }
+    }
+
+    private static void mutate(Random random, Jsom value) {
+        if (value.isList()) {
+            int size = value.size();
+            int choice = random.nextInt(4);
+            if (choice == 0 || size == 0) {
+                value.add(random.nextInt(size + 1), randomValue(random, 1));
+            } else if (choice == 1) {
+                value.remove(random.nextInt(size));
+            } else if (choice == 2) {
+                mutate(random, value.get(random.nextInt(size)));
+            } else {
+                value.set(random.nextInt(size), randomValue(random, 1));
+            }
+        } else if (value.isMap()) {
+            String key = "k" + random.nextInt(5);
+            int choice = random.nextInt(3);
+            if (choice == 0) {
+                value.remove(key);
+            } else if (choice == 1 && value.containsKey(key)) {
+                mutate(random, value.get(key));
+            } else {
+                value.put(key, randomValue(random, 1));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomFeederTest extends TestCase {
+
+    private static final String JSON = "{\"a\": [1, -2.5e+3, 0, 123456789012345678901, \"x\\n\\u00e9\\uD83D\\uDE00\","
+            + " true, false, null, {}, []], \"ä€😀\": {\"c\": \"d\\\\\\\"\"}, \"e\": 12345678901}";
+
+    public void testSingleChunk() {
+        JsomFeeder feeder = new JsomFeeder().feed(utf8(JSON));
+        assertTrue(feeder.hasNext());
+        assertEquals(JsomParser.parse(JSON), feeder.finish().next().toMap());
+        assertFalse(feeder.hasNext());
+    }
+
+    public void testAllSplits() {
+        byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+        Object expected = JsomParser.parse(JSON);
+        for (int split = 0; split <= bytes.length; ++split) {
+            JsomFeeder feeder = new JsomFeeder();
+            feeder.feed(ByteBuffer.wrap(bytes, 0, split));
+            feeder.feed(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertEquals("split at " + split, expected, feeder.finish().next().toMap());
+        }
+    }
+
+    public void testByteByByteDirect() {
+        byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+        JsomFeeder feeder = new JsomFeeder();
+        ByteBuffer direct = ByteBuffer.allocateDirect(1);
+        for (byte b : bytes) {
+            direct.clear();
+            direct.put(b).flip();
+            feeder.feed(direct);
+            assertFalse(direct.hasRemaining());
+        }
+        assertEquals(JsomParser.parse(JSON), feeder.finish().next().toMap());
+    }
+
+    public void testRandomChunks() {
+        Random random = new Random(7);
+        Jsom doc = list();
+        for (int i = 0; i < 2000; ++i) {
+            doc.add(map().put("id", i).put("name", "n\u00e9 \"" + i).put("price", i * 0.25).put("ok", i % 2 == 0));
+        }
+        byte[] bytes = doc.toJson().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        JsomFeeder feeder = new JsomFeeder();
+        while (direct.hasRemaining()) {
+            ByteBuffer chunk = direct.slice();
+            chunk.limit(Math.min(chunk.remaining(), 1 + random.nextInt(20000)));
+            direct.position(direct.position() + chunk.limit());
+            feeder.feed(chunk);
+        }
+        assertEquals(doc.toList(), feeder.finish().next().toList());
+    }
+
+    public void testMultipleValues() {
+        JsomFeeder feeder = new JsomFeeder();
+        feeder.feed(utf8("{\"a\":1} [2]\n\"s\" nu"));
+        assertEquals(1, feeder.next().get("a").toInt());
+        assertEquals(2, feeder.next().get(0).toInt());
+        assertEquals("s", feeder.next().toString());
+        assertFalse(feeder.hasNext());
+        feeder.feed(utf8("ll 4"));
+        assertTrue(feeder.next().isNull());
+        // A top-level number may continue in the next chunk
+        assertFalse(feeder.hasNext());
+        feeder.feed(utf8("2 -1"));
+        assertEquals(42, feeder.next().toInt());
+        assertFalse(feeder.hasNext());
+        feeder.finish();
+        assertEquals(-1, feeder.next().toInt());
+        try {
+            feeder.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertFalse(new JsomFeeder().finish().hasNext());
+    }
+
+    public void testSeparators() {
+        JsomFeeder feeder = new JsomFeeder().feed(utf8("{\"a\":1}{\"b\":2}[3]\"s\"\ttrue\n1 "));
+        feeder.finish();
+        int count = 0;
+        while (feeder.hasNext()) {
+            feeder.next();
+            ++count;
+        }
+        assertEquals(6, count);
+        String[] unseparated = {"truefalse", "1\"a\"", "\"a\"\"b\"", "null[]", "\"a\"{}"};
+        for (String json : unseparated) {
+            try {
+                new JsomFeeder().feed(utf8(json)).finish();
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        feeder = new JsomFeeder().feed(utf8("true"));
+        try {
+            feeder.feed(utf8("false"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unexpected character 'f' at offset 4", e.getMessage());
+        }
+    }
+
+    public void testDocument() {
+        assertEquals(1, JsomFeeder.document().feed(utf8(" {\"a\":1}\n")).finish().next().get("a").toInt());
+        assertEquals(42, JsomFeeder.document().feed(utf8("42")).finish().next().toInt());
+        String[] invalid = {"{\"a\":1}{\"b\":2}", "1 2", "[] x", "", "  "};
+        for (String json : invalid) {
+            try {
+                JsomFeeder.document().feed(utf8(json)).finish();
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testMalformed() {
+        String[] malformed = {
+            "{", "[1,]", "[1 2]", "{\"a\"}", "{\"a\":1,}", "{1:2}", "[1}", "\"abc", "\"a\\x\"", "\"\\u12g\"",
+            "\"a\nb\"", "01", "1.", "1e", "-", "tru", "truex", "[1x]", "]", "[,1]", "{]", "[\"a\":1]"
+        };
+        for (String json : malformed) {
+            JsomFeeder feeder = new JsomFeeder();
+            try {
+                feeder.feed(utf8(json)).finish();
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                feeder.feed(utf8("1"));
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        JsomFeeder feeder = new JsomFeeder().feed(utf8("[1,\n"));
+        try {
+            feeder.feed(utf8(" x]"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unexpected character 'x' at offset 5", e.getMessage());
+        }
+    }
+
+    private static ByteBuffer utf8(String string) {
+        return ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
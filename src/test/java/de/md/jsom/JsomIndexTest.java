@@ -0,0 +1,131 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomIndexTest extends TestCase {
+
+    public void testLookup() {
+        Jsom records = list();
+        for (int i = 0; i < 1000; ++i) {
+            records.add(map().put("id", i).put("name", "n" + i));
+        }
+        records.add(map().put("name", "no id")).add("not a map").add(map().put("id", null));
+        JsomIndex index = records.indexBy("id");
+        assertEquals("id", index.key());
+        assertEquals(1000, index.size());
+        assertEquals("n42", index.lookup(42).get("name").toString());
+        assertEquals("n42", index.lookup(42L).get("name").toString());
+        assertEquals("n42", index.lookup(42.0).get("name").toString());
+        assertEquals("n42", index.lookup(new BigDecimal("42")).get("name").toString());
+        assertTrue(index.lookup(42).toMap() == records.get(42).toMap());
+        assertTrue(index.lookup(1000).isNull());
+        assertTrue(index.lookup("42").isNull());
+        assertEquals(0, index.lookupAll(1000).size());
+    }
+
+    public void testDuplicates() {
+        Jsom records = list(
+                map().put("k", "a").put("n", 1),
+                map().put("k", "b").put("n", 2),
+                map().put("k", "a").put("n", 3));
+        JsomIndex index = records.indexBy("k");
+        assertEquals(1, index.lookup("a").get("n").toInt());
+        assertEquals(Arrays.asList(1, 3), index.lookupAll("a").stream()
+                .map(record -> record.get("n").toInt()).collect(Collectors.toList()));
+        records.remove(0);
+        assertEquals(3, index.lookup("a").get("n").toInt());
+        assertEquals(1, index.lookupAll("a").size());
+        assertEquals(2, index.size());
+    }
+
+    public void testRange() {
+        Jsom records = list();
+        for (int i = 0; i < 100; ++i) {
+            records.add(map().put("price", i % 2 == 0 ? (Object) (i / 2) : (Object) (i / 2 + 0.5)));
+        }
+        records.add(map().put("price", "free"));
+        JsomIndex index = records.indexBy("price");
+        Jsom range = index.range(10, 12);
+        assertEquals(4, range.size());
+        assertEquals(10, range.get(0).get("price").toInt());
+        assertEquals(10.5, range.get(1).get("price").toDouble());
+        assertEquals(11, range.get(2).get("price").toInt());
+        assertEquals(11.5, range.get(3).get("price").toDouble());
+        assertEquals(0, index.range(12, 10).size());
+        assertEquals(2, index.range(10.25, 11.25).size());
+
+        records.add(map().put("price", 10.75)).remove(20);
+        range = index.range(10, 12L);
+        assertEquals(4, range.size());
+        assertEquals(10.5, range.get(0).get("price").toDouble());
+        assertEquals(10.75, range.get(1).get("price").toDouble());
+    }
+
+    public void testMaintenance() {
+        Jsom records = list(map().put("id", 1), map().put("id", 2));
+        JsomIndex index = records.indexBy("id");
+        JsomIndex byName = records.indexBy("name");
+        assertEquals(0, byName.size());
+
+        records.add(map().put("id", 3).put("name", "c"));
+        records.add(0, map().put("id", 0));
+        records.addAll(Arrays.asList(map().put("id", 4), map().put("id", 5).toMap()));
+        records.addAll(1, list(map().put("id", 6)));
+        assertEquals(7, index.size());
+        assertEquals(1, byName.size());
+        assertEquals(6, records.get(1).get("id").toInt());
+        assertTrue(index.lookup(6).toMap() == records.get(1).toMap());
+
+        records.set(1, map().put("id", 7));
+        assertTrue(index.lookup(6).isNull());
+        assertEquals(7, index.lookup(7).get("id").toInt());
+
+        records.remove(index.lookup(7));
+        assertTrue(index.lookup(7).isNull());
+        records.remove(records.size() - 1);
+        assertTrue(index.lookup(5).isNull());
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), index.range(0, 10).stream()
+                .map(record -> record.get("id").toInt()).collect(Collectors.toList()));
+
+        records.get(0).put("id", 10);
+        assertTrue(index.lookup(10).isNull());
+        index.rebuild();
+        assertEquals(10, index.lookup(10).get("id").toInt());
+
+        records.clear();
+        assertEquals(0, index.size());
+        assertEquals(0, byName.size());
+        assertTrue(index.lookup(1).isNull());
+        records.add(map().put("id", 1));
+        assertEquals(1, index.range(0, 2).size());
+    }
+
+    public void testReuseAndDrop() {
+        Jsom records = list(map().put("id", 1), map().put("id", 2));
+        JsomIndex index = records.indexBy("id");
+        assertSame(index, records.indexBy("id"));
+        JsomIndex byName = records.indexBy("name");
+
+        records.dropIndex("id").add(map().put("id", 3).put("name", "c"));
+        assertEquals(2, index.size());
+        assertTrue(index.lookup(3).isNull());
+        assertEquals(1, byName.size());
+        JsomIndex fresh = records.indexBy("id");
+        assertNotSame(index, fresh);
+        assertEquals(3, fresh.size());
+
+        records.dropIndex("name").dropIndex("id").dropIndex("missing").add(map().put("id", 4));
+        assertEquals(3, fresh.size());
+    }
+
+}
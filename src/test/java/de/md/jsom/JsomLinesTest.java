@@ -0,0 +1,90 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomLinesTest extends TestCase {
+
+    public void testInputStream() {
+        String ndjson = "{\"a\":1}\n\n  \r\n[1,2]\r\n\"x\"\nnull\n{\"b\":\"é\"}";
+        List<Jsom> records = lines(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)))
+                .collect(Collectors.toList());
+        assertEquals(5, records.size());
+        assertEquals(1, records.get(0).get("a").toInt());
+        assertEquals(2, records.get(1).size());
+        assertEquals("x", records.get(2).toString());
+        assertTrue(records.get(3).isNull());
+        assertEquals("é", records.get(4).get("b").toString());
+        assertEquals(0, lines(new ByteArrayInputStream(new byte[0])).count());
+        assertEquals(1, lines(new ByteArrayInputStream("1\n".getBytes(StandardCharsets.UTF_8))).count());
+    }
+
+    public void testMalformed() {
+        try {
+            lines(new ByteArrayInputStream("1\n{\"a\":}\n".getBytes(StandardCharsets.UTF_8))).count();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("byte offset 2"));
+        }
+    }
+
+    public void testLongLines() {
+        StringBuilder ndjson = new StringBuilder();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 300000; ++i) {
+            longString.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 3; ++i) {
+            ndjson.append("{\"s\":\"").append(longString).append("\",\"i\":").append(i).append("}\n");
+        }
+        List<Jsom> records = lines(new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)))
+                .collect(Collectors.toList());
+        assertEquals(3, records.size());
+        assertEquals(longString.toString(), records.get(2).get("s").toString());
+        assertEquals(2, records.get(2).get("i").toInt());
+    }
+
+    public void testFile() throws IOException {
+        Path file = Files.createTempFile("jsom", ".ndjson");
+        try {
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = 0; i < 200000; ++i) {
+                ndjson.append("{\"id\":").append(i).append(",\"name\":\"n").append(i).append("\"}\n");
+                if (i % 1000 == 0) {
+                    ndjson.append('\n');
+                }
+            }
+            Files.write(file, ndjson.toString().getBytes(StandardCharsets.UTF_8));
+
+            try (Stream<Jsom> records = lines(file)) {
+                assertEquals(200000, records.count());
+            }
+            try (Stream<Jsom> records = lines(file)) {
+                Jsom list = records.parallel().collect(TO_LIST);
+                assertEquals(200000, list.size());
+                for (int i = 0; i < 200000; ++i) {
+                    assertEquals(i, list.get(i).get("id").toInt());
+                }
+            }
+            try (Stream<Jsom> records = lines(file)) {
+                assertEquals(199999L * 200000 / 2, records.parallel().mapToLong(r -> r.get("id").toLong()).sum());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomMappedTest extends TestCase {
+
+    public void testLazyAccess() throws IOException {
+        String json = " {\"a\": {\"b\": [1, -2.5e1, \"x\\n\\u00e9\", true, false, null, {}, []]},"
+                + " \"s\": \"ä\\\"]}\", \"big\": 123456789012345678901, \"a\": {\"b\": [2]},"
+                + " \"l\": [0, 1, 2, 3, 4, 5, 6, 7, 8, 9]} ";
+        Jsom doc = map(json);
+        assertTrue(doc.isMap());
+        assertEquals(4, doc.size());
+        assertEquals(2, doc.get("a").get("b").get(0).toInt());
+        assertEquals("ä\"]}", doc.get("s").toString());
+        assertEquals(9, doc.get("l").get(9).toInt());
+        assertFalse(doc.containsKey("x"));
+        assertSame(doc.get("a").toMap(), doc.get("a").toMap());
+        assertEquals(parse(json).toMap(), doc.toMap());
+        assertEquals(parse(json).toMap(), parse(doc.toJson()).toMap());
+        assertEquals(parse(json).toMap(), deepClone(doc).toMap());
+
+        Jsom list = map("[1, -2.5e1, \"x\\n\\u00e9\", true, false, null, {}, []]");
+        assertEquals(parse("[1, -2.5e1, \"x\\n\\u00e9\", true, false, null, {}, []]").toList(), list.toList());
+        assertEquals(-25.0, list.get(1).toDouble());
+        assertTrue(list.get(5).isNull());
+        assertEquals(0, list.get(6).size());
+        assertEquals(42, map("\n42\n").toInt());
+        assertEquals("s", map("\"s\"").toString());
+    }
+
+    public void testLargeMap() throws IOException {
+        Jsom source = Jsom.map();
+        for (int i = 0; i < 1000; ++i) {
+            source.put("k" + i, list(i, Jsom.map().put("v", i)));
+        }
+        Jsom doc = map(source.toJson());
+        assertEquals(1000, doc.size());
+        assertEquals(500, doc.get("k500").get(1).get("v").toInt());
+        assertEquals(source.keys().toList(), doc.keys().toList());
+    }
+
+    public void testReadOnly() throws IOException {
+        Jsom doc = map("{\"a\":[1]}");
+        try {
+            doc.put("b", 1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            doc.get("a").add(2);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testMalformed() throws IOException {
+        String[] malformed = {"", "{\"a\" 1}", "[1 2]", "[tru]", "[01]", "{\"a\":[1,}", "[\"a", "{1:2}"};
+        for (String json : malformed) {
+            try {
+                Jsom doc = map(json);
+                doc.toJson();
+                fail(json);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        // Unreached parts are not checked
+        assertEquals(1, map("{\"a\":1,\"b\":[x]}").get("a").toInt());
+    }
+
+    public void testEmptyContainers() throws IOException {
+        assertEquals(Collections.emptyMap(), map("{ }").toMap());
+        assertEquals(Collections.emptyList(), map("[\n]").toList());
+    }
+
+    private static Jsom map(String json) throws IOException {
+        Path file = Files.createTempFile("jsom", ".json");
+        try {
+            Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+            return mmap(file);
+        } finally {
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomParserTest extends TestCase {
+
+    public void testParse() {
+        Jsom json = parse("{\"array\": [1, 2, 3], \"lol\": 2, \"inner\": {\"key\": \"k\", \"value\": \"v\"}}");
+        assertEquals(2, json.get("lol").toInt());
+        assertEquals(3, json.get("array").get(2).toInt());
+        assertEquals("v", json.get("inner").get("value").toString());
+        assertEquals(3, json.size());
+    }
+
+    public void testScalars() {
+        assertEquals(Boolean.TRUE, valueOf(parse(" true ")));
+        assertEquals(Boolean.FALSE, valueOf(parse("false")));
+        assertTrue(parse("null").isNull());
+        assertEquals(Integer.valueOf(-12), valueOf(parse("-12")));
+        assertEquals(Long.valueOf(12345678901L), valueOf(parse("12345678901")));
+        assertEquals(new BigInteger("123456789012345678901234"), valueOf(parse("123456789012345678901234")));
+        assertEquals(Long.MIN_VALUE, valueOf(parse("-9223372036854775808")));
+        assertEquals(1.5e-3, valueOf(parse("1.5E-3")));
+        assertEquals(0.0, valueOf(parse("0.0")));
+    }
+
+    public void testStrings() {
+        assertEquals("a\"b\\c/\né😀", parse("\"a\\\"b\\\\c\\/\\n\\u00e9\\ud83d\\ude00\"").toString());
+        assertEquals("", parse("\"\"").toString());
+        assertEquals("über", parse(new ByteArrayInputStream("\"über\"".getBytes(StandardCharsets.UTF_8))).toString());
+    }
+
+    public void testLongInputAcrossBuffers() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 5000; ++i) {
+            json.append(i == 0 ? "" : ",").append("{\"i\":").append(i).append(",\"s\":\"x\\ty").append(i).append("\"}");
+        }
+        json.append("]");
+        Jsom list = parse(new StringReader(json.toString()));
+        assertEquals(5000, list.size());
+        assertEquals(4999, list.get(4999).get("i").toInt());
+        assertEquals("x\ty4999", list.get(4999).get("s").toString());
+    }
+
+    public void testDeepNesting() {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            json.append('[');
+        }
+        for (int i = 0; i < 100000; ++i) {
+            json.append(']');
+        }
+        assertTrue(parse(json).isList());
+    }
+
+    public void testMalformed() {
+        String[] inputs = {"", "{", "[1,]", "{\"a\"}", "{\"a\":1,}", "01", "-", "1.", "tru", "\"abc", "[1] 2", "\"\t\"", "{a:1}"};
+        for (String input : inputs) {
+            try {
+                parse(input);
+                fail("Parsed " + input);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomPatchTest extends TestCase {
+
+    public void testMergePatch() {
+        // RFC 7396, appendix A
+        Jsom target = parse("{\"title\":\"Goodbye!\",\"author\":{\"givenName\":\"John\",\"familyName\":\"Doe\"},"
+                + "\"tags\":[\"example\",\"sample\"],\"content\":\"This will be unchanged\"}");
+        Jsom patch = parse("{\"title\":\"Hello!\",\"phoneNumber\":\"+01-555-1234\",\"author\":{\"familyName\":null},"
+                + "\"tags\":[\"example\"]}");
+        Jsom result = target.mergePatch(patch);
+        assertSame(target, result);
+        assertEquals(parse("{\"title\":\"Hello!\",\"author\":{\"givenName\":\"John\"},\"tags\":[\"example\"],"
+                + "\"content\":\"This will be unchanged\",\"phoneNumber\":\"+01-555-1234\"}").toMap(),
+                result.toMap());
+
+        assertEquals(parse("{\"a\":{\"bb\":{}}}").toMap(),
+                parse("{\"a\":\"b\"}").mergePatch(parse("{\"a\":{\"bb\":{\"ccc\":null}}}")).toMap());
+        assertEquals("bar", parse("[1]").mergePatch("bar").toString());
+        assertEquals(parse("{\"a\":1}").toMap(), parse("[1]").mergePatch(map().put("a", 1)).toMap());
+        assertTrue(map().put("a", 1).mergePatch(null).isNull());
+    }
+
+    public void testApplyPatch() {
+        Jsom doc = parse("{\"foo\":[\"bar\",\"baz\"],\"n\":1}");
+        Jsom result = doc.applyPatch(parse("["
+                + "{\"op\":\"add\",\"path\":\"/foo/1\",\"value\":\"qux\"},"
+                + "{\"op\":\"add\",\"path\":\"/foo/-\",\"value\":\"end\"},"
+                + "{\"op\":\"test\",\"path\":\"/foo\",\"value\":[\"bar\",\"qux\",\"baz\",\"end\"]},"
+                + "{\"op\":\"test\",\"path\":\"/n\",\"value\":1.0},"
+                + "{\"op\":\"remove\",\"path\":\"/foo/0\"},"
+                + "{\"op\":\"replace\",\"path\":\"/n\",\"value\":{\"x\":[1]}},"
+                + "{\"op\":\"copy\",\"from\":\"/n\",\"path\":\"/m\"},"
+                + "{\"op\":\"move\",\"from\":\"/n/x\",\"path\":\"/foo/0\"},"
+                + "{\"op\":\"add\",\"path\":\"/a~1b\",\"value\":null}"
+                + "]"));
+        assertSame(doc, result);
+        assertEquals(parse("{\"foo\":[[1],\"qux\",\"baz\",\"end\"],\"n\":{},\"m\":{\"x\":[1]},\"a/b\":null}").toMap(),
+                doc.toMap());
+        assertNotSame(doc.get("m").get("x").toList(), doc.get("foo").get(0).toList());
+
+        Jsom replaced = doc.applyPatch(list(map().put("op", "replace").put("path", "").put("value", list(1))));
+        assertEquals(1, replaced.get(0).toInt());
+    }
+
+    public void testAtomic() {
+        String json = "{\"a\":{\"b\":[1,2,3]},\"c\":\"d\"}";
+        Jsom doc = parse(json);
+        try {
+            doc.applyPatch(parse("["
+                    + "{\"op\":\"remove\",\"path\":\"/a/b/0\"},"
+                    + "{\"op\":\"add\",\"path\":\"/a/e\",\"value\":5},"
+                    + "{\"op\":\"replace\",\"path\":\"/a/b/0\",\"value\":7},"
+                    + "{\"op\":\"move\",\"from\":\"/c\",\"path\":\"/a/c\"},"
+                    + "{\"op\":\"remove\",\"path\":\"/missing\"}"
+                    + "]"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("operation 4"));
+        }
+        assertEquals(parse(json).toMap(), doc.toMap());
+
+        // Failing test after modification
+        try {
+            doc.applyPatch(parse("[{\"op\":\"add\",\"path\":\"/c\",\"value\":1},"
+                    + "{\"op\":\"test\",\"path\":\"/c\",\"value\":\"d\"}]"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("operation 1"));
+        }
+        assertEquals(parse(json).toMap(), doc.toMap());
+    }
+
+    public void testPretest() {
+        // Independent tests fail before anything is modified, even on
+        // unmodifiable values
+        Jsom frozen = parse("{\"a\":1,\"b\":[1]}").freeze();
+        try {
+            frozen.applyPatch(parse("[{\"op\":\"add\",\"path\":\"/c\",\"value\":1},"
+                    + "{\"op\":\"test\",\"path\":\"/a\",\"value\":2}]"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("operation 1"));
+        }
+        // Tests of changed ancestors or shifted siblings are deferred
+        Jsom doc = parse("{\"a\":1,\"b\":[1]}");
+        assertEquals(parse("{\"a\":1,\"b\":[0,1]}").toMap(), doc.applyPatch(parse("["
+                + "{\"op\":\"add\",\"path\":\"/b/0\",\"value\":0},"
+                + "{\"op\":\"test\",\"path\":\"/b\",\"value\":[0,1]},"
+                + "{\"op\":\"test\",\"path\":\"/b/1\",\"value\":1}]")).toMap());
+    }
+
+    public void testInvalid() {
+        Jsom doc = parse("{\"a\":[1]}");
+        String[] invalid = {
+            "{}",
+            "[{\"path\":\"/a\"}]",
+            "[{\"op\":\"ADD\",\"path\":\"/a\",\"value\":1}]",
+            "[{\"op\":\"add\",\"value\":1}]",
+            "[{\"op\":\"add\",\"path\":\"/a\"}]",
+            "[{\"op\":\"move\",\"path\":\"/a/0\"}]",
+            "[{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/a/0\"}]",
+            "[{\"op\":\"add\",\"path\":\"/a/2\",\"value\":1}]",
+            "[{\"op\":\"add\",\"path\":\"/a/x\",\"value\":1}]",
+            "[{\"op\":\"add\",\"path\":\"/x/y\",\"value\":1}]",
+            "[{\"op\":\"replace\",\"path\":\"/x\",\"value\":1}]",
+            "[{\"op\":\"remove\",\"path\":\"/a/1\"}]",
+            "[{\"op\":\"remove\",\"path\":\"\"}]",
+            "[{\"op\":\"test\",\"path\":\"/a/0\",\"value\":\"1\"}]",
+            "[{\"op\":\"test\",\"path\":\"/a/0/b\",\"value\":1}]"
+        };
+        for (String patch : invalid) {
+            try {
+                doc.applyPatch(parse(patch));
+                fail(patch);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(parse("{\"a\":[1]}").toMap(), doc.toMap());
+    }
+
+    public void testEqual() {
+        assertTrue(JsomPatch.equal(1, 1L));
+        assertTrue(JsomPatch.equal(1, 1.0));
+        assertTrue(JsomPatch.equal(new java.math.BigDecimal("0.10"), 0.1));
+        assertTrue(JsomPatch.equal(parse("{\"a\":1,\"b\":null}"), parse("{\"b\":null,\"a\":1.0}")));
+        assertFalse(JsomPatch.equal(parse("{\"a\":null}"), parse("{\"b\":null}")));
+        assertFalse(JsomPatch.equal(list(1, 2), list(2, 1)));
+        assertFalse(JsomPatch.equal(1, "1"));
+        assertFalse(JsomPatch.equal(Double.NaN, 1));
+    }
+
+    public void testIndexesRebuilt() {
+        Jsom records = parse("[{\"id\":1},{\"id\":2}]");
+        JsomIndex index = records.indexBy("id");
+        records.applyPatch(parse("[{\"op\":\"remove\",\"path\":\"/0\"},{\"op\":\"add\",\"path\":\"/-\","
+                + "\"value\":{\"id\":3}}]"));
+        assertTrue(index.lookup(1).isNull());
+        assertEquals(3, index.lookup(3).get("id").toInt());
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomPathTest extends TestCase {
+
+    public Jsom test = map()
+            .put("orders", list(map().put("total", 12.5), map().put("total", 3)))
+            .put("a/b", map().put("m~n", 1))
+            .put("", "empty");
+
+    public void testAt() {
+        assertEquals(12.5, test.at("/orders/0/total").toDouble());
+        assertEquals(3, test.at("/orders/1/total").toInt());
+        assertEquals(1, test.at("/a~1b/m~0n").toInt());
+        assertEquals("empty", test.at("/").toString());
+        assertSame(valueOf(test), valueOf(test.at("")));
+        assertTrue(test.at("/orders/2/total").isNull());
+        assertTrue(test.at("/missing/deeper").isNull());
+        assertTrue(test.at("/orders/-").isNull());
+    }
+
+    public void testCompile() {
+        JsomPath path = JsomPath.compile("/orders/1/total");
+        assertEquals(3, path.size());
+        assertEquals("orders", path.token(0));
+        assertEquals("/orders/1/total", path.toString());
+        assertEquals(3, path.get(test).toInt());
+        assertEquals(3, path.resolve(valueOf(test)));
+        assertEquals("a/b", JsomPath.compile("/" + JsomPath.escape("a/b")).token(0));
+    }
+
+    public void testPutAt() {
+        Jsom json = map()
+                .putAt("/orders/0/total", 1)
+                .putAt("/orders/-/total", 2)
+                .putAt("/orders/0/total", 3)
+                .putAt("/meta/name", "x");
+        assertEquals(2, json.get("orders").size());
+        assertEquals(3, json.at("/orders/0/total").toInt());
+        assertEquals(2, json.at("/orders/1/total").toInt());
+        assertEquals("x", json.get("meta").get("name").toString());
+    }
+
+    public void testErrors() {
+        try {
+            JsomPath.compile("orders");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            test.at("/orders/first");
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+        try {
+            test.at("/orders/0/total/x");
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomQueryTest extends TestCase {
+
+    private static final Jsom STORE = parse("{\"store\":{"
+            + "\"book\":["
+            + "{\"category\":\"reference\",\"author\":\"Nigel Rees\",\"price\":8.95},"
+            + "{\"category\":\"fiction\",\"author\":\"Evelyn Waugh\",\"price\":12.99},"
+            + "{\"category\":\"fiction\",\"author\":\"Herman Melville\",\"isbn\":\"0-553-21311-3\",\"price\":8.99},"
+            + "{\"category\":\"fiction\",\"author\":\"J. R. R. Tolkien\",\"isbn\":null,\"price\":22.99}"
+            + "],"
+            + "\"bicycle\":{\"color\":\"red\",\"price\":19.95}},"
+            + "\"expensive\":10}");
+
+    public void testPaths() {
+        assertEquals(Arrays.asList("Nigel Rees", "Evelyn Waugh", "Herman Melville", "J. R. R. Tolkien"),
+                raw("$.store.book[*].author"));
+        assertEquals(raw("$.store.book[*].author"), raw("$['store'][\"book\"][*]['author']"));
+        assertEquals(Arrays.asList(8.95, 12.99, 8.99, 22.99, 19.95), raw("$..price"));
+        assertEquals(Arrays.asList("J. R. R. Tolkien"), raw("$.store.book[-1].author"));
+        assertEquals(Arrays.asList("Evelyn Waugh", "Herman Melville"), raw("$.store.book[1:3].author"));
+        assertEquals(Arrays.asList("Nigel Rees"), raw("$.store.book[:1].author"));
+        assertEquals(Arrays.asList("Herman Melville", "J. R. R. Tolkien"), raw("$.store.book[-2:].author"));
+        assertEquals(2, raw("$.store.*").size());
+        assertEquals(Arrays.asList("0-553-21311-3", null), raw("$..isbn"));
+        assertEquals(Collections.emptyList(), raw("$.store.book[9].author"));
+        assertEquals(Collections.emptyList(), raw("$.missing.x"));
+        assertEquals(Arrays.asList(STORE.toMap()), raw("$"));
+    }
+
+    public void testFilters() {
+        assertEquals(Arrays.asList("Nigel Rees", "Herman Melville"), raw("$.store.book[?(@.price < 10)].author"));
+        assertEquals(Arrays.asList("Evelyn Waugh"),
+                raw("$.store.book[?(@.category=='fiction' && @.price > 10 && @.price < 20)].author"));
+        assertEquals(Arrays.asList("Nigel Rees", "J. R. R. Tolkien"),
+                raw("$.store.book[?(@.category == \"reference\" || @['price'] >= 22.99)].author"));
+        assertEquals(Arrays.asList("Herman Melville", "J. R. R. Tolkien"), raw("$.store.book[?(@.isbn)].author"));
+        assertEquals(Arrays.asList("Nigel Rees", "Evelyn Waugh"), raw("$.store.book[?(!@.isbn)].author"));
+        assertEquals(Arrays.asList("J. R. R. Tolkien"), raw("$.store.book[?(@.isbn == null)].author"));
+        assertEquals(Arrays.asList("Herman Melville"), raw("$.store.book[?(@.isbn != null)].author"));
+        assertEquals(Arrays.asList("Nigel Rees", "Herman Melville"),
+                raw("$.store.book[?(!(@.price > 9) && (@.category != 'x'))].author"));
+        assertEquals(Arrays.asList(12.99, 22.99), raw("$..book[?(@.price > 10)].price"));
+        assertEquals(Arrays.asList(2), raw("$.a[?(@ > 1)]", parse("{\"a\":[1,2,\"3\"]}")));
+        assertEquals(Arrays.asList(1L), raw("$[?(@.n == 1.0)].n", list(map().put("n", 1L), map().put("n", 2))));
+    }
+
+    public void testStream() {
+        JsomQuery query = JsomQuery.compile("$.store.book[?(@.price < 10)]");
+        Jsom cheap = query.stream(STORE).collect(TO_LIST);
+        assertEquals(2, cheap.size());
+        assertEquals("Nigel Rees", cheap.get(0).get("author").toString());
+        assertEquals(2, query.select(STORE).size());
+        assertEquals("Nigel Rees", STORE.query("$..author").findFirst().get().toString());
+        assertEquals(query.toString(), "$.store.book[?(@.price < 10)]");
+        assertEquals(query, JsomQuery.compile(query.toString()));
+    }
+
+    public void testLazyDescent() {
+        List<Object> unreachable = new AbstractList<Object>() {
+
+            @Override
+            public Object get(int index) {
+                throw new AssertionError("Descended too far");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+
+        };
+        Jsom doc = list(map().put("author", "a"), unreachable);
+        assertEquals("a", doc.query("$..author").findFirst().get().toString());
+        assertEquals(3, JsomQuery.compile("$..*").rawStream(doc).limit(3).count());
+        assertEquals(raw("$..author"), JsomQuery.compile("$..author").parallel().rawStream(STORE)
+                .collect(Collectors.toList()));
+    }
+
+    public void testLazySelection() {
+        int[] reads = new int[1];
+        List<Object> items = new AbstractList<Object>() {
+
+            @Override
+            public Object get(int index) {
+                ++reads[0];
+                return map().put("id", index).put("open", index % 2 == 1).toMap();
+            }
+
+            @Override
+            public int size() {
+                return 10000;
+            }
+
+        };
+        Jsom doc = map().put("items", items);
+        assertEquals(1, doc.query("$.items[?(@.open == true)].id").findFirst().get().toInt());
+        assertEquals(2, reads[0]);
+        assertTrue(JsomQuery.compile("$.items[*].id").rawStream(doc).anyMatch(id -> id.equals(3)));
+        assertEquals(6, reads[0]);
+        assertEquals(3, JsomQuery.compile("$.items[1:9000]").rawStream(doc).limit(3).count());
+        assertEquals(9, reads[0]);
+    }
+
+    public void testParallel() {
+        Jsom orders = list();
+        for (int i = 0; i < 100000; ++i) {
+            orders.add(map().put("id", i).put("status", i % 3 == 0 ? "open" : "closed").put("total", i % 200));
+        }
+        Jsom doc = map().put("orders", orders);
+        JsomQuery query = JsomQuery.compile("$.orders[?(@.status=='open' && @.total > 100)].id");
+        List<Object> sequential = query.rawStream(doc).collect(Collectors.toList());
+        List<Object> parallel = query.parallel().rawStream(doc).collect(Collectors.toList());
+        assertTrue(query.parallel().rawStream(doc).isParallel());
+        assertEquals(sequential, parallel);
+        assertEquals(16500, sequential.size());
+        assertEquals(sequential.size(), query.parallel().select(doc).size());
+        assertEquals(0, JsomQuery.compile("$.missing[*]").parallel().rawStream(doc).count());
+        assertEquals(1, JsomQuery.compile("$.orders[0].id").parallel().rawStream(doc).count());
+    }
+
+    public void testInvalid() {
+        String[] invalid = {"", "store", "$.", "$[", "$[1", "$['a'", "$[?(@.a ==)]", "$[?(@.a == 'x']", "$[x]",
+            "$[?(@.a && )]", "$..", "$.a b"};
+        for (String query : invalid) {
+            try {
+                JsomQuery.compile(query);
+                fail(query);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static List<Object> raw(String query) {
+        return raw(query, STORE);
+    }
+
+    private static List<Object> raw(String query, Object root) {
+        return JsomQuery.compile(query).rawStream(root).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomSelectionTest extends TestCase {
+
+    public String order = "{\"id\": 7, \"customer\": {\"name\": \"Ann\", \"tags\": [\"a\", {\"b\": [1, 2]}]},"
+            + " \"items\": [{\"name\": \"pen\", \"price\": 2.5, \"note\": \"x}\\\"]\"},"
+            + " {\"name\": \"ink\", \"price\": 3, \"sizes\": [[1], [2, 3]]}], \"total\": 5.5}";
+
+    public void testSelect() {
+        Jsom json = parse(order, select("/id", "/items/*/price"));
+        assertEquals(parse("{\"id\": 7, \"items\": [{\"price\": 2.5}, {\"price\": 3}]}").toMap(), json.toMap());
+    }
+
+    public void testSubtrees() {
+        Jsom json = parse(order, select("/customer", "/customer/name", "/items/1/sizes/1"));
+        assertEquals(parse(order).get("customer").toMap(), json.get("customer").toMap());
+        assertEquals(2, json.size());
+        assertTrue(json.get("items").get(0).isNull());
+        assertEquals(parse("[null, [2, 3]]").toList(), json.at("/items/1/sizes").toList());
+    }
+
+    public void testWildcardAndIndex() {
+        Jsom json = parse(order, select("/items/1/name", "/items/*/price"));
+        assertEquals(parse("[{\"price\": 2.5}, {\"name\": \"ink\", \"price\": 3}]").toList(),
+                json.get("items").toList());
+        assertEquals(parse("{\"a\": {\"x\": 1}, \"b\": {\"x\": 2}}").toMap(),
+                parse("{\"a\": {\"x\": 1, \"y\": 0}, \"b\": {\"x\": 2}, \"c\": 3}", select("/*/x")).toMap());
+    }
+
+    public void testPointersResolve() {
+        Jsom full = parse(order);
+        String[] pointers = {"/id", "/customer/tags/1/b/0", "/items/1/sizes/1/1", "/total"};
+        Jsom json = parse(order, select(pointers));
+        for (String pointer : pointers) {
+            assertEquals(pointer, valueOf(full.at(pointer)), valueOf(json.at(pointer)));
+        }
+        assertTrue(json.at("/customer/name").isNull());
+        assertTrue(json.at("/items/0/name").isNull());
+    }
+
+    public void testRoot() {
+        assertEquals(parse(order).toMap(), parse(order, select("")).toMap());
+        assertEquals("x", parse("\"x\"", select("")).toString());
+        assertTrue(parse("42", select("/a")).isNull());
+        assertTrue(parse(order, select()).isNull());
+        assertEquals(0, parse(order, select("/missing")).size());
+        assertEquals(parse("[null, null]").toList(), parse("[1, {\"a\": 2}]", select("/a")).toList());
+    }
+
+    public void testKeys() {
+        assertEquals(parse("{\"ab\": 1}").toMap(), parse("{\"a\\u0062\": 1, \"c\": 2}", select("/ab")).toMap());
+        assertEquals(parse("{\"a/b\": 1}").toMap(),
+                parse("{\"a/b\": 1, \"a~b\": 2}", select("/" + JsomPath.escape("a/b"))).toMap());
+        // later duplicates win, as when parsing everything
+        assertEquals(2, parse("{\"a\": 1, \"b\": 0, \"a\": 2}", select("/a")).get("a").toInt());
+    }
+
+    public void testReader() {
+        StringBuilder text = new StringBuilder("{\"skipped\": [");
+        for (int i = 0; i < 3000; ++i) {
+            text.append("{\"k\": \"").append(i).append("\\\\\\\"\"}, ");
+        }
+        text.append("\"").append(new String(new char[20000]).replace('\0', 'x')).append("\"], \"kept\": ");
+        for (int i = 0; i < 2000; ++i) {
+            text.append("{\"key").append(i).append("\": ");
+        }
+        text.append("true");
+        for (int i = 0; i < 2000; ++i) {
+            text.append('}');
+        }
+        text.append('}');
+        Jsom json = parse(new StringReader(text.toString()), select("/kept/key0/key1"));
+        assertEquals(1, json.size());
+        assertTrue(json.at("/kept/key0/key1/key2").isMap());
+        assertEquals(json.toMap(), parse(text, select("/kept/key0/key1")).toMap());
+    }
+
+    public void testMalformed() {
+        String[] inputs = {
+            "{\"a\": 1, \"b\": \"open}",
+            "{\"a\": 1, \"b\": [1, {\"c\": 2}}",
+            "{\"a\": 1, \"b\": }",
+            "{\"a\": 1, \"b\" 2}",
+            "{\"a\": tru, \"b\": 2}",
+            "{\"a\": 1, \"b\": 2} x",
+            "[1, 2,]",
+        };
+        for (String input : inputs) {
+            try {
+                parse(input, select("/a"));
+                fail(input);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+        try {
+            parse(order, null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+    }
+
+    public void testToString() {
+        assertEquals("[/id, /items/*/price]", select("/id", "/items/*/price", "/id").toString());
+    }
+
+}
@@ -0,0 +1,88 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomTapeTest extends TestCase {
+
+    public void testRoundTrip() {
+        String json = "{\"a\":{\"b\":[1,-2.5,\"x\\n\\u00e9\",true,false,null,{},[]]},\"s\":\"ä\","
+                + "\"l\":9223372036854775807,\"big\":123456789012345678901,\"i\":-7}";
+        Jsom doc = parse(json);
+        Jsom tape = doc.toTape();
+        assertTrue(tape.isMap());
+        assertEquals(doc.toMap(), tape.toMap());
+        assertEquals(doc.toJson(), tape.toJson());
+        assertEquals(Long.MAX_VALUE, tape.get("l").toLong());
+        assertEquals(-7, tape.get("i").toInt());
+        assertEquals(new BigInteger("123456789012345678901"), valueOf(tape.get("big")));
+        assertEquals(-2.5, tape.get("a").get("b").get(1).toDouble());
+        assertEquals("x\né", tape.get("a").get("b").get(2).toString());
+        assertTrue(tape.get("a").get("b").get(5).isNull());
+        assertTrue(tape.get("missing").isNull());
+        assertFalse(tape.containsKey("missing"));
+
+        assertEquals(1, $(1).toTape().toInt());
+        assertTrue($(null).toTape().isNull());
+        assertEquals(new BigDecimal("1.50"), valueOf(list(new BigDecimal("1.50")).toTape().get(0)));
+        assertEquals(0, list().toTape().size());
+        assertEquals(0, map().toTape().size());
+    }
+
+    public void testLargeContainers() {
+        Jsom map = map();
+        Jsom list = list();
+        for (int i = 0; i < 1000; ++i) {
+            map.put("k" + i, list(i, map().put("v", "s" + i)));
+            list.add(i % 3 == 0 ? (Object) ("e" + i) : (Object) (long) i);
+        }
+        // Keys with equal hashes
+        map.put("Aa", 1).put("BB", 2);
+        Jsom tape = map().put("map", map).put("list", list).toTape();
+        assertEquals(map.toMap(), tape.get("map").toMap());
+        assertEquals(list.toList(), tape.get("list").toList());
+        assertEquals("s500", tape.get("map").get("k500").get(1).get("v").toString());
+        assertEquals(1, tape.get("map").get("Aa").toInt());
+        assertEquals(2, tape.get("map").get("BB").toInt());
+        assertFalse(tape.get("map").containsKey("Ab"));
+        assertEquals(map.keys().toList(), tape.get("map").keys().toList());
+        assertEquals(998L, tape.get("list").get(998).toLong());
+        assertEquals(list.rawStream().collect(Collectors.toList()),
+                tape.get("list").rawParallelStream().collect(Collectors.toList()));
+    }
+
+    public void testMaterialize() {
+        Jsom tape = parse("{\"a\":[1,{\"b\":2}]}").toTape();
+        try {
+            tape.put("c", 3);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Jsom copy = tape.get("a").materialize();
+        copy.get(1).put("c", 3);
+        copy.add(4);
+        assertEquals(parse("[1,{\"b\":2,\"c\":3},4]").toList(), copy.toList());
+        assertEquals(parse("{\"a\":[1,{\"b\":2}]}").toMap(), tape.toMap());
+    }
+
+    public void testInvalid() {
+        try {
+            list(new Object()).toTape();
+            fail();
+        } catch (ClassCastException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList(1, 2.0), list((short) 1, 2.0f).toTape().toList());
+    }
+
+}
@@ -2,6 +2,9 @@ package de.md.jsom;
 
 import static de.md.jsom.Jsom.*;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import junit.framework.TestCase;
 
 /**
@@ -28,6 +31,31 @@ public class JsomTest extends TestCase {
         assertEquals(3, list(1, 2, 3).get(2).toInt());
     }
     
+    public void testNumbers() {
+        Jsom numbers = list(1, 2L, 3.5, new BigDecimal("4.25"), new BigInteger("5"), null);
+        assertEquals(1L, numbers.get(0).toLong());
+        assertEquals(2, numbers.get(1).toInt());
+        assertEquals(3, numbers.get(2).toLong());
+        assertEquals(4.25, numbers.get(3).toDouble());
+        assertEquals(5, numbers.get(4).toInt());
+        assertEquals(0, numbers.get(5).toLong());
+        assertEquals(15.75, numbers.doubles().sum());
+        assertEquals(15L, numbers.longs().sum());
+        try {
+            $("1").toLong();
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+    }
+
+    public void testProjections() {
+        Jsom items = list(map().put("year", 1999), map().put("year", 2017L), map());
+        assertEquals(2017, items.ints("year").max().getAsInt());
+        assertEquals(4016L, items.longs("year").sum());
+        assertEquals(0.0, items.doubles("year").min().getAsDouble());
+    }
+
     public void testValues() {
         test.values().toList();
     }
@@ -0,0 +1,75 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class JsomWriterTest extends TestCase {
+
+    public void testToJson() {
+        Jsom json = $(new LinkedHashMap<>())
+                .put("array", list(1, 2L, -3, Long.MIN_VALUE))
+                .put("doubles", list(1.5, 2.0, -0.0, 1e300, Double.NaN))
+                .put("big", new BigDecimal("1.25"))
+                .put("flags", list(true, false, null))
+                .put("empty", list().add(map()));
+        assertEquals("{\"array\":[1,2,-3,-9223372036854775808],"
+                + "\"doubles\":[1.5,2.0,-0.0,1.0E300,null],"
+                + "\"big\":1.25,\"flags\":[true,false,null],\"empty\":[{}]}", json.toJson());
+        assertEquals("\"text\"", $("text").toJson());
+        assertEquals("null", $(null).toJson());
+    }
+
+    public void testEscapes() {
+        assertEquals("\"a\\\"b\\\\c\\n\\t\\u0001é😀\"", $("a\"b\\c\n\t\u0001é😀").toJson());
+    }
+
+    public void testWriteTo() {
+        StringBuilder builder = new StringBuilder();
+        list("a", 1).writeTo(builder);
+        assertEquals("[\"a\",1]", builder.toString());
+
+        StringWriter writer = new StringWriter();
+        list("a", 1).writeTo(writer);
+        assertEquals("[\"a\",1]", writer.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        list("über", "😀").writeTo(out);
+        assertEquals("[\"über\",\"😀\"]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testRoundTrip() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; ++i) {
+            text.append("😀").append(i);
+        }
+        Jsom json = list();
+        for (int i = 0; i < 100; ++i) {
+            json.add(map().put("i", i).put("text", text.toString()).put("nested", list(list(i))));
+        }
+        assertEquals(valueOf(json), valueOf(parse(json.toJson())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        json.writeTo(out);
+        assertEquals(json.toJson(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    public void testUnknown() {
+        try {
+            $(new Object()).toJson();
+            fail();
+        } catch (ClassCastException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.md.jsom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class PersistentListTest extends TestCase {
+
+    public void testAppend() {
+        List<Object> expected = new ArrayList<>();
+        PersistentList list = PersistentList.EMPTY;
+        List<PersistentList> versions = new ArrayList<>();
+        for (int i = 0; i < 40000; ++i) {
+            expected.add(i);
+            list = list.withAdded(i);
+            if (i % 1000 == 0) {
+                versions.add(list);
+            }
+        }
+        assertEquals(expected, list);
+        assertEquals(expected.hashCode(), list.hashCode());
+        for (int i = 0; i < versions.size(); ++i) {
+            assertEquals(i * 1000 + 1, versions.get(i).size());
+            assertEquals(expected.subList(0, i * 1000 + 1), versions.get(i));
+        }
+    }
+
+    public void testOf() {
+        for (int size : new int[] { 0, 1, 31, 32, 33, 64, 1056, 1057, 33 * 1024 + 5 }) {
+            Object[] elements = new Object[size];
+            for (int i = 0; i < size; ++i) {
+                elements[i] = i;
+            }
+            PersistentList list = PersistentList.of(elements.clone());
+            assertEquals(size, list.size());
+            for (int i = 0; i < size; ++i) {
+                assertEquals(i, list.get(i));
+            }
+            PersistentList next = list.withAdded("x").withAdded("y");
+            assertEquals(size + 2, next.size());
+            assertEquals("y", next.get(size + 1));
+            assertEquals(size, list.size());
+        }
+    }
+
+    public void testWith() {
+        Random random = new Random(7);
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            expected.add(i);
+        }
+        PersistentList original = PersistentList.of(expected.toArray());
+        PersistentList list = original;
+        for (int i = 0; i < 2000; ++i) {
+            int index = random.nextInt(expected.size());
+            expected.set(index, -i);
+            list = list.with(index, -i);
+        }
+        assertEquals(expected, list);
+        assertEquals(4999, original.get(4999));
+        assertSame(list, list.with(0, list.get(0)));
+        try {
+            list.with(5000, 1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            list.add(1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.md.jsom;
+
+import static de.md.jsom.Jsom.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class PersistentMapTest extends TestCase {
+
+    public void testRandom() {
+        Random random = new Random(42);
+        Map<String, Object> expected = new HashMap<>();
+        PersistentMap map = PersistentMap.EMPTY;
+        for (int i = 0; i < 20000; ++i) {
+            String key = "k" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.without(key);
+            } else {
+                expected.put(key, i);
+                map = map.with(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        for (String key : expected.keySet()) {
+            map = map.without(key);
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(map, PersistentMap.EMPTY);
+    }
+
+    public void testCollisions() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        PersistentMap map = PersistentMap.EMPTY.with("Aa", 1).with("BB", 2).with("AaAa", 3).with("BBBB", 4)
+                .with("AaBB", 5);
+        assertEquals(5, map.size());
+        assertEquals(2, map.get("BB"));
+        assertEquals(5, map.get("AaBB"));
+        assertNull(map.get("BBAa"));
+        map = map.with("BB", 6).without("Aa");
+        assertEquals(4, map.size());
+        assertEquals(6, map.get("BB"));
+        assertFalse(map.containsKey("Aa"));
+        assertSame(map, map.without("Aa").without(null));
+    }
+
+    public void testSharing() {
+        PersistentMap map = PersistentMap.EMPTY.with("a", 1);
+        PersistentMap next = map.with("b", 2);
+        assertEquals(1, map.size());
+        assertEquals(2, next.size());
+        assertSame(next, next.with("b", next.get("b")));
+        try {
+            next.put("c", 3);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            next.with(null, 3);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+    public void testFreeze() {
+        Jsom original = map().put("name", "x").put("tags", list("a", map().put("b", 1)));
+        Jsom frozen = original.freeze();
+        assertTrue(frozen.isFrozen());
+        assertFalse(original.isFrozen());
+        assertEquals(original.toMap(), frozen.toMap());
+        assertTrue(frozen.get("tags").isFrozen());
+        assertTrue(frozen.get("tags").get(1).isFrozen());
+        assertSame(frozen.toMap(), frozen.freeze().toMap());
+
+        Jsom next = frozen.with("name", "y").with("list", new Object[] { map() });
+        assertEquals("x", frozen.get("name").toString());
+        assertEquals("y", next.get("name").toString());
+        assertTrue(next.get("list").get(0).isFrozen());
+        assertSame(frozen.get("tags").toList(), next.get("tags").toList());
+
+        Jsom tags = frozen.get("tags").withAdded("c").with(0, "z");
+        assertEquals(Arrays.asList("a", map().put("b", 1).toMap()), frozen.get("tags").toList());
+        assertEquals("[\"z\",{\"b\":1},\"c\"]", tags.toJson());
+        assertFalse(frozen.without("tags").containsKey("tags"));
+        assertTrue(map().put("a", 1).with("b", 2).isFrozen());
+
+        try {
+            frozen.put("a", 1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Jsom thawed = deepClone(frozen).put("a", 1);
+        assertFalse(thawed.isFrozen());
+        thawed.get("tags").add("d");
+        assertEquals(2, frozen.get("tags").size());
+    }
+
+    public void testSerialization() throws Exception {
+        Jsom frozen = map().put("a", list(1, 2)).put("b", "c").freeze();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(frozen.toMap());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Object copy = in.readObject();
+            assertEquals(frozen.toMap(), copy);
+            assertTrue($(copy).isFrozen());
+            assertTrue($(copy).get("a").isFrozen());
+        }
+    }
+
+}